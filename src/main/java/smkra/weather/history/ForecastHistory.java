@@ -0,0 +1,266 @@
+package smkra.weather.history;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import smkra.weather.model.CodeDictionary;
+import smkra.weather.model.CompactWeather;
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Persistent history of the forecasts received, answering queries at disk speed without keeping the responses.
+ *
+ * The forecasts of each city are appended to a {@link Segment} file of their own in the history directory, named
+ * after the city ID, e.g. <code>020010.seg</code>. Each forecast of a response is one fixed-width record, holding
+ * the time of publication, date, date label, telop and temperatures. A response published no later than the last
+ * one recorded for its city is ignored, so recording the same response twice, e.g. from the cache, adds nothing.
+ * Telops and date labels are stored as codes of a dictionary kept in the file <code>codes.txt</code>, one code and
+ * its string per line, separated by a tab. The dictionary belongs to the history alone, so the strings of other
+ * responses are not added to it, and a code keeps its string however the lines are ordered.
+ *
+ * Queries map the segment into memory and find the first record of interest by a binary search over the times of
+ * publication, reading only the records returned. The history is safe to be used by several threads, but only by
+ * one process at a time.
+ */
+public class ForecastHistory implements Closeable {
+
+	static final String SEGMENT_EXTENSION = ".seg";
+	static final String CODES_FILE = "codes.txt";
+
+	private static final int NO_DATE = Integer.MIN_VALUE;
+	/**
+	 * Maximum number of days a forecast is published before its date, including the offset of the local time of
+	 * the weather API to UTC
+	 */
+	private static final int MAX_LEAD_DAYS = 3;
+
+	private final Path directory;
+	private final ConcurrentHashMap<String, Segment> segments = new ConcurrentHashMap<>();
+	private final CodeDictionary codes = new CodeDictionary();
+	private final BufferedWriter codesWriter;
+
+	/**
+	 * Opens the history kept in the given directory, creating it if needed.
+	 * @param directory the directory of the history
+	 * @throws IOException if the directory could not be created or the codes could not be read, e.g. because a code
+	 * or string is contained twice
+	 */
+	public ForecastHistory(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		Path codesFile = directory.resolve(CODES_FILE);
+		if (Files.exists(codesFile)) {
+			List<String> lines = Files.readAllLines(codesFile, StandardCharsets.UTF_8);
+			for (int i = 0; i < lines.size(); i++) {
+				String line = lines.get(i);
+				int tab = line.indexOf('\t');
+				try {
+					int code = tab > 0 ? Integer.parseInt(line.substring(0, tab)) : -1;
+					if (code < 1 || code > 0xFFFF)
+						throw new IOException("Invalid code in line " + (i + 1) + " of " + codesFile);
+					codes.put((short) code, line.substring(tab + 1));
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid code in line " + (i + 1) + " of " + codesFile, e);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(e.getMessage() + " in line " + (i + 1) + " of " + codesFile, e);
+				}
+			}
+		}
+		codesWriter = Files.newBufferedWriter(codesFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Appends the forecasts of a response to the history of a city, unless the response was not published after
+	 * the last one recorded.
+	 * @param cityID the ID of the city, six digits
+	 * @param response the response
+	 * @return the number of forecasts appended
+	 * @throws IOException if writing to the history failed
+	 * @throws NumberFormatException if the city ID is not a number
+	 */
+	public int append(String cityID, WeatherResponse response) throws IOException {
+		int city = Integer.parseInt(cityID);
+		// the strings of the response are only needed while appending, the codes of the history are added below
+		CompactWeather weather = CompactWeather.of(response, new CodeDictionary());
+		if (weather.getPublicTime() == CompactWeather.NO_TIME || weather.getForecastCount() == 0)
+			return 0;
+		Segment segment = getSegment(cityID);
+		synchronized (segment) {
+			if (weather.getPublicTime() <= segment.getLastPublicTime())
+				return 0;
+			ByteBuffer records = ByteBuffer.allocate(weather.getForecastCount() * Segment.RECORD_SIZE);
+			for (int i = 0; i < weather.getForecastCount(); i++) {
+				records.putInt(city);
+				records.putLong(weather.getPublicTime());
+				records.putInt(toEpochDay(weather.getDate(i)));
+				records.putShort(codeOf(weather.getDateLabel(i)));
+				records.putShort(codeOf(weather.getTelop(i)));
+				records.putShort(weather.getMinTenths(i));
+				records.putShort(weather.getMaxTenths(i));
+			}
+			records.flip();
+			segment.append(records);
+			return weather.getForecastCount();
+		}
+	}
+
+	/**
+	 * Gives the last forecasts recorded for a city.
+	 * @param cityID the ID of the city
+	 * @param count the maximum number of forecasts
+	 * @return the forecasts, the latest last
+	 * @throws IOException if reading the history failed
+	 */
+	public List<ForecastRecord> getLast(String cityID, int count) throws IOException {
+		Segment segment = findSegment(cityID);
+		if (segment == null || count <= 0)
+			return Collections.emptyList();
+		ByteBuffer records = segment.map();
+		int size = records.capacity() / Segment.RECORD_SIZE;
+		return read(cityID, records, Math.max(0, size - count), size);
+	}
+
+	/**
+	 * Gives the forecasts of a city published within the given time.
+	 * @param cityID the ID of the city
+	 * @param from the earliest time of publication in epoch milliseconds
+	 * @param to the time of publication in epoch milliseconds the forecasts are published before
+	 * @return the forecasts, the latest last
+	 * @throws IOException if reading the history failed
+	 */
+	public List<ForecastRecord> getPublished(String cityID, long from, long to) throws IOException {
+		Segment segment = findSegment(cityID);
+		if (segment == null)
+			return Collections.emptyList();
+		ByteBuffer records = segment.map();
+		return read(cityID, records, Segment.search(records, from), Segment.search(records, to));
+	}
+
+	/**
+	 * Gives the trend of the forecasts for the days of the given range, i.e. the forecast of each day published
+	 * last. Only the records of the forecasts published shortly before or within the range are read.
+	 * @param cityID the ID of the city
+	 * @param from the first day
+	 * @param to the last day
+	 * @return the last forecast of each day with forecasts, ordered by date
+	 * @throws IOException if reading the history failed
+	 */
+	public List<ForecastRecord> getTrend(String cityID, LocalDate from, LocalDate to) throws IOException {
+		long start = from.minusDays(MAX_LEAD_DAYS).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+		long end = to.plusDays(MAX_LEAD_DAYS).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+		TreeMap<LocalDate, ForecastRecord> latest = new TreeMap<>();
+		for (ForecastRecord record : getPublished(cityID, start, end)) {
+			LocalDate date = record.getDate();
+			if (date != null && !date.isBefore(from) && !date.isAfter(to))
+				latest.put(date, record);
+		}
+		return new ArrayList<>(latest.values());
+	}
+
+	private List<ForecastRecord> read(String cityID, ByteBuffer records, int from, int to) {
+		List<ForecastRecord> result = new ArrayList<>(Math.max(0, to - from));
+		for (int i = from; i < to; i++) {
+			int offset = i * Segment.RECORD_SIZE;
+			int day = records.getInt(offset + Segment.DATE);
+			result.add(new ForecastRecord(cityID,
+					records.getLong(offset + Segment.PUBLIC_TIME),
+					day == NO_DATE ? null : LocalDate.ofEpochDay(day),
+					codes.valueOf(records.getShort(offset + Segment.DATE_LABEL)),
+					codes.valueOf(records.getShort(offset + Segment.TELOP)),
+					records.getShort(offset + Segment.MIN),
+					records.getShort(offset + Segment.MAX)));
+		}
+		return result;
+	}
+
+	/**
+	 * Gives the code of a string, writing the code and the string to the codes file if the string is new.
+	 */
+	private synchronized short codeOf(String value) throws IOException {
+		int size = codes.size();
+		short code = codes.codeOf(value);
+		if (codes.size() > size) {
+			codesWriter.write((code & 0xFFFF) + "\t" + value);
+			codesWriter.newLine();
+			codesWriter.flush();
+		}
+		return code;
+	}
+
+	private static int toEpochDay(String date) {
+		if (date == null)
+			return NO_DATE;
+		try {
+			return (int) LocalDate.parse(date).toEpochDay();
+		} catch (DateTimeParseException e) {
+			return NO_DATE;
+		}
+	}
+
+	private Segment getSegment(String cityID) throws IOException {
+		try {
+			return segments.computeIfAbsent(cityID, id -> {
+				try {
+					return new Segment(directory.resolve(id + SEGMENT_EXTENSION));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Gives the segment of a city, null if nothing was recorded for the city.
+	 */
+	private Segment findSegment(String cityID) throws IOException {
+		Segment segment = segments.get(cityID);
+		if (segment == null && Files.exists(directory.resolve(cityID + SEGMENT_EXTENSION)))
+			segment = getSegment(cityID);
+		return segment;
+	}
+
+	/**
+	 * @return the directory of the history
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Closes the files of the history.
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (Segment segment : segments.values()) {
+			try {
+				segment.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		segments.clear();
+		synchronized (this) {
+			codesWriter.close();
+		}
+		if (failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,87 @@
+package smkra.weather.history;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+
+import smkra.weather.model.CompactWeather;
+
+/**
+ * Forecast of one day as kept in the {@link ForecastHistory}.
+ */
+public final class ForecastRecord {
+
+	private final String cityID;
+	private final long publicTime;
+	private final LocalDate date;
+	private final String dateLabel;
+	private final String telop;
+	private final short minTenths;
+	private final short maxTenths;
+
+	ForecastRecord(String cityID, long publicTime, LocalDate date, String dateLabel, String telop, short minTenths, short maxTenths) {
+		this.cityID = cityID;
+		this.publicTime = publicTime;
+		this.date = date;
+		this.dateLabel = dateLabel;
+		this.telop = telop;
+		this.minTenths = minTenths;
+		this.maxTenths = maxTenths;
+	}
+
+	public String getCityID() {
+		return cityID;
+	}
+
+	/**
+	 * @return the time the forecast was published in epoch milliseconds
+	 */
+	public long getPublicTime() {
+		return publicTime;
+	}
+
+	/**
+	 * @return the date of the forecast, null if missing
+	 */
+	public LocalDate getDate() {
+		return date;
+	}
+
+	/**
+	 * @return the label of the date, e.g. 明日
+	 */
+	public String getDateLabel() {
+		return dateLabel;
+	}
+
+	public String getTelop() {
+		return telop;
+	}
+
+	/**
+	 * @return the minimum temperature in tenths of a degree Celsius, {@link CompactWeather#NO_TEMPERATURE} if missing
+	 */
+	public short getMinTenths() {
+		return minTenths;
+	}
+
+	/**
+	 * @return the maximum temperature in tenths of a degree Celsius, {@link CompactWeather#NO_TEMPERATURE} if missing
+	 */
+	public short getMaxTenths() {
+		return maxTenths;
+	}
+
+	/**
+	 * Gives the forecast in one line, e.g. <code>2018-03-11 明日 晴時々曇 -2/4 (2018-03-10T02:00:00Z)</code>.
+	 */
+	@Override
+	public String toString() {
+		return date + " " + dateLabel + " " + telop + " " + format(minTenths) + "/" + format(maxTenths)
+				+ " (" + Instant.ofEpochMilli(publicTime) + ")";
+	}
+
+	private static String format(short tenths) {
+		return tenths == CompactWeather.NO_TEMPERATURE ? "-" : BigDecimal.valueOf(tenths, 1).stripTrailingZeros().toPlainString();
+	}
+}
@@ -0,0 +1,124 @@
+package smkra.weather.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only file of fixed-width forecast records of one city. The records are kept ordered by their time of
+ * publication, so the column of publication times serves as time index, searched binary in the memory-mapped file.
+ * Only the records asked for are read, the file is never read as a whole.
+ *
+ * A record has {@link #RECORD_SIZE} bytes in big-endian order:
+ * <pre>
+ * int   city ID
+ * long  time of publication in epoch milliseconds
+ * int   date of the forecast in epoch days, Integer.MIN_VALUE if missing
+ * short code of the date label
+ * short code of the telop
+ * short minimum temperature in tenths of a degree Celsius
+ * short maximum temperature in tenths of a degree Celsius
+ * </pre>
+ */
+class Segment implements Closeable {
+
+	static final int RECORD_SIZE = 24;
+
+	static final int CITY = 0;
+	static final int PUBLIC_TIME = 4;
+	static final int DATE = 12;
+	static final int DATE_LABEL = 16;
+	static final int TELOP = 18;
+	static final int MIN = 20;
+	static final int MAX = 22;
+
+	private final FileChannel channel;
+	private int count;
+	/**
+	 * Read-only mapping of the first records, replaced when records were appended since
+	 */
+	private MappedByteBuffer mapped;
+
+	/**
+	 * Opens or creates a segment. A record left incomplete by an interrupted write is dropped.
+	 * @param file the file of the segment
+	 * @throws IOException if the file could not be opened
+	 */
+	Segment(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		count = (int) (channel.size() / RECORD_SIZE);
+		if (channel.size() != (long) count * RECORD_SIZE)
+			channel.truncate((long) count * RECORD_SIZE);
+	}
+
+	/**
+	 * @return the number of records
+	 */
+	synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Appends records.
+	 * @param records the records, consecutive with {@link #RECORD_SIZE} bytes each and not published before the
+	 * last record of this segment
+	 * @throws IOException if writing failed
+	 */
+	synchronized void append(ByteBuffer records) throws IOException {
+		long position = (long) count * RECORD_SIZE;
+		int added = records.remaining() / RECORD_SIZE;
+		while (records.hasRemaining())
+			position += channel.write(records, position);
+		count += added;
+	}
+
+	/**
+	 * Gives the records mapped into memory, the record with index i starting at byte i * {@link #RECORD_SIZE}.
+	 * The buffer must only be read with absolute positions.
+	 * @return the mapped records
+	 * @throws IOException if mapping failed
+	 */
+	synchronized ByteBuffer map() throws IOException {
+		long length = (long) count * RECORD_SIZE;
+		if (mapped == null || mapped.capacity() != length)
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		return mapped;
+	}
+
+	/**
+	 * Gives the index of the first record published at or after the given time.
+	 * @param records the mapped records
+	 * @param time the time in epoch milliseconds
+	 * @return the index, the number of records if all were published before
+	 */
+	static int search(ByteBuffer records, long time) {
+		int low = 0;
+		int high = records.capacity() / RECORD_SIZE;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (records.getLong(middle * RECORD_SIZE + PUBLIC_TIME) < time)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * @return the time of publication of the last record, Long.MIN_VALUE if the segment is empty
+	 * @throws IOException if mapping failed
+	 */
+	synchronized long getLastPublicTime() throws IOException {
+		return count == 0 ? Long.MIN_VALUE : map().getLong((count - 1) * RECORD_SIZE + PUBLIC_TIME);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		mapped = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * This package provides the persistent history of the forecasts received, kept in append-only memory-mapped
+ * files per city and queried without reading whole files.
+ */
+
+package smkra.weather.history;
\ No newline at end of file
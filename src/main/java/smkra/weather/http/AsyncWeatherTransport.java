@@ -0,0 +1,171 @@
+package smkra.weather.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+
+import smkra.weather.metrics.Phase;
+import smkra.weather.metrics.WeatherMetrics;
+
+/**
+ * Non-blocking HTTP transport for the asynchronous requests of a {@link WeatherRequest}. The requests are sent and
+ * received by a few I/O threads, given by {@link TransportConfig#getIoThreads()}, so many requests can be in flight
+ * without a waiting thread each. Pool limits and timeouts are taken from the same {@link TransportConfig} as those of
+ * the blocking {@link WeatherTransport}.
+ *
+ * The NIO client does not decompress responses itself. Unless disabled by
+ * {@link TransportConfig#isContentCompression()}, gzip and deflate compressed responses are accepted and
+ * decompressed while the content is decoded, like those of the blocking transport. Responses are decoded by a
+ * {@link ResponseHandler} on an executor given by the caller, never on the I/O threads.
+ *
+ * The time needed to receive the response headers is recorded in {@link WeatherMetrics#GLOBAL}.
+ */
+public class AsyncWeatherTransport implements Closeable {
+
+	/**
+	 * Attribute of the request context holding the <code>System.nanoTime()</code> the request was started at
+	 */
+	private static final String STARTED_AT = "weather.startedAt";
+	/**
+	 * Beginning of the message of the exception the NIO client fails with, if connecting timed out
+	 */
+	private static final String CONNECT_TIMEOUT = "Timeout connecting";
+
+	private final TransportConfig config;
+	private final CloseableHttpAsyncClient httpclient;
+
+	/**
+	 * Creates a new transport using the given settings and starts its I/O threads.
+	 * @param config the settings of the transport
+	 */
+	public AsyncWeatherTransport(TransportConfig config) {
+		this.config = config;
+		WeatherMetrics metrics = WeatherMetrics.GLOBAL;
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(config.getConnectTimeout())
+				.setSocketTimeout(config.getSocketTimeout())
+				.setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+				.build();
+		httpclient = HttpAsyncClients.custom()
+				.setDefaultIOReactorConfig(IOReactorConfig.custom()
+						.setIoThreadCount(Math.max(1, config.getIoThreads()))
+						.setConnectTimeout(config.getConnectTimeout())
+						.setSoTimeout(config.getSocketTimeout())
+						.build())
+				.setMaxConnTotal(config.getMaxTotal())
+				.setMaxConnPerRoute(config.getMaxPerRoute())
+				.setDefaultRequestConfig(requestConfig)
+				.setThreadFactory(new DaemonThreadFactory("weather-io"))
+				.addInterceptorFirst((HttpRequestInterceptor) (request, context) -> {
+					context.setAttribute(STARTED_AT, System.nanoTime());
+					if (config.isContentCompression() && !request.containsHeader(HttpHeaders.ACCEPT_ENCODING))
+						request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip,deflate");
+				})
+				.addInterceptorFirst((HttpResponseInterceptor) (response, context) -> {
+					Long startedAt = (Long) context.getAttribute(STARTED_AT);
+					if (startedAt != null)
+						metrics.record(Phase.UPSTREAM, startedAt);
+				})
+				.build();
+		httpclient.start();
+	}
+
+	/**
+	 * Sends a request without blocking the calling thread.
+	 * @param request the request
+	 * @param handler the handler converting the response, called with the response decompressed
+	 * @param executor the executor the handler is called on
+	 * @param <T> the type of the converted response
+	 * @return the future converted response, completed exceptionally with the <code>IOException</code> of the
+	 * request or the handler. If connecting timed out, the exception is a {@link ConnectTimeoutException} as with
+	 * the blocking transport.
+	 */
+	public <T> CompletableFuture<T> execute(HttpUriRequest request, ResponseHandler<? extends T> handler, Executor executor) {
+		CompletableFuture<HttpResponse> received = new CompletableFuture<>();
+		httpclient.execute(request, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse response) {
+				received.complete(response);
+			}
+
+			@Override
+			public void failed(Exception e) {
+				if (e instanceof ConnectException && e.getMessage() != null && e.getMessage().startsWith(CONNECT_TIMEOUT))
+					e = new ConnectTimeoutException(e.getMessage());
+				received.completeExceptionally(e);
+			}
+
+			@Override
+			public void cancelled() {
+				received.completeExceptionally(new CancellationException("Request cancelled"));
+			}
+		});
+		return received.thenApplyAsync(response -> {
+			try {
+				return handler.handleResponse(decompress(response));
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Replaces a gzip or deflate compressed entity of the response by one decompressing the content while it is
+	 * read.
+	 * @param response the response
+	 * @return the same response
+	 */
+	static HttpResponse decompress(HttpResponse response) {
+		HttpEntity entity = response.getEntity();
+		Header encoding = entity != null ? entity.getContentEncoding() : null;
+		if (encoding == null)
+			encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+		if (entity == null || encoding == null)
+			return response;
+		String codec = encoding.getValue().trim().toLowerCase(Locale.ROOT);
+		if (codec.equals("gzip") || codec.equals("x-gzip"))
+			response.setEntity(new GzipDecompressingEntity(entity));
+		else if (codec.equals("deflate"))
+			response.setEntity(new DeflateDecompressingEntity(entity));
+		else
+			return response;
+		response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+		response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+		response.removeHeaders(HttpHeaders.CONTENT_MD5);
+		return response;
+	}
+
+	public TransportConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Closes all connections and stops the I/O threads.
+	 */
+	@Override
+	public void close() throws IOException {
+		httpclient.close();
+	}
+}
@@ -0,0 +1,212 @@
+package smkra.weather.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker protecting the callers of the weather API against an unavailable or overloaded service. The
+ * breaker is safe to be used by several threads.
+ *
+ * The outcomes of the last <code>windowSize</code> calls are kept in a sliding window. A call fails if the service
+ * did not answer or answered with a server error, it is slow if it took longer than <code>slowCallMillis</code>.
+ * The breaker is
+ * <ul>
+ * <li><b>closed</b> while calls are permitted. It opens as soon as the window contains at least
+ * <code>minimumCalls</code> calls and the rate of failed or of slow calls reaches its threshold.</li>
+ * <li><b>open</b> while calls are rejected without contacting the service. After <code>openMillis</code> it
+ * becomes half-open.</li>
+ * <li><b>half-open</b> while <code>probeCalls</code> calls are permitted to probe the service, all further calls
+ * are rejected. If all probes succeed without being slow, the breaker closes with an empty window, otherwise it
+ * opens again.</li>
+ * </ul>
+ * Every permitted call has to be followed by {@link #record(boolean, long)}, or by {@link #release()} if it was not
+ * made after all.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int windowSize;
+	private final int minimumCalls;
+	private final double failureRateThreshold;
+	private final double slowCallRateThreshold;
+	private final long slowCallMillis;
+	private final long openMillis;
+	private final int probeCalls;
+	private final LongSupplier clock;
+
+	/**
+	 * Outcomes of the calls in the window, in a ring buffer
+	 */
+	private final boolean[] failed;
+	private final boolean[] slow;
+	private int next;
+	private int calls;
+	private int failures;
+	private int slowCalls;
+
+	private State state = State.CLOSED;
+	/**
+	 * Time in milliseconds the breaker opened at
+	 */
+	private long openedAt;
+	private int probesPermitted;
+	private int probesSucceeded;
+
+	/**
+	 * Creates a breaker evaluating the last 20 calls, opening if at least 10 calls were made and half of them failed
+	 * or 80 percent took longer than 5 seconds. The breaker stays open for 30 seconds and closes after 3 successful
+	 * probe calls.
+	 */
+	public CircuitBreaker() {
+		this(20, 10, 0.5, 0.8, TimeUnit.SECONDS.toMillis(5), TimeUnit.SECONDS.toMillis(30), 3);
+	}
+
+	/**
+	 * Creates a new breaker.
+	 * @param windowSize the number of calls kept in the sliding window
+	 * @param minimumCalls the number of calls needed in the window before the breaker can open
+	 * @param failureRateThreshold the rate of failed calls between 0 and 1, at which the breaker opens
+	 * @param slowCallRateThreshold the rate of slow calls between 0 and 1, at which the breaker opens
+	 * @param slowCallMillis the milliseconds after which a call is slow
+	 * @param openMillis the milliseconds calls are rejected after the breaker opened
+	 * @param probeCalls the number of calls permitted while the breaker is half-open
+	 */
+	public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, double slowCallRateThreshold,
+			long slowCallMillis, long openMillis, int probeCalls) {
+		this(windowSize, minimumCalls, failureRateThreshold, slowCallRateThreshold, slowCallMillis, openMillis, probeCalls,
+				System::currentTimeMillis);
+	}
+
+	CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, double slowCallRateThreshold,
+			long slowCallMillis, long openMillis, int probeCalls, LongSupplier clock) {
+		this.windowSize = Math.max(1, windowSize);
+		this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallMillis = slowCallMillis;
+		this.openMillis = openMillis;
+		this.probeCalls = Math.max(1, probeCalls);
+		this.clock = clock;
+		this.failed = new boolean[this.windowSize];
+		this.slow = new boolean[this.windowSize];
+	}
+
+	/**
+	 * Asks for permission to call the service. An open breaker becomes half-open here, if it was open long enough.
+	 * @return true, if the call is permitted and its outcome has to be recorded, false if it is rejected
+	 */
+	public synchronized boolean tryAcquire() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (clock.getAsLong() - openedAt < openMillis)
+				return false;
+			state = State.HALF_OPEN;
+			probesPermitted = 0;
+			probesSucceeded = 0;
+			return permitProbe();
+		default:
+			return permitProbe();
+		}
+	}
+
+	/**
+	 * Permits a probe call of the half-open breaker, unless all probes are already running.
+	 */
+	private boolean permitProbe() {
+		if (probesPermitted >= probeCalls)
+			return false;
+		probesPermitted++;
+		return true;
+	}
+
+	/**
+	 * Records the outcome of a permitted call.
+	 * @param failure true, if the service did not answer or answered with a server error
+	 * @param millis the milliseconds the call took
+	 */
+	public synchronized void record(boolean failure, long millis) {
+		boolean isSlow = millis > slowCallMillis;
+		switch (state) {
+		case CLOSED:
+			add(failure, isSlow);
+			if (calls >= minimumCalls && (failures >= failureRateThreshold * calls || slowCalls >= slowCallRateThreshold * calls))
+				open();
+			break;
+		case HALF_OPEN:
+			if (failure || isSlow)
+				open();
+			else if (++probesSucceeded >= probeCalls)
+				close();
+			break;
+		default:
+			// a call permitted before the breaker opened, the service is already known to be unavailable
+			break;
+		}
+	}
+
+	/**
+	 * Gives back the permission of a call that was not made after all, so a probe can be made by another caller.
+	 */
+	public synchronized void release() {
+		if (state == State.HALF_OPEN && probesPermitted > probesSucceeded)
+			probesPermitted--;
+	}
+
+	private void add(boolean failure, boolean isSlow) {
+		if (calls == windowSize) {
+			if (failed[next])
+				failures--;
+			if (slow[next])
+				slowCalls--;
+		} else {
+			calls++;
+		}
+		failed[next] = failure;
+		slow[next] = isSlow;
+		if (failure)
+			failures++;
+		if (isSlow)
+			slowCalls++;
+		next = (next + 1) % windowSize;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = clock.getAsLong();
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		next = 0;
+		calls = 0;
+		failures = 0;
+		slowCalls = 0;
+	}
+
+	/**
+	 * @return the current state, an open breaker is reported as open until a call is attempted after
+	 * <code>openMillis</code>
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the rate of failed calls in the window between 0 and 1, 0 if the window is empty
+	 */
+	public synchronized double getFailureRate() {
+		return calls > 0 ? (double) failures / calls : 0;
+	}
+
+	/**
+	 * @return the rate of slow calls in the window between 0 and 1, 0 if the window is empty
+	 */
+	public synchronized double getSlowCallRate() {
+		return calls > 0 ? (double) slowCalls / calls : 0;
+	}
+}
@@ -0,0 +1,51 @@
+package smkra.weather.http;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Writes and identifies files by their content, as shared by the image cache and the site generator.
+ */
+public final class ContentFiles {
+
+	private ContentFiles() {
+	}
+
+	/**
+	 * Writes the content to a temporary file in the directory of the target and renames it to the target, so
+	 * readers never see a partly written file.
+	 * @param file the target
+	 * @param content the content of the file
+	 * @throws IOException if the file could not be written
+	 */
+	public static void writeAtomically(Path file, byte[] content) throws IOException {
+		Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, content);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * @param content the content to hash
+	 * @return the SHA-256 hash of the content as 64 lower case hex digits
+	 */
+	public static String sha256(byte[] content) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+		}
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : digest.digest(content))
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+}
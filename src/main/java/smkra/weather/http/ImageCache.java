@@ -0,0 +1,391 @@
+package smkra.weather.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Local copy of the images referenced by the weather API, e.g. the icons of the forecasts, so pages can show them
+ * without every viewer requesting them from the image host. Only a few dozen distinct icons exist across all
+ * cities.
+ *
+ * Each image is downloaded once and stored in the cache directory under the SHA-256 hash of its content, e.g.
+ * <code>3a7bd3e2...c1.gif</code>, so an image published under several URLs is stored once and a stored file never
+ * changes. The URL, file name, <code>ETag</code> and <code>Last-Modified</code> header of every image are
+ * kept in the file <code>images.txt</code> of the directory. After <code>maxAge</code> milliseconds an image is
+ * revalidated by a conditional request, which is usually answered by <code>304 Not Modified</code> without
+ * content. If the image host is not available, the stored image is used for another <code>maxAge</code>
+ * milliseconds before the host is asked again.
+ *
+ * The cache is safe to be used by several threads. If several threads ask for the same image at once, it is
+ * downloaded only once and all of them wait for that download.
+ */
+public class ImageCache {
+
+	static final String INDEX_FILE = "images.txt";
+
+	/**
+	 * Images larger than this number of bytes are not stored
+	 */
+	private static final int MAX_SIZE = 1024 * 1024;
+	private static final Pattern FILE_NAME = Pattern.compile("[0-9a-f]{64}\\.[a-z]+");
+
+	private final Path directory;
+	private final CloseableHttpClient httpclient;
+	private final long maxAge;
+	private final LongSupplier clock;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, CompletableFuture<Entry>> downloads = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, String> dataUris = new ConcurrentHashMap<>();
+
+	private final AtomicLong downloaded = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Opens the cache kept in the given directory, revalidating the images once a day.
+	 * @param directory the directory of the cache, created if missing
+	 * @param transport the transport to download the images with
+	 * @throws IOException if the directory could not be created or the index could not be read
+	 */
+	public ImageCache(Path directory, WeatherTransport transport) throws IOException {
+		this(directory, transport, TimeUnit.DAYS.toMillis(1));
+	}
+
+	/**
+	 * Opens the cache kept in the given directory.
+	 * @param directory the directory of the cache, created if missing
+	 * @param transport the transport to download the images with
+	 * @param maxAge milliseconds after downloading or revalidating an image, until it is revalidated
+	 * @throws IOException if the directory could not be created or the index could not be read
+	 */
+	public ImageCache(Path directory, WeatherTransport transport, long maxAge) throws IOException {
+		this(directory, transport.getHttpClient(), maxAge, System::currentTimeMillis);
+	}
+
+	ImageCache(Path directory, CloseableHttpClient httpclient, long maxAge, LongSupplier clock) throws IOException {
+		this.directory = directory;
+		this.httpclient = httpclient;
+		this.maxAge = maxAge;
+		this.clock = clock;
+		Files.createDirectories(directory);
+		readIndex();
+	}
+
+	/**
+	 * Gives the stored copy of an image, downloading or revalidating it if needed.
+	 * @param url the URL of the image
+	 * @return the file of the image in the cache directory
+	 * @throws IOException if the image is not stored and could not be downloaded
+	 */
+	public Path getFile(String url) throws IOException {
+		Entry entry = entries.get(url);
+		if (isFresh(entry))
+			return directory.resolve(entry.fileName);
+		CompletableFuture<Entry> download = new CompletableFuture<>();
+		CompletableFuture<Entry> running = downloads.putIfAbsent(url, download);
+		if (running == null) {
+			try {
+				// another thread may have finished downloading the image in the meantime
+				Entry current = entries.get(url);
+				download.complete(isFresh(current) ? current : download(url, current));
+			} catch (IOException | RuntimeException e) {
+				download.completeExceptionally(e);
+			} finally {
+				downloads.remove(url, download);
+			}
+			running = download;
+		}
+		try {
+			return directory.resolve(running.join().fileName);
+		} catch (CompletionException e) {
+			if (entry != null && Files.isRegularFile(directory.resolve(entry.fileName)))
+				return directory.resolve(entry.fileName);
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Could not download image " + url, e.getCause());
+		}
+	}
+
+	private boolean isFresh(Entry entry) {
+		return entry != null && clock.getAsLong() - entry.checked < maxAge && Files.isRegularFile(directory.resolve(entry.fileName));
+	}
+
+	/**
+	 * Gives the image as data URI, e.g. to embed it into a page standing on its own.
+	 * @param url the URL of the image
+	 * @return the data URI of the image
+	 * @throws IOException if the image is not stored and could not be downloaded
+	 */
+	public String getDataUri(String url) throws IOException {
+		Path file = getFile(url);
+		try {
+			return dataUris.computeIfAbsent(file.getFileName().toString(), name -> {
+				try {
+					return "data:" + getContentType(name) + ";base64," + Base64.getEncoder().encodeToString(Files.readAllBytes(file));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Gives a function replacing the URL of an image by the path of its stored copy. If the image cannot be
+	 * downloaded, the URL is kept.
+	 * @param prefix the path of the cache directory as seen by the readers of the page, e.g. <code>/images/</code>
+	 * @return the function
+	 */
+	public UnaryOperator<String> linking(String prefix) {
+		return url -> {
+			try {
+				return prefix + getFile(url).getFileName();
+			} catch (IOException e) {
+				return url;
+			}
+		};
+	}
+
+	/**
+	 * Gives a function replacing the URL of an image by its data URI. If the image cannot be downloaded, the URL
+	 * is kept.
+	 * @return the function
+	 */
+	public UnaryOperator<String> inlining() {
+		return url -> {
+			try {
+				return getDataUri(url);
+			} catch (IOException e) {
+				return url;
+			}
+		};
+	}
+
+	/**
+	 * Gives a stored image by its file name, e.g. to serve it.
+	 * @param fileName the file name as given by {@link #getFile(String)}
+	 * @return the file or null, if the name is not the name of an image stored in the cache
+	 */
+	public Path findFile(String fileName) {
+		if (fileName == null || !FILE_NAME.matcher(fileName).matches())
+			return null;
+		Path file = directory.resolve(fileName);
+		return Files.isRegularFile(file) ? file : null;
+	}
+
+	/**
+	 * Downloads an image, conditionally if a copy is already stored.
+	 */
+	private Entry download(String url, Entry stored) throws IOException {
+		HttpGet get = new HttpGet(url);
+		boolean revalidate = stored != null && Files.isRegularFile(directory.resolve(stored.fileName));
+		if (revalidate) {
+			if (stored.etag != null)
+				get.setHeader("If-None-Match", stored.etag);
+			if (stored.lastModified != null)
+				get.setHeader("If-Modified-Since", stored.lastModified);
+		}
+		Entry entry;
+		try (CloseableHttpResponse response = httpclient.execute(get)) {
+			int status = response.getStatusLine().getStatusCode();
+			HttpEntity content = response.getEntity();
+			if (status == 304 && revalidate) {
+				EntityUtils.consume(content);
+				notModified.incrementAndGet();
+				entry = new Entry(stored.fileName, header(response, "ETag", stored.etag),
+						header(response, "Last-Modified", stored.lastModified), clock.getAsLong());
+			} else if (status == 200 && content != null) {
+				if (content.getContentLength() > MAX_SIZE)
+					throw new IOException("Image " + url + " is too large");
+				byte[] image = EntityUtils.toByteArray(content);
+				if (image.length > MAX_SIZE)
+					throw new IOException("Image " + url + " is too large");
+				String fileName = ContentFiles.sha256(image) + getExtension(content.getContentType() != null ? content.getContentType().getValue() : null, url);
+				Path file = directory.resolve(fileName);
+				if (!Files.isRegularFile(file) || Files.size(file) != image.length)
+					ContentFiles.writeAtomically(file, image);
+				downloaded.incrementAndGet();
+				entry = new Entry(fileName, header(response, "ETag", null), header(response, "Last-Modified", null), clock.getAsLong());
+			} else {
+				EntityUtils.consume(content);
+				throw new IOException("Could not download image " + url + ": " + response.getStatusLine());
+			}
+		} catch (IOException e) {
+			failed.incrementAndGet();
+			// the stored image is used until it expires again, instead of asking the failing host on every use
+			if (revalidate)
+				entries.put(url, new Entry(stored.fileName, stored.etag, stored.lastModified, clock.getAsLong()));
+			throw e;
+		}
+		entries.put(url, entry);
+		writeIndex();
+		return entry;
+	}
+
+	private static String header(CloseableHttpResponse response, String name, String defaultValue) {
+		Header header = response.getFirstHeader(name);
+		return header != null && !header.getValue().isEmpty() ? header.getValue() : defaultValue;
+	}
+
+	/**
+	 * Gives the file extension of an image by its content type or, if unknown, by its URL.
+	 */
+	static String getExtension(String contentType, String url) {
+		if (contentType != null) {
+			String type = contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+			switch (type) {
+			case "image/gif":
+				return ".gif";
+			case "image/png":
+				return ".png";
+			case "image/jpeg":
+				return ".jpg";
+			case "image/svg+xml":
+				return ".svg";
+			default:
+				break;
+			}
+		}
+		String path = url.replaceFirst("[?#].*", "");
+		int dot = path.lastIndexOf('.');
+		if (dot > path.lastIndexOf('/')) {
+			String extension = path.substring(dot + 1).toLowerCase(Locale.ROOT);
+			if (extension.matches("[a-z]{1,4}"))
+				return "." + (extension.equals("jpeg") ? "jpg" : extension);
+		}
+		return ".img";
+	}
+
+	/**
+	 * Gives the content type of a stored image by the extension of its file name.
+	 * @param fileName the name of the file
+	 * @return the content type
+	 */
+	public static String getContentType(String fileName) {
+		String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+		switch (extension) {
+		case "gif":
+			return "image/gif";
+		case "png":
+			return "image/png";
+		case "jpg":
+			return "image/jpeg";
+		case "svg":
+			return "image/svg+xml";
+		default:
+			return "application/octet-stream";
+		}
+	}
+
+	/**
+	 * Reads the index, each line containing URL, file name, ETag, Last-Modified and the time of the last check
+	 * separated by tabs.
+	 */
+	private void readIndex() throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(directory.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length != 5 || !FILE_NAME.matcher(fields[1]).matches())
+					continue;
+				try {
+					entries.put(fields[0], new Entry(fields[1], emptyToNull(fields[2]), emptyToNull(fields[3]), Long.parseLong(fields[4])));
+				} catch (NumberFormatException e) {
+					// the image is downloaded again
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// new cache
+		}
+	}
+
+	private synchronized void writeIndex() throws IOException {
+		StringBuilder index = new StringBuilder(entries.size() * 200);
+		for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+			Entry value = entry.getValue();
+			index.append(entry.getKey()).append('\t').append(value.fileName).append('\t')
+					.append(nullToEmpty(value.etag)).append('\t').append(nullToEmpty(value.lastModified)).append('\t')
+					.append(value.checked).append('\n');
+		}
+		ContentFiles.writeAtomically(directory.resolve(INDEX_FILE), index.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String emptyToNull(String value) {
+		return value.isEmpty() ? null : value;
+	}
+
+	private static String nullToEmpty(String value) {
+		return value == null ? "" : value.replaceAll("[\t\r\n]", " ");
+	}
+
+
+	/**
+	 * @return the directory of the cache
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the number of images downloaded with content
+	 */
+	public long getDownloaded() {
+		return downloaded.get();
+	}
+
+	/**
+	 * @return the number of revalidations answered without content, because the image did not change
+	 */
+	public long getNotModified() {
+		return notModified.get();
+	}
+
+	/**
+	 * @return the number of failed downloads and revalidations
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Stored image of a URL
+	 */
+	private static final class Entry {
+		final String fileName;
+		final String etag;
+		final String lastModified;
+		final long checked;
+
+		Entry(String fileName, String etag, String lastModified, long checked) {
+			this.fileName = fileName;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.checked = checked;
+		}
+	}
+}
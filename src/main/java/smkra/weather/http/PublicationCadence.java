@@ -0,0 +1,103 @@
+package smkra.weather.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns when the weather API publishes new forecasts for a city from the observed publication times. The weather
+ * API publishes at fixed times of the day, so the times of the day of the last publications are kept as slots and
+ * the next publication is expected at the next slot after the latest publication.
+ *
+ * Instances are not thread safe.
+ */
+class PublicationCadence {
+
+	private static final long DAY = TimeUnit.DAYS.toMillis(1);
+	/**
+	 * Publications less than this apart in the time of the day are considered to belong to the same slot
+	 */
+	private static final long SLOT_TOLERANCE = TimeUnit.MINUTES.toMillis(20);
+	/**
+	 * Number of publications remembered, older ones are forgotten so changed publication times are learned
+	 */
+	private static final int HISTORY = 12;
+
+	private final Deque<Long> publications = new ArrayDeque<>();
+	private long latest = -1;
+
+	/**
+	 * Adds an observed publication time.
+	 * @param publicTime the publication time in milliseconds since the epoch
+	 * @return true, if the publication is newer than all previously observed ones
+	 */
+	boolean observe(long publicTime) {
+		if (publicTime <= latest)
+			return false;
+		latest = publicTime;
+		publications.addLast(publicTime);
+		if (publications.size() > HISTORY)
+			publications.removeFirst();
+		return true;
+	}
+
+	/**
+	 * @return the latest observed publication time, -1 if none was observed
+	 */
+	long getLatest() {
+		return latest;
+	}
+
+	/**
+	 * Tells whether the observed publications span a whole day, so every slot of the day should have been
+	 * observed once, provided the city was refreshed often enough.
+	 * @return true, if the oldest and the latest remembered publication are about a day apart
+	 */
+	boolean coversDay() {
+		return !publications.isEmpty() && latest - publications.getFirst() >= DAY - SLOT_TOLERANCE;
+	}
+
+	/**
+	 * Gives the time the publication following the latest observed one is expected at. If only one publication
+	 * was observed, the next one is expected the same time on the next day.
+	 * @return the expected publication time in milliseconds since the epoch, -1 if no publication was observed
+	 */
+	long getNextPublication() {
+		if (latest < 0)
+			return -1;
+		long latestTimeOfDay = Math.floorMod(latest, DAY);
+		long next = -1;
+		for (long slot : getSlots()) {
+			long wait = Math.floorMod(slot - latestTimeOfDay, DAY);
+			if (wait < SLOT_TOLERANCE)
+				wait += DAY; // slot of the latest publication
+			if (next < 0 || wait < next)
+				next = wait;
+		}
+		return latest + next;
+	}
+
+	/**
+	 * Gives the times of the day publications were observed at, merging times within the tolerance.
+	 * @return the slots in milliseconds since midnight UTC
+	 */
+	List<Long> getSlots() {
+		List<Long> slots = new ArrayList<>();
+		for (long publication : publications) {
+			long timeOfDay = Math.floorMod(publication, DAY);
+			boolean known = false;
+			for (long slot : slots) {
+				long diff = Math.abs(slot - timeOfDay);
+				if (Math.min(diff, DAY - diff) < SLOT_TOLERANCE) {
+					known = true;
+					break;
+				}
+			}
+			if (!known)
+				slots.add(timeOfDay);
+		}
+		return slots;
+	}
+}
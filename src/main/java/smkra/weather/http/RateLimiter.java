@@ -0,0 +1,272 @@
+package smkra.weather.http;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting the rate of requests sent to the weather API. The bucket is refilled with
+ * <code>rate</code> permits per second and holds at most <code>burst</code> permits, so after being idle up to
+ * <code>burst</code> requests are sent at once. The limiter is safe to be used by several threads.
+ *
+ * Callers do not spin while waiting: each caller reserves the next free permit and sleeps until it is due, so
+ * waiting callers are served in the order they arrived. A caller gives up if the permit would not be due before
+ * its deadline.
+ *
+ * If the weather API asks to back off, e.g. with a "retry-after" header, the whole bucket is {@link #pause(long)
+ * paused}: it is emptied and no permit is due before the pause ends. The permits already reserved by waiting
+ * callers are postponed by the length of the pause, so they keep their spacing. Afterwards the permits are given
+ * at the configured rate, without a burst.
+ *
+ * The requests of all {@link WeatherRequest}s of a process are limited by {@link #GLOBAL}, unless configured
+ * otherwise.
+ */
+public class RateLimiter {
+
+	/**
+	 * Limiter shared by all requests of this process, allowing 10 requests per second with bursts of 10 requests
+	 */
+	public static final RateLimiter GLOBAL = new RateLimiter(10, 10);
+
+	/**
+	 * Result of {@link #reserve(long, long)} if no permit was reserved. Times are values of
+	 * <code>System.nanoTime()</code>, which may be negative, so they are only compared by their difference.
+	 */
+	static final long NOT_RESERVED = Long.MIN_VALUE;
+
+	private final LongSupplier clock;
+
+	/**
+	 * Nanoseconds between two permits
+	 */
+	private long interval;
+	private int burst;
+	/**
+	 * Permits currently available, updated whenever a permit is reserved
+	 */
+	private double stored;
+	/**
+	 * Time in nanoseconds the permits are stored for, if it is in the future the time the last reserved permit
+	 * is due
+	 */
+	private long nextFree;
+	/**
+	 * Time in nanoseconds the current pause ends
+	 */
+	private long pausedUntil;
+	/**
+	 * Nanoseconds all reserved permits were postponed by pauses so far
+	 */
+	private long shifted;
+
+	/**
+	 * Creates a new limiter with a full bucket.
+	 * @param rate the number of permits per second
+	 * @param burst the maximum number of permits stored
+	 */
+	public RateLimiter(double rate, int burst) {
+		this(rate, burst, System::nanoTime);
+	}
+
+	RateLimiter(double rate, int burst, LongSupplier clock) {
+		this.clock = clock;
+		setRate(rate);
+		setBurst(burst);
+		stored = this.burst;
+		nextFree = clock.getAsLong();
+		pausedUntil = nextFree;
+	}
+
+	/**
+	 * Waits for a permit to send a request.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of <code>timeout</code>
+	 * @return true, if the request can be sent now, false if no permit was due within the timeout
+	 * @throws InterruptedException if waiting was interrupted
+	 */
+	public boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+		return acquire(0, timeout, unit);
+	}
+
+	/**
+	 * Waits for a permit to send a request, which is going to be sent after an additional <code>delay</code>
+	 * waited by the caller itself, e.g. before retrying a request. Only the time the permit is due after the delay
+	 * is waited here.
+	 * @param delay the time the caller waits after this method returned
+	 * @param timeout the maximum time to wait in addition to the delay
+	 * @param unit the unit of <code>delay</code> and <code>timeout</code>
+	 * @return true, if the request can be sent after the delay, false if no permit was due within the timeout
+	 * @throws InterruptedException if waiting was interrupted
+	 */
+	public boolean acquire(long delay, long timeout, TimeUnit unit) throws InterruptedException {
+		long delayNanos = unit.toNanos(delay);
+		long start = clock.getAsLong() + delayNanos;
+		long deadline = start + unit.toNanos(timeout);
+		long due;
+		long shift;
+		synchronized (this) {
+			due = reserve(start, deadline);
+			shift = shifted;
+		}
+		if (due == NOT_RESERVED)
+			return false;
+		long wait;
+		while ((wait = due - (clock.getAsLong() + delayNanos)) > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+			// the bucket may have been paused while waiting
+			long current = getShifted();
+			due += current - shift;
+			shift = current;
+			if (due - deadline > 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for a permit to send a request without blocking the calling thread.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of <code>timeout</code>
+	 * @param scheduler the scheduler completing the result when the permit is due
+	 * @return the future result, completed with true when the request can be sent, with false if no permit was due
+	 * within the timeout
+	 */
+	public CompletableFuture<Boolean> acquireAsync(long timeout, TimeUnit unit, ScheduledExecutorService scheduler) {
+		long start = clock.getAsLong();
+		long deadline = start + unit.toNanos(timeout);
+		long due;
+		long shift;
+		synchronized (this) {
+			due = reserve(start, deadline);
+			shift = shifted;
+		}
+		if (due == NOT_RESERVED)
+			return CompletableFuture.completedFuture(false);
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		awaitAsync(due, shift, deadline, scheduler, result);
+		return result;
+	}
+
+	private void awaitAsync(long due, long shift, long deadline, ScheduledExecutorService scheduler, CompletableFuture<Boolean> result) {
+		long wait = due - clock.getAsLong();
+		if (wait <= 0) {
+			result.complete(true);
+			return;
+		}
+		scheduler.schedule(() -> {
+			// the bucket may have been paused while waiting
+			long current = getShifted();
+			long resume = due + current - shift;
+			if (resume - deadline > 0)
+				result.complete(false);
+			else
+				awaitAsync(resume, current, deadline, scheduler, result);
+		}, wait, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Reserves the next free permit, unless it is due after the deadline.
+	 * @param start the time in nanoseconds the permit is needed at
+	 * @param deadline the latest time in nanoseconds the permit may be due
+	 * @return the time in nanoseconds the permit is due, not before <code>start</code>, or {@link #NOT_RESERVED}
+	 * if it would be due after the deadline and was not reserved
+	 */
+	synchronized long reserve(long start, long deadline) {
+		long now = clock.getAsLong();
+		refill(now);
+		double used = Math.min(1, stored);
+		long available = nextFree + (long) ((1 - used) * interval);
+		long due = available - now > 0 ? later(start, available) : start;
+		if (due - deadline > 0)
+			return NOT_RESERVED;
+		stored -= used;
+		nextFree = available;
+		return due;
+	}
+
+	/**
+	 * Adds the permits earned until the given time to the bucket.
+	 */
+	private void refill(long now) {
+		if (now - nextFree > 0) {
+			stored = Math.min(burst, stored + (double) (now - nextFree) / interval);
+			nextFree = now;
+		}
+	}
+
+	/**
+	 * Pauses the bucket. Stored permits are dropped and the first permit is due one interval after the pause ended.
+	 * Permits already reserved are postponed by the time the pause was started or extended by, so waiting callers
+	 * are still served one interval apart. A pause ending before the current one is ignored.
+	 * @param millis the milliseconds to pause
+	 */
+	public synchronized void pause(long millis) {
+		if (millis <= 0)
+			return;
+		long now = clock.getAsLong();
+		long until = now + TimeUnit.MILLISECONDS.toNanos(millis);
+		stored = 0;
+		if (until - pausedUntil <= 0)
+			return;
+		long shift = until - later(now, pausedUntil);
+		pausedUntil = until;
+		nextFree = later(nextFree, now) + shift;
+		shifted += shift;
+	}
+
+	/**
+	 * Gives the later of two times in nanoseconds, comparing them by their difference.
+	 */
+	private static long later(long time, long other) {
+		return time - other > 0 ? time : other;
+	}
+
+	private synchronized long getPausedUntil() {
+		return pausedUntil;
+	}
+
+	private synchronized long getShifted() {
+		return shifted;
+	}
+
+	/**
+	 * @return the milliseconds until the current pause ends, 0 if the bucket is not paused
+	 */
+	public long getRemainingPause() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(getPausedUntil() - clock.getAsLong()));
+	}
+
+	/**
+	 * @return the number of permits per second
+	 */
+	public synchronized double getRate() {
+		return TimeUnit.SECONDS.toNanos(1) / (double) interval;
+	}
+
+	/**
+	 * Sets the number of permits per second. Permits already reserved are not affected.
+	 * @param rate the number of permits per second, must be positive
+	 */
+	public synchronized void setRate(double rate) {
+		if (!(rate > 0))
+			throw new IllegalArgumentException("rate must be positive: " + rate);
+		interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+	}
+
+	/**
+	 * @return the maximum number of permits stored
+	 */
+	public synchronized int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * Sets the maximum number of permits stored, which can be used at once after the limiter was idle.
+	 * @param burst the maximum number of permits stored, at least 1
+	 */
+	public synchronized void setBurst(int burst) {
+		this.burst = Math.max(1, burst);
+		stored = Math.min(stored, this.burst);
+	}
+}
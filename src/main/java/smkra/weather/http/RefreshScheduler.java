@@ -0,0 +1,185 @@
+package smkra.weather.http;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import smkra.weather.model.Description;
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Refreshes the weather of a set of cities in the background, shortly after the weather API is expected to publish
+ * new forecasts, so the responses in the cache of the {@link WeatherRequest} stay current and lookups do not have to
+ * wait for the weather API.
+ *
+ * When to expect the next publication is learned per city from the <code>publicTime</code> of the refreshed
+ * responses, see {@link PublicationCadence}. A city is refreshed <code>lag</code> milliseconds after its next
+ * expected publication, plus an offset between 0 and <code>spread</code> derived from the city ID, so cities
+ * published at the same time are not all requested at once. If a refresh fails or does not give a newer
+ * publication, it is repeated after <code>retryDelay</code> milliseconds. Until the publications of a whole day
+ * were observed, a city is refreshed at least every <code>probeInterval</code> milliseconds, so publication times
+ * not observed yet are learned too.
+ */
+public class RefreshScheduler implements Closeable {
+
+	private final WeatherRequest request;
+	private final ScheduledExecutorService scheduler;
+	private final LongSupplier clock;
+	private final ConcurrentHashMap<String, PublicationCadence> cadences = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Long> nextRefresh = new ConcurrentHashMap<>();
+
+	/**
+	 * Milliseconds to wait after the expected publication before refreshing
+	 */
+	private long lag = TimeUnit.MINUTES.toMillis(2);
+	/**
+	 * Maximum milliseconds added to spread the refreshes of cities published at the same time
+	 */
+	private long spread = TimeUnit.MINUTES.toMillis(10);
+	/**
+	 * Milliseconds to wait before repeating a refresh that failed or did not give a newer publication
+	 */
+	private long retryDelay = TimeUnit.MINUTES.toMillis(15);
+	/**
+	 * Maximum milliseconds between refreshes, until the publications of a whole day were observed
+	 */
+	private long probeInterval = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * Creates a new scheduler. No city is refreshed before {@link #start(Collection)} is called.
+	 * @param request the request used to refresh the cities, the responses are added to its cache
+	 */
+	public RefreshScheduler(WeatherRequest request) {
+		this(request, Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("weather-refresh")),
+				System::currentTimeMillis);
+	}
+
+	RefreshScheduler(WeatherRequest request, ScheduledExecutorService scheduler, LongSupplier clock) {
+		this.request = request;
+		this.scheduler = scheduler;
+		this.clock = clock;
+	}
+
+	/**
+	 * Starts refreshing the given cities. The first refreshes are spread over <code>spread</code> milliseconds.
+	 * @param cityIDs the IDs of the cities to refresh
+	 */
+	public void start(Collection<String> cityIDs) {
+		for (String cityID : cityIDs) {
+			if (cadences.putIfAbsent(cityID, new PublicationCadence()) == null)
+				schedule(cityID, clock.getAsLong() + getOffset(cityID));
+		}
+	}
+
+	/**
+	 * Refreshes a city and schedules its next refresh once the response arrived.
+	 * @param cityID the ID of the city
+	 */
+	private void refresh(String cityID) {
+		request.refreshWeatherFromIDAsync(cityID).whenComplete((response, e) -> schedule(cityID, getNextRefresh(cityID, response)));
+	}
+
+	/**
+	 * Learns from the refreshed response and computes the time of the next refresh.
+	 * @param cityID the ID of the city
+	 * @param response the refreshed response, null if the refresh failed
+	 * @return the time of the next refresh in milliseconds since the epoch
+	 */
+	long getNextRefresh(String cityID, WeatherResponse response) {
+		long now = clock.getAsLong();
+		PublicationCadence cadence = cadences.computeIfAbsent(cityID, id -> new PublicationCadence());
+		long expected;
+		boolean learned;
+		synchronized (cadence) {
+			long publicTime = response != null ? getPublicTime(response) : -1;
+			if (publicTime > 0)
+				cadence.observe(publicTime);
+			expected = cadence.getNextPublication();
+			learned = cadence.coversDay();
+		}
+		long refreshAt = expected + lag + getOffset(cityID);
+		if (expected < 0 || refreshAt <= now)
+			refreshAt = now + retryDelay;
+		else if (!learned)
+			refreshAt = Math.min(refreshAt, now + probeInterval);
+		return refreshAt;
+	}
+
+	private static long getPublicTime(WeatherResponse response) {
+		long publicTime = WeatherCache.getPublicTimeMillis(response.getPublicTime(), -1);
+		Description description = response.getDescription();
+		if (publicTime < 0 && description != null)
+			publicTime = WeatherCache.getPublicTimeMillis(description.getPublicTime(), -1);
+		return publicTime;
+	}
+
+	private void schedule(String cityID, long refreshAt) {
+		nextRefresh.put(cityID, refreshAt);
+		try {
+			scheduler.schedule(() -> refresh(cityID), Math.max(0, refreshAt - clock.getAsLong()), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// scheduler was closed
+		}
+	}
+
+	/**
+	 * Gives the offset of a city within <code>spread</code>, which is always the same for a city.
+	 */
+	private long getOffset(String cityID) {
+		return spread > 0 ? Math.floorMod((long) cityID.hashCode() * 0x9E3779B1L, spread) : 0;
+	}
+
+	/**
+	 * Gives the time the city is refreshed next.
+	 * @param cityID the ID of the city
+	 * @return the time in milliseconds since the epoch, -1 if the city is not refreshed
+	 */
+	public long getNextRefresh(String cityID) {
+		return nextRefresh.getOrDefault(cityID, -1L);
+	}
+
+	/**
+	 * Stops refreshing. Running refreshes are completed, but not scheduled again.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	public long getLag() {
+		return lag;
+	}
+
+	public void setLag(long lag) {
+		this.lag = lag;
+	}
+
+	public long getSpread() {
+		return spread;
+	}
+
+	public void setSpread(long spread) {
+		this.spread = spread;
+	}
+
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+	public void setRetryDelay(long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	public long getProbeInterval() {
+		return probeInterval;
+	}
+
+	public void setProbeInterval(long probeInterval) {
+		this.probeInterval = probeInterval;
+	}
+}
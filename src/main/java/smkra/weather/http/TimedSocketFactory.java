@@ -0,0 +1,50 @@
+package smkra.weather.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import smkra.weather.metrics.Phase;
+import smkra.weather.metrics.WeatherMetrics;
+
+/**
+ * Socket factory recording the time needed to establish a connection as {@link Phase#CONNECT}. The end of the
+ * connect is stored in the context of the request, so the following upstream time does not include it.
+ */
+class TimedSocketFactory implements ConnectionSocketFactory {
+
+	/**
+	 * Attribute of the request context holding the <code>System.nanoTime()</code> the connection was established at
+	 */
+	static final String CONNECTED_AT = "weather.connectedAt";
+
+	private final ConnectionSocketFactory delegate;
+	private final WeatherMetrics metrics;
+
+	TimedSocketFactory(ConnectionSocketFactory delegate, WeatherMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public Socket createSocket(HttpContext context) throws IOException {
+		return delegate.createSocket(context);
+	}
+
+	@Override
+	public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+			InetSocketAddress localAddress, HttpContext context) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+		} finally {
+			metrics.record(Phase.CONNECT, start);
+			if (context != null)
+				context.setAttribute(CONNECTED_AT, System.nanoTime());
+		}
+	}
+}
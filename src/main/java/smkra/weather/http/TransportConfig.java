@@ -0,0 +1,119 @@
+package smkra.weather.http;
+
+/**
+ * Settings of the HTTP transports used to send requests to the weather API.
+ *
+ * @see WeatherTransport
+ * @see AsyncWeatherTransport
+ */
+public class TransportConfig {
+
+	/**
+	 * Maximum number of pooled connections over all hosts
+	 */
+	private int maxTotal = 20;
+	/**
+	 * Maximum number of pooled connections per host
+	 */
+	private int maxPerRoute = 10;
+	/**
+	 * Milliseconds to wait for a connection to be established
+	 */
+	private int connectTimeout = 5000;
+	/**
+	 * Milliseconds to wait for data on an established connection
+	 */
+	private int socketTimeout = 10000;
+	/**
+	 * Milliseconds to wait for a free connection of the pool
+	 */
+	private int connectionRequestTimeout = 5000;
+	/**
+	 * Milliseconds after which idle connections are closed
+	 */
+	private int maxIdleTime = 30000;
+	/**
+	 * Number of connections opened to the weather API when the transport is created, 0 to disable pre-warming
+	 */
+	private int prewarmConnections = 0;
+	/**
+	 * True, if gzip and deflate compressed responses should be accepted
+	 */
+	private boolean contentCompression = true;
+	/**
+	 * Number of threads sending and receiving the asynchronous requests
+	 */
+	private int ioThreads = 2;
+
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	public void setMaxPerRoute(int maxPerRoute) {
+		this.maxPerRoute = maxPerRoute;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public int getSocketTimeout() {
+		return socketTimeout;
+	}
+
+	public void setSocketTimeout(int socketTimeout) {
+		this.socketTimeout = socketTimeout;
+	}
+
+	public int getConnectionRequestTimeout() {
+		return connectionRequestTimeout;
+	}
+
+	public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+		this.connectionRequestTimeout = connectionRequestTimeout;
+	}
+
+	public int getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	public void setMaxIdleTime(int maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+
+	public int getPrewarmConnections() {
+		return prewarmConnections;
+	}
+
+	public void setPrewarmConnections(int prewarmConnections) {
+		this.prewarmConnections = prewarmConnections;
+	}
+
+	public boolean isContentCompression() {
+		return contentCompression;
+	}
+
+	public void setContentCompression(boolean contentCompression) {
+		this.contentCompression = contentCompression;
+	}
+
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	public void setIoThreads(int ioThreads) {
+		this.ioThreads = ioThreads;
+	}
+}
@@ -0,0 +1,199 @@
+package smkra.weather.http;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import smkra.weather.model.CompactWeather;
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Size bounded cache of parsed weather responses, keyed by city ID. The cache is safe to be used by
+ * several threads.
+ *
+ * An entry expires <code>maxAge</code> milliseconds after the <code>publicTime</code> of its response, because
+ * the weather API only publishes new forecasts a few times a day. If the publication time is missing or cannot be
+ * parsed, the time the response was added is used instead. If more than <code>maxSize</code> entries are added,
+ * the least recently used entry is evicted.
+ *
+ * The responses are kept as {@link CompactWeather}, so every lookup gives a new copy of the response without its
+ * HTTP response.
+ */
+public class WeatherCache {
+
+	/**
+	 * Format of the <code>publicTime</code> field, e.g. <code>2018-03-10T11:00:00+0900</code>
+	 */
+	static final DateTimeFormatter PUBLIC_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ");
+
+	private final int maxSize;
+	private final long maxAge;
+	private final LongSupplier clock;
+	private final LinkedHashMap<String, Entry> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache holding at most 256 responses for at most 6 hours after their publication.
+	 */
+	public WeatherCache() {
+		this(256, TimeUnit.HOURS.toMillis(6));
+	}
+
+	/**
+	 * Creates a new cache.
+	 * @param maxSize the maximum number of cached responses
+	 * @param maxAge milliseconds after the publication of a response, until the response expires
+	 */
+	public WeatherCache(int maxSize, long maxAge) {
+		this(maxSize, maxAge, System::currentTimeMillis);
+	}
+
+	WeatherCache(int maxSize, long maxAge, LongSupplier clock) {
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+		this.clock = clock;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > WeatherCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gives the cached response for the given city ID.
+	 * @param cityID the ID of the city
+	 * @return the cached response or null, if none is cached or the cached one expired
+	 */
+	public WeatherResponse get(String cityID) {
+		long now = clock.getAsLong();
+		CompactWeather weather = null;
+		synchronized (entries) {
+			Entry entry = entries.get(cityID);
+			if (entry != null) {
+				if (entry.expires > now)
+					weather = entry.weather;
+				else
+					entries.remove(cityID);
+			}
+		}
+		if (weather == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return weather.toWeatherResponse();
+	}
+
+	/**
+	 * Adds the response for the given city ID, replacing a previously cached one. Responses that are already
+	 * expired are not added.
+	 * @param cityID the ID of the city
+	 * @param response the response to cache
+	 * @throws IllegalStateException if the strings of the response do not fit into the global dictionary anymore
+	 */
+	public void put(String cityID, WeatherResponse response) {
+		put(cityID, CompactWeather.of(response));
+	}
+
+	/**
+	 * Adds the compact response for the given city ID, replacing a previously cached one. Responses that are
+	 * already expired are not added.
+	 * @param cityID the ID of the city
+	 * @param weather the compact response to cache
+	 */
+	public void put(String cityID, CompactWeather weather) {
+		long now = clock.getAsLong();
+		long publicTime = weather.getPublicTime();
+		long expires = (publicTime != CompactWeather.NO_TIME ? publicTime : now) + maxAge;
+		if (expires <= now)
+			return;
+		synchronized (entries) {
+			entries.put(cityID, new Entry(weather, expires));
+		}
+	}
+
+	/**
+	 * Removes all cached responses.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups for which no valid response was cached
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of responses removed because the cache was full
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Converts the publication time of a response to milliseconds since the epoch.
+	 * @param publicTime the publication time as given by the weather API
+	 * @param fallback the value to return if the publication time is missing or invalid
+	 * @return the publication time in milliseconds
+	 */
+	static long getPublicTimeMillis(String publicTime, long fallback) {
+		if (publicTime == null || publicTime.isEmpty())
+			return fallback;
+		try {
+			return OffsetDateTime.parse(publicTime, PUBLIC_TIME_FORMAT).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return fallback;
+		}
+	}
+
+	private static class Entry {
+		private final CompactWeather weather;
+		private final long expires;
+
+		private Entry(CompactWeather weather, long expires) {
+			this.weather = weather;
+			this.expires = expires;
+		}
+	}
+}
@@ -2,22 +2,37 @@ package smkra.weather.http;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.xml.sax.SAXException;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
 
+import smkra.weather.history.ForecastHistory;
+import smkra.weather.metrics.WeatherMetrics;
+import smkra.weather.model.CompactWeather;
 import smkra.weather.model.WeatherResponse;
 import smkra.weather.xml.CityID;
+import smkra.weather.xml.PinpointIndex;
 
 /**
  * This class sends the GET request to the weather API site and reacts if the service does not
@@ -25,13 +40,38 @@ import smkra.weather.xml.CityID;
  * 
  * If reasonable, the GET request will be retried as often as specified in <code>retryCount</code>. 
  * Before retrying the thread will wait as many seconds as specified in <code>secondsBeforeRetry</code>.
+ * Asynchronous requests do not block a thread, neither while waiting nor while the response is received, see
+ * {@link #getWeatherFromIDAsync(String)}.
  * A request is retried in the following cases:
  * <ul>
  * <li>If the status code of the response is one of these: 500, 502, 503 or 504</li>
  * <li>If the host can't be reached (<code>UnknownHostException</code>)</li>
+ * <li>If connecting to the host or reading the response timed out</li>
  * </ul>
  * 
+ * The requests are sent using a {@link WeatherTransport}, which keeps connections to the weather API alive and
+ * applies the configured timeouts. Asynchronous requests are sent by an {@link AsyncWeatherTransport} with the same
+ * settings, whose few I/O threads can keep many requests in flight. Both decode the responses with the same
+ * {@link WeatherResponseHandler}.
+ * 
  * If the status code of the response is OK, the {@link WeatherResponseHandler} will parse the response content. 
+ * Successful responses are kept in a {@link WeatherCache}, so repeated requests for the same city are answered
+ * without contacting the weather API until the cached response expires. Concurrent requests for the same city
+ * share a single request to the weather API.
+ * 
+ * Every attempt is guarded by a {@link CircuitBreaker}. While the weather API fails or answers too slowly, the
+ * breaker opens and further requests are not sent. Instead the last good response for the city is returned, flagged
+ * as {@link WeatherResponse#isStale() stale}, or the request fails immediately if there is none.
+ * 
+ * The rate of requests sent to the weather API is limited by a {@link RateLimiter}, by default the one shared by
+ * the whole process. Callers wait in line for a permit, at most <code>maxSecondsInQueue</code> seconds. If the weather
+ * API answers with status 503 or a "retry-after" header, the limiter is paused, so no other thread sends requests
+ * before the weather API is expected to be available again.
+ * 
+ * Cache lookups, retries and rejected requests are counted in {@link WeatherMetrics#GLOBAL}.
+ * 
+ * The city-ID-configuration is loaded in the background, while the transport is created. Requests by city ID do not
+ * wait for it, only looking up a city name does.
  * 
  * @see WeatherResponseHandler
  * @see smkra.weather.xml.CityID
@@ -43,9 +83,39 @@ public class WeatherRequest {
 	protected static PrintStream outStream = System.out;
 
 	/**
-	 * City ID instance to get the correct ID for the requested city
+	 * Message of the exception thrown if no permit of the rate limiter was due in time
+	 */
+	private static final String RATE_LIMITED = "Too many requests waiting for the weather service";
+	/**
+	 * Message of the exception thrown if the circuit breaker is open and no earlier response of the city is known
 	 */
-	private CityID cityID = null;
+	private static final String NO_STALE_RESPONSE = "Weather service currently not available and no earlier response of the city is known";
+	/**
+	 * Number of last good responses kept if caching is disabled, otherwise as many as the cache holds are kept
+	 */
+	private static final int MAX_STALE = 256;
+
+	/**
+	 * Scheduler triggering the delayed retries of asynchronous requests, shared by all instances
+	 */
+	private static final ScheduledExecutorService RETRY_SCHEDULER =
+			Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("weather-retry"));
+	/**
+	 * Maximum number of threads sending the asynchronous requests and handling their responses, as many as
+	 * connections are kept by a transport with the default settings
+	 */
+	static final int ASYNC_THREADS = new TransportConfig().getMaxTotal();
+	/**
+	 * Executor sending the asynchronous requests, shared by all instances. Its tasks never block waiting for a
+	 * response, so further tasks wait in its queue instead of starting more threads.
+	 */
+	private static final ExecutorService ASYNC_EXECUTOR = newAsyncExecutor();
+
+	/**
+	 * City ID instance to get the correct ID for the requested city, loaded in the background while the instance is
+	 * created
+	 */
+	private final CompletableFuture<CityID> cityID;
 	/**
 	 * Number of request attempts
 	 */
@@ -59,76 +129,231 @@ public class WeatherRequest {
 	 * this value is used instead of <code>secondsBeforeRetry</code> if it does not exceed maxSecondsBeforeRetry
 	 */
 	private int maxSecondsBeforeRetry = 10;
+	/**
+	 * Maximum number of seconds to wait before retrying an asynchronous request, if the server does not suggest
+	 * how long to wait
+	 */
+	private int maxBackoffSeconds = 60;
+	/**
+	 * Maximum number of seconds to wait for a permit of the rate limiter
+	 */
+	private int maxSecondsInQueue = 30;
 	
-	private CloseableHttpClient httpclient;
+	private WeatherTransport transport;
+	/**
+	 * Non-blocking transport of the asynchronous requests, null until the first one is sent
+	 */
+	private AsyncWeatherTransport asyncTransport;
+	/**
+	 * True, if the transport was created by this instance and has to be closed by it
+	 */
+	private boolean ownsTransport;
 	private WeatherResponseHandler weatherResponseHandler;
+	/**
+	 * Results of the requests currently running, by city ID
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<WeatherResponse>> inFlight = new ConcurrentHashMap<>();
+	/**
+	 * Cache of successful responses, null if caching is disabled
+	 */
+	private WeatherCache cache = new WeatherCache();
+	/**
+	 * Circuit breaker guarding the attempts, null if disabled
+	 */
+	private CircuitBreaker circuitBreaker = new CircuitBreaker();
+	/**
+	 * Rate limiter the requests wait for, null if disabled
+	 */
+	private RateLimiter rateLimiter = RateLimiter.GLOBAL;
+	/**
+	 * Whether the last good responses are kept as fallback for the times the circuit breaker is open
+	 */
+	private volatile boolean staleFallback = true;
+	/**
+	 * Last successful response by city ID in compact form, returned while the circuit breaker rejects requests. The least recently
+	 * used response is dropped if more than the cache or {@link #MAX_STALE} can hold are kept.
+	 */
+	private final LinkedHashMap<String, CompactWeather> lastGood = new LinkedHashMap<String, CompactWeather>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompactWeather> eldest) {
+			WeatherCache cache = WeatherRequest.this.cache;
+			return size() > (cache != null ? cache.getMaxSize() : MAX_STALE);
+		}
+	};
+	/**
+	 * History the received forecasts are appended to, null if disabled
+	 */
+	private ForecastHistory history;
+	/**
+	 * Index the pinpoint locations of the received responses are added to, null if disabled
+	 */
+	private PinpointIndex pinpoints;
 	
 	/**
-	 * Constructor for this class. Creates a http client instance, a response handler and the city-ID-configuration.
-	 * @throws IOException if the city-ID-configuration could not be read
-	 * @throws WeatherServiceException if the city-ID-configuration could not be read
-	 * @throws SAXException if the city-ID-configuration could not be read
-	 * @throws ParserConfigurationException if the city-ID-configuration could not be read
+	 * Constructor for this class. Creates a http client instance and a response handler and starts loading the
+	 * city-ID-configuration in the background. If the configuration could not be loaded, {@link #getCityID()}
+	 * fails.
+	 */
+	public WeatherRequest() {
+		this(new TransportConfig());
+	}
+
+	/**
+	 * Constructor for this class. Creates a transport with the given settings and a response handler, while the
+	 * city-ID-configuration is loaded in the background. If configured, connections to the weather API are opened
+	 * right away.
+	 * @param config the settings of the transport
+	 */
+	public WeatherRequest(TransportConfig config) {
+		// the configuration is loaded while the transport is created
+		this(loadCityID(), new WeatherTransport(config));
+		ownsTransport = true;
+		try {
+			transport.prewarm(URI);
+		} catch (RuntimeException e) {
+			// the instance is not returned, so nobody else could close the transport
+			try {
+				transport.close();
+			} catch (IOException e1) {
+				e.addSuppressed(e1);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Constructor for this class, using a transport shared with other instances. The transport is not closed
+	 * by {@link #closeHttpClient()}.
+	 * @param transport the transport to send the requests with
 	 */
-	public WeatherRequest() throws IOException, WeatherServiceException, SAXException, ParserConfigurationException {
-		HttpClientBuilder builder = HttpClientBuilder.create().disableAutomaticRetries();
+	public WeatherRequest(WeatherTransport transport) {
+		this(loadCityID(), transport);
+	}
+
+	private WeatherRequest(CompletableFuture<CityID> cityID, WeatherTransport transport) {
+		this.cityID = cityID;
 		weatherResponseHandler = new WeatherResponseHandler();
-		cityID = new CityID();
-		httpclient = builder.build();
+		this.transport = transport;
 	}
 
 	/**
-	 * Sends the GET request for the given city ID and reacts to the response
+	 * Sends the GET request for the given city ID and reacts to the response. If a request for the same city ID
+	 * is already running in another thread, no further request is sent, but the result of the running one
+	 * is returned instead.
 	 * @param cityID	the ID of the city to get weather information for
 	 * @return the response containing the weather information if successful
 	 * @throws WeatherServiceException if errors occurred when requesting the weather information
 	 */
 	public WeatherResponse getWeatherFromID(String cityID) throws WeatherServiceException {
 
+		WeatherCache cache = this.cache;
+		WeatherResponse response = cache != null ? cache.get(cityID) : null;
+		if (cache != null)
+			WeatherMetrics.GLOBAL.recordCacheLookup(response != null);
+		if (response != null)
+			return response;
+
+		CompletableFuture<WeatherResponse> call = new CompletableFuture<>();
+		CompletableFuture<WeatherResponse> running = inFlight.putIfAbsent(cityID, call);
+		if (running != null)
+			return awaitResponse(running);
+		try {
+			// the previous request for this city may have finished between the cache lookup and registering this one
+			response = cache != null ? cache.get(cityID) : null;
+			if (response == null)
+				response = requestWeatherFromID(cityID, cache);
+			call.complete(response);
+			return response;
+		} catch (WeatherServiceException | RuntimeException e) {
+			call.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(cityID, call);
+		}
+	}
+
+	/**
+	 * Waits for the result of a request for the same city started by another thread.
+	 * @param running the result of the running request
+	 * @return the response of the running request
+	 * @throws WeatherServiceException if the running request failed or waiting was interrupted
+	 */
+	private static WeatherResponse awaitResponse(CompletableFuture<WeatherResponse> running) throws WeatherServiceException {
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WeatherServiceException("Could not get weather information");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof WeatherServiceException)
+				throw (WeatherServiceException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new WeatherServiceException("Could not get weather information");
+		}
+	}
+
+	/**
+	 * Sends the GET request for the given city ID, retrying it if reasonable, and adds a successful
+	 * response to the cache.
+	 * @param cityID	the ID of the city to get weather information for
+	 * @param cache	the cache to add the response to, may be null
+	 * @return the response containing the weather information if successful
+	 * @throws WeatherServiceException if errors occurred when requesting the weather information
+	 */
+	private WeatherResponse requestWeatherFromID(String cityID, WeatherCache cache) throws WeatherServiceException {
 		WeatherResponse response;
 		StatusLine statusLine = null;
 		int i = 0;
 		int retryAfter = -1;
 		boolean doWait = false;
 		do {
+			CircuitBreaker breaker = circuitBreaker;
+			if (breaker != null && !breaker.tryAcquire())
+				return getStaleResponse(cityID);
+			int status = 0;
+			boolean failure = true;
+			long waitMillis = doWait ? getSecondsToWait(retryAfter) * 1000L : 0;
+			boolean permitted = false;
+			try {
+				permitted = acquirePermit(waitMillis);
+			} finally {
+				if (!permitted && breaker != null)
+					breaker.release();
+			}
+			if (!permitted)
+				throw new WeatherServiceException(RATE_LIMITED);
+			long start = System.nanoTime();
 			try {
 				response = sendRequest(cityID, retryAfter, doWait);
 				if (response != null) {
 					HttpResponse httpResponse = response.getHttpResponse();
 					statusLine = httpResponse.getStatusLine();
-					switch (statusLine.getStatusCode()) {
-					case HttpStatus.SC_OK:
+					status = statusLine.getStatusCode();
+					failure = isServerError(status);
+					if (!isRetryable(statusLine)) {
+						remember(cityID, response, cache);
 						return response;
-					case HttpStatus.SC_MOVED_PERMANENTLY:
-					case HttpStatus.SC_MOVED_TEMPORARILY:
-					case HttpStatus.SC_TEMPORARY_REDIRECT:
-						throw new WeatherServiceException("Service moved to another location");
-					case HttpStatus.SC_SERVICE_UNAVAILABLE:
-					case HttpStatus.SC_INTERNAL_SERVER_ERROR:
-					case HttpStatus.SC_BAD_GATEWAY:
-					case HttpStatus.SC_GATEWAY_TIMEOUT:
-						break;
-					default:
-						throw new WeatherServiceException(statusLine.getReasonPhrase());
-					}
-					retryAfter = -1;
-					Header[] retryAfterHeaders = httpResponse.getHeaders("Retry-After");
-					if (retryAfterHeaders != null && retryAfterHeaders.length > 0) {
-						retryAfter = Integer.parseInt(retryAfterHeaders[0].getValue());
 					}
+					retryAfter = getRetryAfter(httpResponse);
+					pauseRequests(status, retryAfter);
 				}
-			} catch (UnknownHostException e) {
+			} catch (UnknownHostException | ConnectTimeoutException | SocketTimeoutException e) {
 				// try again, maybe connection was down
-			} catch (NumberFormatException e) {
-				// value is given as date not in seconds, ignore and try again not using
-				// retry-after
 			} catch (Exception e){
 				if(e instanceof WeatherServiceException)
 					throw (WeatherServiceException)e;
 				else
 					throw new WeatherServiceException("Could not get weather information");
+			} finally {
+				if (breaker != null)
+					breaker.record(failure, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) - waitMillis);
 			}
 			
+			if (i < retryCount)
+				recordRetry(status, retryAfter);
 			doWait = true;
 			i++;
 		} while (i <= retryCount);
@@ -138,19 +363,401 @@ public class WeatherRequest {
 			throw new WeatherServiceException("Weather service currently not available");
 	}
 
+	/**
+	 * Requests the weather for the given city ID without blocking the calling thread. The request is sent by the
+	 * non-blocking {@link #getAsyncTransport() asynchronous transport}, no thread waits for the response. Failed
+	 * attempts are retried as often as specified in <code>retryCount</code>, in the same cases as
+	 * {@link #getWeatherFromID(String)} does.
+	 * Instead of parking a thread, each retry is scheduled on a shared scheduler. The delay is taken from the
+	 * "retry-after" header if it does not exceed <code>maxSecondsBeforeRetry</code>, otherwise it is chosen randomly
+	 * between zero and <code>secondsBeforeRetry</code> doubled with every attempt, but at most
+	 * <code>maxBackoffSeconds</code> (exponential backoff with full jitter). Responses are cached and concurrent
+	 * requests for the same city are coalesced like those of {@link #getWeatherFromID(String)}.
+	 * @param cityID	the ID of the city to get weather information for
+	 * @return the future response, completed exceptionally with a {@link WeatherServiceException} if errors occurred
+	 */
+	public CompletableFuture<WeatherResponse> getWeatherFromIDAsync(String cityID) {
+		WeatherCache cache = this.cache;
+		WeatherResponse cached = cache != null ? cache.get(cityID) : null;
+		if (cache != null)
+			WeatherMetrics.GLOBAL.recordCacheLookup(cached != null);
+		if (cached != null)
+			return CompletableFuture.completedFuture(cached);
+		return requestAsync(cityID, cache);
+	}
+
+	/**
+	 * Requests the weather for the given city ID without blocking the calling thread, even if a response for
+	 * the city is cached, and replaces the cached response with the new one. Retries are handled like
+	 * those of {@link #getWeatherFromIDAsync(String)}.
+	 * @param cityID	the ID of the city to get weather information for
+	 * @return the future response, completed exceptionally with a {@link WeatherServiceException} if errors occurred
+	 * @see RefreshScheduler
+	 */
+	public CompletableFuture<WeatherResponse> refreshWeatherFromIDAsync(String cityID) {
+		return requestAsync(cityID, cache);
+	}
+
+	/**
+	 * Starts an asynchronous request for the given city ID, unless one is already running.
+	 * @param cityID	the ID of the city to get weather information for
+	 * @param cache	the cache to add the response to, may be null
+	 * @return the future response
+	 */
+	private CompletableFuture<WeatherResponse> requestAsync(String cityID, WeatherCache cache) {
+		CompletableFuture<WeatherResponse> call = new CompletableFuture<>();
+		CompletableFuture<WeatherResponse> running = inFlight.putIfAbsent(cityID, call);
+		if (running != null)
+			return running;
+		call.whenComplete((response, e) -> inFlight.remove(cityID, call));
+		ASYNC_EXECUTOR.execute(() -> attemptAsync(cityID, cache, call, 0, null));
+		return call;
+	}
+
+	/**
+	 * Starts one attempt of an asynchronous request, as soon as the circuit breaker and the rate limiter permit it.
+	 * @param cityID	the ID of the city to get weather information for
+	 * @param cache	the cache to add the response to, may be null
+	 * @param call	the future to complete with the result
+	 * @param attempt	the number of the attempt, starting at 0
+	 * @param statusLine	the status of the previous attempt, null if none was received
+	 */
+	private void attemptAsync(String cityID, WeatherCache cache, CompletableFuture<WeatherResponse> call, int attempt, StatusLine statusLine) {
+		CircuitBreaker breaker = circuitBreaker;
+		if (breaker != null && !breaker.tryAcquire()) {
+			try {
+				call.complete(getStaleResponse(cityID));
+			} catch (WeatherServiceException e) {
+				call.completeExceptionally(e);
+			}
+			return;
+		}
+		RateLimiter limiter = rateLimiter;
+		if (limiter == null) {
+			sendAsync(cityID, cache, call, attempt, statusLine, breaker);
+			return;
+		}
+		limiter.acquireAsync(maxSecondsInQueue, TimeUnit.SECONDS, RETRY_SCHEDULER).thenAcceptAsync(permitted -> {
+			if (permitted) {
+				sendAsync(cityID, cache, call, attempt, statusLine, breaker);
+			} else {
+				if (breaker != null)
+					breaker.release();
+				call.completeExceptionally(new WeatherServiceException(RATE_LIMITED));
+			}
+		}, ASYNC_EXECUTOR);
+	}
+
+	/**
+	 * Sends one attempt of an asynchronous request, after the circuit breaker and the rate limiter permitted it.
+	 * The calling thread is not blocked while the response is awaited.
+	 * @param cityID	the ID of the city to get weather information for
+	 * @param cache	the cache to add the response to, may be null
+	 * @param call	the future to complete with the result
+	 * @param attempt	the number of the attempt, starting at 0
+	 * @param statusLine	the status of the previous attempt, null if none was received
+	 * @param breaker	the circuit breaker to record the outcome in, may be null
+	 */
+	private void sendAsync(String cityID, WeatherCache cache, CompletableFuture<WeatherResponse> call, int attempt, StatusLine statusLine, CircuitBreaker breaker) {
+		long start = System.nanoTime();
+		CompletableFuture<WeatherResponse> sent;
+		try {
+			sent = sendRequestAsync(cityID);
+		} catch (RuntimeException e) {
+			sent = new CompletableFuture<>();
+			sent.completeExceptionally(e);
+		}
+		sent.whenComplete((response, error) -> handleAsync(cityID, cache, call, attempt, statusLine, breaker, start,
+				response, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error));
+	}
+
+	/**
+	 * Reacts to the result of one attempt of an asynchronous request and schedules the next attempt if reasonable.
+	 * @param cityID	the ID of the city to get weather information for
+	 * @param cache	the cache to add the response to, may be null
+	 * @param call	the future to complete with the result
+	 * @param attempt	the number of the attempt, starting at 0
+	 * @param statusLine	the status of the previous attempt, null if none was received
+	 * @param breaker	the circuit breaker to record the outcome in, may be null
+	 * @param start	the <code>System.nanoTime()</code> the attempt was sent at
+	 * @param response	the response of the attempt, null if it failed
+	 * @param error	the reason the attempt failed, null if a response was received
+	 */
+	private void handleAsync(String cityID, WeatherCache cache, CompletableFuture<WeatherResponse> call, int attempt, StatusLine statusLine,
+			CircuitBreaker breaker, long start, WeatherResponse response, Throwable error) {
+		int retryAfter = -1;
+		int status = 0;
+		boolean failure = true;
+		try {
+			if (error instanceof UnknownHostException || error instanceof ConnectTimeoutException || error instanceof SocketTimeoutException) {
+				// try again, maybe connection was down
+			} else if (error instanceof WeatherServiceException) {
+				call.completeExceptionally(error);
+				return;
+			} else if (error != null) {
+				call.completeExceptionally(new WeatherServiceException("Could not get weather information"));
+				return;
+			} else if (response != null) {
+				HttpResponse httpResponse = response.getHttpResponse();
+				statusLine = httpResponse.getStatusLine();
+				status = statusLine.getStatusCode();
+				failure = isServerError(status);
+				if (!isRetryable(statusLine)) {
+					remember(cityID, response, cache);
+					call.complete(response);
+					return;
+				}
+				retryAfter = getRetryAfter(httpResponse);
+				pauseRequests(status, retryAfter);
+			}
+		} catch (WeatherServiceException e) {
+			call.completeExceptionally(e);
+			return;
+		} finally {
+			if (breaker != null)
+				breaker.record(failure, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+		if (attempt >= retryCount) {
+			call.completeExceptionally(new WeatherServiceException(statusLine != null ? statusLine.getReasonPhrase()
+					: "Weather service currently not available"));
+			return;
+		}
+		recordRetry(status, retryAfter);
+		long delay = getBackoffMillis(attempt, retryAfter);
+		outStream.println("Could not get weather information, automatic retry after "
+				+ String.format("%.1f", delay / 1000.0) + " seconds");
+		StatusLine lastStatus = statusLine;
+		RETRY_SCHEDULER.schedule(() -> ASYNC_EXECUTOR.execute(
+				() -> attemptAsync(cityID, cache, call, attempt + 1, lastStatus)), delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Waits for a permit of the rate limiter.
+	 * @param delayMillis	the milliseconds the caller waits itself before sending the request
+	 * @return true, if the request may be sent after the delay, false if no permit was due in time
+	 * @throws WeatherServiceException if waiting was interrupted
+	 */
+	private boolean acquirePermit(long delayMillis) throws WeatherServiceException {
+		RateLimiter limiter = rateLimiter;
+		if (limiter == null)
+			return true;
+		try {
+			return limiter.acquire(delayMillis, maxSecondsInQueue * 1000L, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WeatherServiceException("Could not get weather information");
+		}
+	}
+
+	/**
+	 * Pauses the rate limiter, if the weather API asked to back off. The pause lasts as long as suggested by the
+	 * "retry-after" header, or <code>secondsBeforeRetry</code> for status 503 without header.
+	 * @param status	the status code of the response
+	 * @param retryAfter	the seconds to wait as suggested by the server, -1 if not suggested
+	 */
+	private void pauseRequests(int status, int retryAfter) {
+		RateLimiter limiter = rateLimiter;
+		if (limiter == null)
+			return;
+		if (retryAfter > 0)
+			limiter.pause(retryAfter * 1000L);
+		else if (status == HttpStatus.SC_SERVICE_UNAVAILABLE)
+			limiter.pause(secondsBeforeRetry * 1000L);
+	}
+
+	/**
+	 * Keeps a successful response in the cache and as fallback for the times the circuit breaker is open,
+	 * appends its forecasts to the history and adds its pinpoint locations to the index.
+	 * @param cityID	the ID of the city
+	 * @param response	the successful response
+	 * @param cache	the cache to add the response to, may be null
+	 */
+	private void remember(String cityID, WeatherResponse response, WeatherCache cache) {
+		if (cache != null || staleFallback) {
+			try {
+				CompactWeather weather = CompactWeather.of(response);
+				if (cache != null)
+					cache.put(cityID, weather);
+				if (staleFallback) {
+					synchronized (lastGood) {
+						lastGood.put(cityID, weather);
+					}
+				}
+			} catch (IllegalStateException e) {
+				outStream.println("Could not keep weather of city "+cityID+": "+e.getMessage());
+			}
+		}
+		ForecastHistory history = this.history;
+		if (history != null) {
+			try {
+				history.append(cityID, response);
+			} catch (IOException | NumberFormatException e) {
+				outStream.println("Could not write forecast history of city "+cityID);
+			}
+		}
+		PinpointIndex pinpoints = this.pinpoints;
+		if (pinpoints != null) {
+			try {
+				pinpoints.add(cityID, response.getPinpointLocations());
+			} catch (IOException e) {
+				outStream.println("Could not write pinpoint locations of city "+cityID);
+			}
+		}
+	}
+
+	/**
+	 * Gives the last good response for a request rejected by the circuit breaker. The response is a copy flagged as
+	 * stale without the HTTP response, the remembered one is left unchanged.
+	 * @param cityID	the ID of the city
+	 * @return the last good response flagged as stale
+	 * @throws WeatherServiceException if no response was received for the city before
+	 */
+	private WeatherResponse getStaleResponse(String cityID) throws WeatherServiceException {
+		CompactWeather weather;
+		synchronized (lastGood) {
+			weather = lastGood.get(cityID);
+		}
+		WeatherMetrics.GLOBAL.recordRejection(weather != null);
+		if (weather == null)
+			throw new WeatherServiceException(NO_STALE_RESPONSE);
+		WeatherResponse stale = weather.toWeatherResponse();
+		stale.setStale(true);
+		return stale;
+	}
+
+	/**
+	 * Counts a failed attempt that is going to be retried.
+	 * @param status	the status code of the failed attempt, 0 if no response was received
+	 * @param retryAfter	the seconds to wait as suggested by the server, -1 if not suggested
+	 */
+	private void recordRetry(int status, int retryAfter) {
+		WeatherMetrics.GLOBAL.recordRetry(status);
+		if (retryAfter > 0 && retryAfter < maxSecondsBeforeRetry)
+			WeatherMetrics.GLOBAL.recordRetryAfter(retryAfter);
+	}
+
+	/**
+	 * Computes the delay before the next attempt of an asynchronous request.
+	 * @param attempt	the number of the failed attempt, starting at 0
+	 * @param retryAfter	the seconds to wait as suggested by the server, -1 if not suggested
+	 * @return the milliseconds to wait
+	 */
+	long getBackoffMillis(int attempt, int retryAfter) {
+		if (retryAfter > 0 && retryAfter < maxSecondsBeforeRetry)
+			return retryAfter * 1000L;
+		long ceiling = Math.min(maxBackoffSeconds * 1000L, (secondsBeforeRetry * 1000L) << Math.min(attempt, 20));
+		return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+	}
+
+	/**
+	 * Checks the status of a response.
+	 * @param statusLine the status of the response
+	 * @return true if the request should be retried, false if the response is OK
+	 * @throws WeatherServiceException if the request failed and should not be retried
+	 */
+	private static boolean isRetryable(StatusLine statusLine) throws WeatherServiceException {
+		switch (statusLine.getStatusCode()) {
+		case HttpStatus.SC_OK:
+			return false;
+		case HttpStatus.SC_MOVED_PERMANENTLY:
+		case HttpStatus.SC_MOVED_TEMPORARILY:
+		case HttpStatus.SC_TEMPORARY_REDIRECT:
+			throw new WeatherServiceException("Service moved to another location");
+		case HttpStatus.SC_SERVICE_UNAVAILABLE:
+		case HttpStatus.SC_INTERNAL_SERVER_ERROR:
+		case HttpStatus.SC_BAD_GATEWAY:
+		case HttpStatus.SC_GATEWAY_TIMEOUT:
+			return true;
+		default:
+			throw new WeatherServiceException(statusLine.getReasonPhrase());
+		}
+	}
+
+	/**
+	 * Checks if a status code tells that the weather API itself failed, which counts against the circuit breaker.
+	 * @param status the status code of the response
+	 * @return true for the status codes 500, 502, 503 and 504
+	 */
+	private static boolean isServerError(int status) {
+		switch (status) {
+		case HttpStatus.SC_SERVICE_UNAVAILABLE:
+		case HttpStatus.SC_INTERNAL_SERVER_ERROR:
+		case HttpStatus.SC_BAD_GATEWAY:
+		case HttpStatus.SC_GATEWAY_TIMEOUT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Gives the seconds to wait before retrying, as suggested by the "retry-after" header of the response.
+	 * @param httpResponse the response
+	 * @return the seconds to wait or -1, if the response does not contain a valid "retry-after" header
+	 */
+	private static int getRetryAfter(HttpResponse httpResponse) {
+		Header retryAfterHeader = httpResponse.getFirstHeader("Retry-After");
+		if (retryAfterHeader == null)
+			return -1;
+		return parseRetryAfter(retryAfterHeader.getValue(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Parses the value of a "retry-after" header, which is given either in seconds or as HTTP-date.
+	 * @param value the value of the header
+	 * @param now the current time in milliseconds, used if the value is a date
+	 * @return the seconds to wait or -1, if the value is invalid
+	 */
+	static int parseRetryAfter(String value, long now) {
+		if (value == null)
+			return -1;
+		value = value.trim();
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			// value is given as date not in seconds
+		}
+		Date date = DateUtils.parseDate(value);
+		if (date == null)
+			return -1;
+		long millis = date.getTime() - now;
+		return millis > 0 ? (int) Math.min(Integer.MAX_VALUE, (millis + 999) / 1000) : 0;
+	}
+
 	/**
 	 * Looks up the corresponding ID for the city in the configuration, then
 	 * sends the GET request for the given city name and reacts to the response
 	 * @param city	name of the city to get weather information for
 	 * @return the response containing the weather information if successful
-	 * @throws XPathExpressionException if the configuration does not contain the given city name
-	 * @throws WeatherServiceException if errors occurred when requesting the weather information
+	 * @throws WeatherServiceException if the configuration does not contain the given city name or
+	 * errors occurred when requesting the weather information
 	 */
-	public WeatherResponse getWeatherDataFromName(String city) throws WeatherServiceException, XPathExpressionException {
-		return getWeatherFromID(cityID.getCityID(city));
+	public WeatherResponse getWeatherDataFromName(String city) throws WeatherServiceException {
+		return getWeatherFromID(getCityIDFromName(city));
 
 	}
 
+	/**
+	 * Looks up the ID of a city by its name in the city-ID-configuration or, if it is not the name of a city, in
+	 * the index of the pinpoint locations, so the names of municipalities seen in earlier responses are resolved
+	 * without a further request.
+	 * @param city	name of the city or of a pinpoint location
+	 * @return the ID of the city
+	 * @throws WeatherServiceException if the name is unknown or the city-ID-configuration could not be loaded
+	 */
+	public String getCityIDFromName(String city) throws WeatherServiceException {
+		CityID cities = getCityID();
+		try {
+			return cities.getCityID(city);
+		} catch (WeatherServiceException e) {
+			PinpointIndex pinpoints = this.pinpoints;
+			String cityID = pinpoints != null ? pinpoints.getCityID(city) : null;
+			if (cityID == null)
+				throw e;
+			return cityID;
+		}
+	}
+
 	/**
 	 * Send the request for the given cityID after the <code>secondsToWait</code> seconds if <code>doWait</code> is true.
 	 * @param cityID	ID of the city to get weather information for
@@ -162,22 +769,248 @@ public class WeatherRequest {
 	 */
 	protected WeatherResponse sendRequest(String cityID, int secondsToWait, boolean doWait) throws IOException, InterruptedException {
 		if (doWait) {
-			int actualSeconds = secondsBeforeRetry;
-			if (secondsToWait > 0 && secondsToWait < maxSecondsBeforeRetry) {
-				actualSeconds = secondsToWait;
-			}
+			int actualSeconds = getSecondsToWait(secondsToWait);
 			outStream.println("Could not get weather information, automatic retry after "+actualSeconds+" seconds");
 			Thread.sleep(actualSeconds*1000);
 		}
 		HttpGet httpget = new HttpGet(URI + cityID);
-		return httpclient.execute(httpget,weatherResponseHandler);
+		return transport.getHttpClient().execute(httpget,weatherResponseHandler);
 	}
 	
+	/**
+	 * Gives the seconds to wait before retrying a synchronous request.
+	 * @param secondsToWait	the seconds to wait as suggested by the server, -1 if not suggested
+	 * @return the suggested seconds if they do not exceed <code>maxSecondsBeforeRetry</code>, otherwise
+	 * <code>secondsBeforeRetry</code>
+	 */
+	private int getSecondsToWait(int secondsToWait) {
+		if (secondsToWait > 0 && secondsToWait < maxSecondsBeforeRetry)
+			return secondsToWait;
+		return secondsBeforeRetry;
+	}
+	
+	/**
+	 * Send the request for the given cityID without blocking the calling thread.
+	 * @param cityID	ID of the city to get weather information for
+	 * @return the future response, completed exceptionally with the <code>IOException</code> if the request
+	 * could not be sent
+	 */
+	protected CompletableFuture<WeatherResponse> sendRequestAsync(String cityID) {
+		return getAsyncTransport().execute(new HttpGet(URI + cityID), weatherResponseHandler, ASYNC_EXECUTOR);
+	}
+	
+	/**
+	 * Closes the transport, if it was created by this instance, and the transport of the asynchronous requests.
+	 * @throws IOException if the connections could not be closed
+	 */
 	public void closeHttpClient() throws IOException {
-		if(httpclient != null)
-			httpclient.close();
+		AsyncWeatherTransport async;
+		synchronized (this) {
+			async = asyncTransport;
+			asyncTransport = null;
+		}
+		try {
+			if (async != null)
+				async.close();
+		} finally {
+			if(transport != null && ownsTransport)
+				transport.close();
+		}
+	}
+	
+	/**
+	 * Gives the city-ID-configuration used to look up city names, waiting for it to be loaded.
+	 * @return the city-ID-configuration
+	 * @throws WeatherServiceException if the city-ID-configuration could not be loaded
+	 */
+	public CityID getCityID() throws WeatherServiceException {
+		try {
+			return cityID.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof WeatherServiceException)
+				throw (WeatherServiceException) e.getCause();
+			throw new WeatherServiceException("Could not load weather service configuration");
+		}
+	}
+
+	/**
+	 * Creates the executor of the asynchronous requests, whose idle threads end after a minute.
+	 * @return the executor with at most {@link #ASYNC_THREADS} threads
+	 */
+	private static ExecutorService newAsyncExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), new DaemonThreadFactory("weather-async"));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Starts loading the city-ID-configuration on a thread of its own.
+	 * @return the future city-ID-configuration
+	 */
+	private static CompletableFuture<CityID> loadCityID() {
+		CompletableFuture<CityID> loaded = new CompletableFuture<>();
+		new DaemonThreadFactory("area-load").newThread(() -> {
+			try {
+				loaded.complete(new CityID());
+			} catch (Exception e) {
+				loaded.completeExceptionally(e);
+			}
+		}).start();
+		return loaded;
+	}
+	
+	/**
+	 * Get the decoder used for the content of the responses.
+	 * @return the decoder
+	 */
+	public WeatherResponseDecoder getDecoder() {
+		return weatherResponseHandler.getDecoder();
+	}
+	
+	/**
+	 * Set the decoder used for the content of the responses. Responses are cached as decoded, so parts skipped
+	 * by the decoder are also missing in responses taken from the cache.
+	 * @param decoder the decoder
+	 */
+	public void setDecoder(WeatherResponseDecoder decoder) {
+		weatherResponseHandler.setDecoder(decoder);
 	}
 	
+	public WeatherTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Get the transport of the asynchronous requests. It is created with the settings of the blocking transport
+	 * when it is needed for the first time.
+	 * @return the transport of the asynchronous requests
+	 */
+	public synchronized AsyncWeatherTransport getAsyncTransport() {
+		if (asyncTransport == null)
+			asyncTransport = new AsyncWeatherTransport(transport.getConfig());
+		return asyncTransport;
+	}
+	
+	/**
+	 * Get the cache used for successful responses.
+	 * @return the cache or null, if caching is disabled
+	 */
+	public WeatherCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Set the cache used for successful responses.
+	 * @param cache the cache to use or null, to disable caching
+	 */
+	public void setCache(WeatherCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Get the circuit breaker guarding the requests to the weather API.
+	 * @return the circuit breaker or null, if disabled
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Set the circuit breaker guarding the requests to the weather API.
+	 * @param circuitBreaker the circuit breaker to use or null, to always send the requests
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Get the rate limiter the requests wait for.
+	 * @return the rate limiter or null, if disabled
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Set the rate limiter the requests wait for, by default {@link RateLimiter#GLOBAL}.
+	 * @param rateLimiter the rate limiter to use or null, to send requests without limit
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Get whether the last good response of a city is returned, flagged as stale, while the circuit breaker is open.
+	 * @return true if the last good responses are kept
+	 */
+	public boolean isStaleFallback() {
+		return staleFallback;
+	}
+
+	/**
+	 * Set whether the last good response of a city is returned, flagged as stale, while the circuit breaker is open.
+	 * If disabled, the responses are not kept and the responses kept so far are dropped.
+	 * @param staleFallback true to keep the last good responses, by default true
+	 */
+	public void setStaleFallback(boolean staleFallback) {
+		this.staleFallback = staleFallback;
+		if (!staleFallback) {
+			synchronized (lastGood) {
+				lastGood.clear();
+			}
+		}
+	}
+
+	/**
+	 * Get the history the received forecasts are appended to.
+	 * @return the history or null, if disabled
+	 */
+	public ForecastHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Set the history the received forecasts are appended to. The history is not closed by
+	 * {@link #closeHttpClient()}.
+	 * @param history the history to use or null, to keep no history
+	 */
+	public void setHistory(ForecastHistory history) {
+		this.history = history;
+	}
+
+	/**
+	 * Get the index the pinpoint locations of the received responses are added to.
+	 * @return the index or null, if disabled
+	 */
+	public PinpointIndex getPinpoints() {
+		return pinpoints;
+	}
+
+	/**
+	 * Set the index the pinpoint locations of the received responses are added to and names are looked up in, if
+	 * they are not the name of a city. The pinpoint locations are only added, if the decoder reads them.
+	 * @param pinpoints the index to use or null, to look up the names of cities only
+	 */
+	public void setPinpoints(PinpointIndex pinpoints) {
+		this.pinpoints = pinpoints;
+	}
+
+	/**
+	 * @return the maximum number of seconds to wait for a permit of the rate limiter
+	 */
+	public int getMaxSecondsInQueue() {
+		return maxSecondsInQueue;
+	}
+
+	/**
+	 * @param maxSecondsInQueue the maximum number of seconds to wait for a permit of the rate limiter, before the
+	 * request fails
+	 */
+	public void setMaxSecondsInQueue(int maxSecondsInQueue) {
+		this.maxSecondsInQueue = maxSecondsInQueue;
+	}
+
 	public int getRetryCount() {
 		return retryCount;
 	}
@@ -214,5 +1047,23 @@ public class WeatherRequest {
 		this.maxSecondsBeforeRetry = maxSecondsBeforeRetry;
 	}
 
+	/**
+	 * Get the upper bound of the exponential backoff of asynchronous requests.
+	 * @return the maximum number of seconds to wait before retrying an asynchronous request
+	 * @see #getWeatherFromIDAsync(String)
+	 */
+	public int getMaxBackoffSeconds() {
+		return maxBackoffSeconds;
+	}
+
+	/**
+	 * Set the upper bound of the exponential backoff of asynchronous requests.
+	 * @param maxBackoffSeconds the maximum number of seconds to wait before retrying an asynchronous request
+	 * @see #getWeatherFromIDAsync(String)
+	 */
+	public void setMaxBackoffSeconds(int maxBackoffSeconds) {
+		this.maxBackoffSeconds = maxBackoffSeconds;
+	}
+
 
 }
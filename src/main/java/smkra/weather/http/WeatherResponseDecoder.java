@@ -0,0 +1,540 @@
+package smkra.weather.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import smkra.weather.model.Copyright;
+import smkra.weather.model.Degree;
+import smkra.weather.model.Description;
+import smkra.weather.model.Forecast;
+import smkra.weather.model.Image;
+import smkra.weather.model.Link;
+import smkra.weather.model.Location;
+import smkra.weather.model.Temperature;
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Decodes the JSON content of a weather API response into a {@link WeatherResponse}. The content is read as
+ * UTF-8 with a streaming {@link JsonReader}, using a type adapter per model class instead of reflection.
+ * Parts of the response that are not needed can be skipped without creating objects for them.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class WeatherResponseDecoder {
+
+	/**
+	 * Decoder reading all parts of a response
+	 */
+	public static final WeatherResponseDecoder FULL = new WeatherResponseDecoder(true, true, true);
+
+	private final boolean description;
+	private final boolean pinpointLocations;
+	private final boolean copyright;
+	private final Map<Class<?>, TypeAdapter<?>> adapters = new HashMap<>();
+	private final Gson gson;
+
+	/**
+	 * Creates a new decoder.
+	 * @param description if the weather description should be read
+	 * @param pinpointLocations if the pinpoint locations should be read
+	 * @param copyright if the copyright information should be read
+	 */
+	public WeatherResponseDecoder(boolean description, boolean pinpointLocations, boolean copyright) {
+		this.description = description;
+		this.pinpointLocations = pinpointLocations;
+		this.copyright = copyright;
+		adapters.put(WeatherResponse.class, new WeatherResponseAdapter().nullSafe());
+		adapters.put(Location.class, new LocationAdapter().nullSafe());
+		adapters.put(Description.class, new DescriptionAdapter().nullSafe());
+		adapters.put(Forecast.class, new ForecastAdapter().nullSafe());
+		adapters.put(Temperature.class, new TemperatureAdapter().nullSafe());
+		adapters.put(Degree.class, new DegreeAdapter().nullSafe());
+		adapters.put(Image.class, new ImageAdapter().nullSafe());
+		adapters.put(Link.class, new LinkAdapter().nullSafe());
+		adapters.put(Copyright.class, new CopyrightAdapter().nullSafe());
+		GsonBuilder builder = new GsonBuilder().disableHtmlEscaping();
+		for (Map.Entry<Class<?>, TypeAdapter<?>> adapter : adapters.entrySet())
+			builder.registerTypeAdapter(adapter.getKey(), adapter.getValue());
+		gson = builder.create();
+	}
+
+	/**
+	 * Decodes the given UTF-8 encoded JSON content.
+	 * @param content the content of the response, it is not closed by this method
+	 * @return the decoded response or null, if the content is empty
+	 * @throws IOException if the content could not be read or is not valid
+	 */
+	public WeatherResponse decode(InputStream content) throws IOException {
+		return decode(new InputStreamReader(content, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes the given JSON content.
+	 * @param content the content of the response, it is not closed by this method
+	 * @return the decoded response or null, if the content is empty
+	 * @throws IOException if the content could not be read or is not valid
+	 */
+	public WeatherResponse decode(Reader content) throws IOException {
+		JsonReader reader = new JsonReader(content);
+		try {
+			if (reader.peek() == JsonToken.END_DOCUMENT)
+				return null;
+			return read(reader, WeatherResponse.class);
+		} catch (IllegalStateException | JsonParseException | NumberFormatException e) {
+			throw new IOException("Invalid weather information", e);
+		}
+	}
+
+	/**
+	 * @return the Gson instance with the type adapters of this decoder, which can also be used to encode a response
+	 */
+	public Gson getGson() {
+		return gson;
+	}
+
+	public boolean isDescription() {
+		return description;
+	}
+
+	public boolean isPinpointLocations() {
+		return pinpointLocations;
+	}
+
+	public boolean isCopyright() {
+		return copyright;
+	}
+
+	private static String nextString(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+
+	private static int nextInt(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return 0;
+		}
+		return in.nextInt();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> TypeAdapter<T> getAdapter(Class<T> type) {
+		return (TypeAdapter<T>) adapters.get(type);
+	}
+
+	private <T> T read(JsonReader in, Class<T> type) throws IOException {
+		return getAdapter(type).read(in);
+	}
+
+	private <T> void write(JsonWriter out, Class<T> type, T value) throws IOException {
+		getAdapter(type).write(out, value);
+	}
+
+	private <T> List<T> readArray(JsonReader in, Class<T> type) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		List<T> list = new ArrayList<>();
+		TypeAdapter<T> adapter = getAdapter(type);
+		in.beginArray();
+		while (in.hasNext())
+			list.add(adapter.read(in));
+		in.endArray();
+		return list;
+	}
+
+	private <T> void writeArray(JsonWriter out, Class<T> type, T[] values) throws IOException {
+		if (values == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginArray();
+		for (T value : values)
+			write(out, type, value);
+		out.endArray();
+	}
+
+	private class WeatherResponseAdapter extends TypeAdapter<WeatherResponse> {
+		@Override
+		public WeatherResponse read(JsonReader in) throws IOException {
+			WeatherResponse response = new WeatherResponse();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "location":
+					response.setLocation(WeatherResponseDecoder.this.read(in, Location.class));
+					break;
+				case "title":
+					response.setTitle(nextString(in));
+					break;
+				case "link":
+					response.setLink(nextString(in));
+					break;
+				case "publicTime":
+					response.setPublicTime(nextString(in));
+					break;
+				case "description":
+					if (description)
+						response.setDescription(WeatherResponseDecoder.this.read(in, Description.class));
+					else
+						in.skipValue();
+					break;
+				case "forecasts":
+					List<Forecast> forecasts = readArray(in, Forecast.class);
+					response.setForecasts(forecasts != null ? forecasts.toArray(new Forecast[forecasts.size()]) : null);
+					break;
+				case "pinpointLocations":
+					if (pinpointLocations) {
+						List<Link> links = readArray(in, Link.class);
+						response.setPinpointLocations(links != null ? links.toArray(new Link[links.size()]) : null);
+					} else {
+						in.skipValue();
+					}
+					break;
+				case "copyright":
+					if (copyright)
+						response.setCopyright(WeatherResponseDecoder.this.read(in, Copyright.class));
+					else
+						in.skipValue();
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return response;
+		}
+
+		@Override
+		public void write(JsonWriter out, WeatherResponse value) throws IOException {
+			out.beginObject();
+			out.name("pinpointLocations");
+			writeArray(out, Link.class, value.getPinpointLocations());
+			out.name("link").value(value.getLink());
+			out.name("forecasts");
+			writeArray(out, Forecast.class, value.getForecasts());
+			out.name("location");
+			WeatherResponseDecoder.this.write(out, Location.class, value.getLocation());
+			out.name("publicTime").value(value.getPublicTime());
+			out.name("copyright");
+			WeatherResponseDecoder.this.write(out, Copyright.class, value.getCopyright());
+			out.name("title").value(value.getTitle());
+			out.name("description");
+			WeatherResponseDecoder.this.write(out, Description.class, value.getDescription());
+			out.endObject();
+		}
+	}
+
+	private static class LocationAdapter extends TypeAdapter<Location> {
+		@Override
+		public Location read(JsonReader in) throws IOException {
+			Location location = new Location();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "area":
+					location.setArea(nextString(in));
+					break;
+				case "prefecture":
+				case "pref":
+					location.setPref(nextString(in));
+					break;
+				case "city":
+					location.setCity(nextString(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return location;
+		}
+
+		@Override
+		public void write(JsonWriter out, Location value) throws IOException {
+			out.beginObject();
+			out.name("city").value(value.getCity());
+			out.name("area").value(value.getArea());
+			out.name("prefecture").value(value.getPref());
+			out.endObject();
+		}
+	}
+
+	private static class DescriptionAdapter extends TypeAdapter<Description> {
+		@Override
+		public Description read(JsonReader in) throws IOException {
+			Description description = new Description();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "text":
+					description.setText(nextString(in));
+					break;
+				case "publicTime":
+					description.setPublicTime(nextString(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return description;
+		}
+
+		@Override
+		public void write(JsonWriter out, Description value) throws IOException {
+			out.beginObject();
+			out.name("text").value(value.getText());
+			out.name("publicTime").value(value.getPublicTime());
+			out.endObject();
+		}
+	}
+
+	private class ForecastAdapter extends TypeAdapter<Forecast> {
+		@Override
+		public Forecast read(JsonReader in) throws IOException {
+			Forecast forecast = new Forecast();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "date":
+					forecast.setDate(nextString(in));
+					break;
+				case "dateLabel":
+					forecast.setDateLabel(nextString(in));
+					break;
+				case "telop":
+					forecast.setTelop(nextString(in));
+					break;
+				case "image":
+					forecast.setImage(WeatherResponseDecoder.this.read(in, Image.class));
+					break;
+				case "temperature":
+					forecast.setTemperature(WeatherResponseDecoder.this.read(in, Temperature.class));
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return forecast;
+		}
+
+		@Override
+		public void write(JsonWriter out, Forecast value) throws IOException {
+			out.beginObject();
+			out.name("dateLabel").value(value.getDateLabel());
+			out.name("telop").value(value.getTelop());
+			out.name("date").value(value.getDate());
+			out.name("temperature");
+			WeatherResponseDecoder.this.write(out, Temperature.class, value.getTemperature());
+			out.name("image");
+			WeatherResponseDecoder.this.write(out, Image.class, value.getImage());
+			out.endObject();
+		}
+	}
+
+	private class TemperatureAdapter extends TypeAdapter<Temperature> {
+		@Override
+		public Temperature read(JsonReader in) throws IOException {
+			Temperature temperature = new Temperature();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "min":
+					temperature.setMin(WeatherResponseDecoder.this.read(in, Degree.class));
+					break;
+				case "max":
+					temperature.setMax(WeatherResponseDecoder.this.read(in, Degree.class));
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return temperature;
+		}
+
+		@Override
+		public void write(JsonWriter out, Temperature value) throws IOException {
+			out.beginObject();
+			out.name("min");
+			WeatherResponseDecoder.this.write(out, Degree.class, value.getMin());
+			out.name("max");
+			WeatherResponseDecoder.this.write(out, Degree.class, value.getMax());
+			out.endObject();
+		}
+	}
+
+	private static class DegreeAdapter extends TypeAdapter<Degree> {
+		@Override
+		public Degree read(JsonReader in) throws IOException {
+			Degree degree = new Degree();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "celsius":
+					degree.setCelsius(nextString(in));
+					break;
+				case "fahrenheit":
+					degree.setFahrenheit(nextString(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return degree;
+		}
+
+		@Override
+		public void write(JsonWriter out, Degree value) throws IOException {
+			out.beginObject();
+			out.name("celsius").value(value.getCelsius());
+			out.name("fahrenheit").value(value.getFahrenheit());
+			out.endObject();
+		}
+	}
+
+	private static class ImageAdapter extends TypeAdapter<Image> {
+		@Override
+		public Image read(JsonReader in) throws IOException {
+			Image image = new Image();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "title":
+					image.setTitle(nextString(in));
+					break;
+				case "link":
+					image.setLink(nextString(in));
+					break;
+				case "url":
+					image.setUrl(nextString(in));
+					break;
+				case "width":
+					image.setWidth(nextInt(in));
+					break;
+				case "height":
+					image.setHeight(nextInt(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return image;
+		}
+
+		@Override
+		public void write(JsonWriter out, Image value) throws IOException {
+			out.beginObject();
+			out.name("width").value(value.getWidth());
+			if (value.getLink() != null)
+				out.name("link").value(value.getLink());
+			out.name("url").value(value.getUrl());
+			out.name("title").value(value.getTitle());
+			out.name("height").value(value.getHeight());
+			out.endObject();
+		}
+	}
+
+	private static class LinkAdapter extends TypeAdapter<Link> {
+		@Override
+		public Link read(JsonReader in) throws IOException {
+			Link link = new Link();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "name":
+					link.setName(nextString(in));
+					break;
+				case "link":
+					link.setLink(nextString(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return link;
+		}
+
+		@Override
+		public void write(JsonWriter out, Link value) throws IOException {
+			out.beginObject();
+			out.name("link").value(value.getLink());
+			out.name("name").value(value.getName());
+			out.endObject();
+		}
+	}
+
+	private class CopyrightAdapter extends TypeAdapter<Copyright> {
+		@Override
+		public Copyright read(JsonReader in) throws IOException {
+			Copyright copyright = new Copyright();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "provider":
+					List<Link> provider = readArray(in, Link.class);
+					copyright.setProvider(provider != null ? provider.toArray(new Link[provider.size()]) : null);
+					break;
+				case "link":
+					copyright.setLink(nextString(in));
+					break;
+				case "title":
+					copyright.setTitle(nextString(in));
+					break;
+				case "image":
+					copyright.setImage(WeatherResponseDecoder.this.read(in, Image.class));
+					break;
+				default:
+					in.skipValue();
+					break;
+				}
+			}
+			in.endObject();
+			return copyright;
+		}
+
+		@Override
+		public void write(JsonWriter out, Copyright value) throws IOException {
+			out.beginObject();
+			out.name("provider");
+			writeArray(out, Link.class, value.getProvider());
+			out.name("link").value(value.getLink());
+			out.name("title").value(value.getTitle());
+			out.name("image");
+			WeatherResponseDecoder.this.write(out, Image.class, value.getImage());
+			out.endObject();
+		}
+	}
+}
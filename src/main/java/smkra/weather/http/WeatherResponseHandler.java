@@ -2,35 +2,54 @@ package smkra.weather.http;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 
-import com.google.gson.Gson;
-
+import smkra.weather.metrics.Phase;
+import smkra.weather.metrics.WeatherMetrics;
 import smkra.weather.model.WeatherResponse;
 
 /**
  * Implementation of Apache's HTTP ResponseHandler, parsing the response data and returning 
- * the included weather information as WeatherResponse object
+ * the included weather information as WeatherResponse object. The time needed to decode the content is recorded
+ * in {@link WeatherMetrics#GLOBAL}.
+ * 
+ * @see WeatherResponseDecoder
  */
 public class WeatherResponseHandler implements ResponseHandler<WeatherResponse> {
 
+	private volatile WeatherResponseDecoder decoder;
+
+	/**
+	 * Creates a handler reading all parts of the responses.
+	 */
+	public WeatherResponseHandler() {
+		this(WeatherResponseDecoder.FULL);
+	}
+
+	/**
+	 * Creates a handler using the given decoder.
+	 * @param decoder the decoder for the response content
+	 */
+	public WeatherResponseHandler(WeatherResponseDecoder decoder) {
+		this.decoder = decoder;
+	}
+
 	@Override
 	public WeatherResponse handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
 		int status = response.getStatusLine().getStatusCode();
-		if(status == HttpStatus.SC_OK){
-			InputStream content = response.getEntity().getContent();
-			InputStreamReader reader = new InputStreamReader(content);
-			try {
-				WeatherResponse ret = new Gson().fromJson(reader, WeatherResponse.class);
+		if(status == HttpStatus.SC_OK && response.getEntity() != null){
+			long start = System.nanoTime();
+			try (InputStream content = response.getEntity().getContent()) {
+				WeatherResponse ret = decoder.decode(content);
+				WeatherMetrics.GLOBAL.record(Phase.PARSE, start);
+				if (ret == null)
+					ret = new WeatherResponse();
 				ret.setHttpResponse(response);
 				return ret;
-			} finally {
-				reader.close();
 			}
 		}
 		WeatherResponse ret = new WeatherResponse();
@@ -39,4 +58,12 @@ public class WeatherResponseHandler implements ResponseHandler<WeatherResponse>
 		
 	}
 
+	public WeatherResponseDecoder getDecoder() {
+		return decoder;
+	}
+
+	public void setDecoder(WeatherResponseDecoder decoder) {
+		this.decoder = decoder;
+	}
+
 }
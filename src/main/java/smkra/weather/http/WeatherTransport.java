@@ -0,0 +1,153 @@
+package smkra.weather.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.util.EntityUtils;
+
+import smkra.weather.metrics.Phase;
+import smkra.weather.metrics.WeatherMetrics;
+
+/**
+ * HTTP transport shared by all requests of a {@link WeatherRequest}. Connections are kept alive in a pool limited
+ * per host and in total, closed after being idle for a while, and every request is sent with explicit connect,
+ * socket and pool timeouts, so a stalled connection cannot block a caller forever.
+ *
+ * Unless disabled by {@link TransportConfig#isContentCompression()}, gzip and deflate compressed responses are
+ * accepted. Compressed content is decompressed as a stream while it is decoded, it is never held in memory
+ * completely.
+ *
+ * The time needed to resolve the host, to connect and to receive the response headers is recorded in
+ * {@link WeatherMetrics#GLOBAL}.
+ *
+ * @see TransportConfig
+ */
+public class WeatherTransport implements Closeable {
+
+	/**
+	 * Attribute of the request context holding the <code>System.nanoTime()</code> the request was started at
+	 */
+	private static final String STARTED_AT = "weather.startedAt";
+
+	private final TransportConfig config;
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpclient;
+
+	/**
+	 * Creates a new transport using the given settings.
+	 * @param config the settings of the transport
+	 */
+	public WeatherTransport(TransportConfig config) {
+		this.config = config;
+		WeatherMetrics metrics = WeatherMetrics.GLOBAL;
+		DnsResolver dnsResolver = host -> {
+			long start = System.nanoTime();
+			try {
+				return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+			} finally {
+				metrics.record(Phase.DNS, start);
+			}
+		};
+		connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", new TimedSocketFactory(PlainConnectionSocketFactory.getSocketFactory(), metrics))
+				.register("https", new TimedSocketFactory(SSLConnectionSocketFactory.getSocketFactory(), metrics))
+				.build(), dnsResolver);
+		connectionManager.setMaxTotal(config.getMaxTotal());
+		connectionManager.setDefaultMaxPerRoute(config.getMaxPerRoute());
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(config.getConnectTimeout())
+				.setSocketTimeout(config.getSocketTimeout())
+				.setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+				.build();
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		if (!config.isContentCompression())
+			builder.disableContentCompression();
+		httpclient = builder
+				.disableAutomaticRetries()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections()
+				.evictIdleConnections(config.getMaxIdleTime(), TimeUnit.MILLISECONDS)
+				.addInterceptorFirst((HttpRequestInterceptor) (request, context) ->
+						context.setAttribute(STARTED_AT, System.nanoTime()))
+				.addInterceptorFirst((HttpResponseInterceptor) (response, context) -> {
+					Long startedAt = (Long) context.getAttribute(STARTED_AT);
+					Long connectedAt = (Long) context.getAttribute(TimedSocketFactory.CONNECTED_AT);
+					if (startedAt != null)
+						metrics.record(Phase.UPSTREAM, connectedAt != null ? Math.max(startedAt, connectedAt) : startedAt);
+				})
+				.build();
+	}
+
+	/**
+	 * Opens connections to the host of the given URI in parallel, so the first requests can reuse them. The number
+	 * of connections is taken from {@link TransportConfig#getPrewarmConnections()}. Connections that can not be
+	 * opened are ignored.
+	 * @param uri an URI on the host to connect to
+	 */
+	public void prewarm(String uri) {
+		int connections = Math.min(config.getPrewarmConnections(), config.getMaxPerRoute());
+		if (connections <= 0)
+			return;
+		URI target = URI.create(uri);
+		String root = target.getScheme() + "://" + target.getAuthority() + "/";
+		ExecutorService executor = Executors.newFixedThreadPool(connections);
+		try {
+			CompletableFuture<?>[] futures = new CompletableFuture<?>[connections];
+			for (int i = 0; i < connections; i++) {
+				futures[i] = CompletableFuture.runAsync(() -> {
+					try (CloseableHttpResponse response = httpclient.execute(new HttpHead(root))) {
+						EntityUtils.consume(response.getEntity());
+					} catch (IOException e) {
+						// host not reachable, the requests will report the error
+					}
+				}, executor);
+			}
+			CompletableFuture.allOf(futures).join();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public CloseableHttpClient getHttpClient() {
+		return httpclient;
+	}
+
+	public TransportConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return the number of pooled connections currently not in use
+	 */
+	public int getAvailableConnections() {
+		return connectionManager.getTotalStats().getAvailable();
+	}
+
+	/**
+	 * Closes all pooled connections and stops the eviction of idle connections.
+	 */
+	@Override
+	public void close() throws IOException {
+		httpclient.close();
+	}
+}
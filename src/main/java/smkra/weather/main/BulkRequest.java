@@ -0,0 +1,148 @@
+package smkra.weather.main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import smkra.weather.http.WeatherRequest;
+import smkra.weather.http.WeatherServiceException;
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Requests the weather for many cities within one process. The jobs are read line by line from a reader,
+ * each line containing the name of a city and the name of the html file to write the weather to, separated by
+ * whitespace. Empty lines and lines starting with <code>#</code> are ignored.
+ *
+ * The requests are executed by a fixed number of worker threads sharing one {@link WeatherRequest}. At most
+ * twice as many jobs as there are workers are read ahead, so the memory used does not depend on the
+ * number of lines. Each file is written as soon as its weather information arrives and a line reporting
+ * success or failure is printed per city, followed by a summary once all jobs are done.
+ */
+public class BulkRequest {
+
+	private final WeatherRequest weatherRequest;
+	private final int threads;
+	private final boolean detail;
+	private final PrintStream outStream;
+	private boolean gzip = false;
+	private UnaryOperator<String> imageSource = UnaryOperator.identity();
+
+	private final AtomicInteger succeeded = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * Creates a new bulk request.
+	 * @param weatherRequest the request instance shared by all worker threads
+	 * @param threads the number of worker threads
+	 * @param detail if the detailed weather description should be written to the files
+	 * @param outStream the stream to print the progress and the summary to
+	 */
+	public BulkRequest(WeatherRequest weatherRequest, int threads, boolean detail, PrintStream outStream) {
+		this.weatherRequest = weatherRequest;
+		this.threads = Math.max(1, threads);
+		this.detail = detail;
+		this.outStream = outStream;
+	}
+
+	/**
+	 * Reads all jobs from the given reader, executes them and prints the summary.
+	 * @param reader the reader providing one job per line
+	 * @throws IOException if the jobs could not be read
+	 * @throws InterruptedException if waiting for the workers was interrupted
+	 */
+	public void run(BufferedReader reader) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Semaphore pending = new Semaphore(threads * 2);
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] job = line.split("\\s+");
+				if (job.length != 2) {
+					failed.incrementAndGet();
+					print("NG line " + lineNumber + ": expected city and filename");
+					continue;
+				}
+				pending.acquire();
+				executor.execute(() -> {
+					try {
+						execute(job[0], job[1]);
+					} finally {
+						pending.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		print(succeeded.get() + " succeeded, " + failed.get() + " failed in " + millis + " ms");
+	}
+
+	/**
+	 * Requests the weather for a single city and writes it to the given file.
+	 * @param city the name of the city
+	 * @param filename the name of the file to write the weather to
+	 */
+	private void execute(String city, String filename) {
+		try {
+			WeatherResponse response = weatherRequest.getWeatherDataFromName(city);
+			WeatherService.writeToFile(filename, response, detail, gzip, imageSource);
+			succeeded.incrementAndGet();
+			print("OK " + city + " -> " + filename + (response.isStale() ? " (stale)" : ""));
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			print("NG " + city + ": " + WeatherService.getErrorMessage(e));
+		}
+	}
+
+	private void print(String message) {
+		synchronized (outStream) {
+			outStream.println(message);
+		}
+	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	/**
+	 * Set if a gzip compressed copy should be written next to every html file.
+	 * @param gzip true, to write the compressed copies
+	 */
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	public UnaryOperator<String> getImageSource() {
+		return imageSource;
+	}
+
+	/**
+	 * Sets the sources of the weather images shown in the html files, e.g. embedded local copies.
+	 * @param imageSource gives the source of a weather image by its URL
+	 */
+	public void setImageSource(UnaryOperator<String> imageSource) {
+		this.imageSource = imageSource;
+	}
+
+	public int getSucceeded() {
+		return succeeded.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+}
@@ -0,0 +1,231 @@
+package smkra.weather.main;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import com.google.gson.stream.JsonWriter;
+
+import smkra.weather.http.WeatherRequest;
+import smkra.weather.http.WeatherServiceException;
+import smkra.weather.model.Degree;
+import smkra.weather.model.Forecast;
+import smkra.weather.model.Temperature;
+import smkra.weather.model.WeatherResponse;
+import smkra.weather.xml.City;
+
+/**
+ * Exports the forecasts of all cities of the area configuration in a format meant for further processing, one
+ * NDJSON line or CSV row per forecast day with the fields
+ * <code>cityId, city, pref, publicTime, date, dateLabel, telop, min, max</code>, temperatures in degrees Celsius.
+ *
+ * The weather of the cities is requested by a fixed number of worker threads sharing one {@link WeatherRequest}.
+ * As in the {@link BulkRequest}, at most twice as many cities as there are workers are pending, so the memory used
+ * does not depend on the number of cities. The rows of a city are written as soon as its weather arrives, in the
+ * order the requests complete, and the output is flushed after every city, so a reader can process the rows while
+ * the export is running. Cities whose weather cannot be requested are reported and skipped.
+ */
+public class ForecastExporter {
+
+	/**
+	 * Format of the exported forecasts
+	 */
+	public enum Format {
+		/**
+		 * One JSON object per line
+		 */
+		NDJSON,
+		/**
+		 * Comma separated values as specified by RFC 4180, starting with a header row
+		 */
+		CSV
+	}
+
+	static final String[] FIELDS = {"cityId", "city", "pref", "publicTime", "date", "dateLabel", "telop", "min", "max"};
+	/**
+	 * Temperatures matching this pattern are exported as JSON numbers, others as strings
+	 */
+	private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?");
+
+	private final WeatherRequest weatherRequest;
+	private final int threads;
+	private final Format format;
+	private final PrintStream outStream;
+
+	private final AtomicInteger exported = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger rows = new AtomicInteger();
+
+	/**
+	 * Creates a new exporter.
+	 * @param weatherRequest the request instance shared by all worker threads
+	 * @param threads the number of worker threads
+	 * @param format the format of the exported forecasts
+	 * @param outStream the stream to print failures and the summary to, must not be the stream exported to
+	 */
+	public ForecastExporter(WeatherRequest weatherRequest, int threads, Format format, PrintStream outStream) {
+		this.weatherRequest = weatherRequest;
+		this.threads = Math.max(1, threads);
+		this.format = format;
+		this.outStream = outStream;
+	}
+
+	/**
+	 * Exports the forecasts of all cities and prints the summary. The writer is flushed, but not closed.
+	 * @param out the writer to export to
+	 * @throws IOException if writing failed
+	 * @throws InterruptedException if waiting for the workers was interrupted
+	 * @throws WeatherServiceException if the city-ID-configuration could not be loaded
+	 */
+	public void export(Writer out) throws IOException, InterruptedException, WeatherServiceException {
+		long start = System.nanoTime();
+		List<City> cities = weatherRequest.getCityID().getCities();
+		if (format == Format.CSV) {
+			out.write(String.join(",", FIELDS) + "\n");
+			out.flush();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Semaphore pending = new Semaphore(threads * 2);
+		AtomicReference<IOException> failure = new AtomicReference<>();
+		try {
+			for (City city : cities) {
+				pending.acquire();
+				if (failure.get() != null)
+					break;
+				executor.execute(() -> {
+					try {
+						export(city, out);
+					} catch (IOException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						pending.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		if (failure.get() != null)
+			throw failure.get();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		print(exported.get() + " cities exported with " + rows.get() + " rows, " + failed.get() + " failed in " + millis + " ms");
+	}
+
+	/**
+	 * Requests the weather of a single city and writes its rows.
+	 * @throws IOException if writing failed, failing to request the weather is only reported
+	 */
+	private void export(City city, Writer out) throws IOException {
+		WeatherResponse response;
+		try {
+			response = weatherRequest.getWeatherFromID(city.getId());
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			print("NG " + city.getTitle() + ": " + WeatherService.getErrorMessage(e));
+			return;
+		}
+		StringBuilder lines = new StringBuilder(1024);
+		int count = 0;
+		if (response.getForecasts() != null) {
+			for (Forecast forecast : response.getForecasts()) {
+				String[] values = getValues(city, response, forecast);
+				if (format == Format.CSV)
+					appendCsv(lines, values);
+				else
+					appendJson(lines, values);
+				count++;
+			}
+		}
+		synchronized (out) {
+			out.write(lines.toString());
+			out.flush();
+		}
+		rows.addAndGet(count);
+		exported.incrementAndGet();
+	}
+
+	static String[] getValues(City city, WeatherResponse response, Forecast forecast) {
+		Temperature temperature = forecast.getTemperature();
+		return new String[] {city.getId(), city.getTitle(), city.getPref(), response.getPublicTime(),
+				forecast.getDate(), forecast.getDateLabel(), forecast.getTelop(),
+				temperature != null ? getCelsius(temperature.getMin()) : null,
+				temperature != null ? getCelsius(temperature.getMax()) : null};
+	}
+
+	private static String getCelsius(Degree degree) {
+		return degree != null ? degree.getCelsius() : null;
+	}
+
+	/**
+	 * Appends a CSV row, missing values are left empty.
+	 */
+	static void appendCsv(StringBuilder lines, String[] values) {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0)
+				lines.append(',');
+			if (values[i] != null)
+				lines.append(StringEscapeUtils.escapeCsv(values[i]));
+		}
+		lines.append('\n');
+	}
+
+	/**
+	 * Appends a JSON object in one line, the temperatures as numbers and missing values as null.
+	 */
+	static void appendJson(StringBuilder lines, String[] values) throws IOException {
+		StringWriter line = new StringWriter(256);
+		JsonWriter json = new JsonWriter(line);
+		json.setHtmlSafe(false);
+		json.beginObject();
+		for (int i = 0; i < values.length; i++) {
+			json.name(FIELDS[i]);
+			if (values[i] == null)
+				json.nullValue();
+			else if (i >= FIELDS.length - 2 && isNumber(values[i]))
+				json.jsonValue(values[i]);
+			else
+				json.value(values[i]);
+		}
+		json.endObject();
+		json.flush();
+		lines.append(line).append('\n');
+	}
+
+	private static boolean isNumber(String value) {
+		return NUMBER.matcher(value).matches();
+	}
+
+	private void print(String message) {
+		synchronized (outStream) {
+			outStream.println(message);
+		}
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	public int getExported() {
+		return exported.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	public int getRows() {
+		return rows.get();
+	}
+}
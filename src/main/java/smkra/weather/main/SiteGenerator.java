@@ -0,0 +1,283 @@
+package smkra.weather.main;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import smkra.weather.http.ContentFiles;
+import smkra.weather.http.ImageCache;
+import smkra.weather.http.WeatherRequest;
+import smkra.weather.http.WeatherServiceException;
+import smkra.weather.model.WeatherResponse;
+import smkra.weather.render.WeatherRenderer;
+import smkra.weather.xml.City;
+
+/**
+ * Generates a static site with one html page per city of the area configuration, named after the city ID, and an
+ * index page linking the pages grouped by prefecture.
+ *
+ * The weather of the cities is requested and rendered by a fixed number of worker threads sharing one
+ * {@link WeatherRequest}. The SHA-256 hash of every page is kept in the file <code>.hashes</code> of the site
+ * directory, so a page is only written if its content changed. Pages are written to a temporary file first and
+ * then renamed, so readers never see a partially written page. If the weather of a city cannot be requested, its
+ * previous page is kept.
+ *
+ * If requested, a gzip compressed copy is written next to every page, named like the page with the extension
+ * <code>.gz</code>, so a web server can serve the pages precompressed.
+ *
+ * If an {@link ImageCache} is set, the pages link the local copies of the weather images by their path relative to
+ * the site directory, so viewers of the site do not request the images from the weather API.
+ */
+public class SiteGenerator {
+
+	/**
+	 * Name of the file listing the hashes of the written pages
+	 */
+	static final String HASH_FILE = ".hashes";
+	static final String INDEX_PAGE = "index.html";
+
+	private final WeatherRequest weatherRequest;
+	private final int threads;
+	private final boolean detail;
+	private final PrintStream outStream;
+	private boolean gzip = false;
+	private ImageCache imageCache = null;
+
+	private final AtomicInteger written = new AtomicInteger();
+	private final AtomicInteger unchanged = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * Creates a new generator.
+	 * @param weatherRequest the request instance shared by all worker threads
+	 * @param threads the number of worker threads
+	 * @param detail if the detailed weather description should be written to the pages
+	 * @param outStream the stream to print failures and the summary to
+	 */
+	public SiteGenerator(WeatherRequest weatherRequest, int threads, boolean detail, PrintStream outStream) {
+		this.weatherRequest = weatherRequest;
+		this.threads = Math.max(1, threads);
+		this.detail = detail;
+		this.outStream = outStream;
+	}
+
+	/**
+	 * Generates the pages of all cities and the index page in the given directory and prints the summary, counting
+	 * the pages of the cities only.
+	 * @param directory the directory of the site, created if missing
+	 * @throws IOException if the directory or the hashes could not be read or written
+	 * @throws InterruptedException if waiting for the workers was interrupted
+	 * @throws WeatherServiceException if the city-ID-configuration could not be loaded
+	 */
+	public void generate(Path directory) throws IOException, InterruptedException, WeatherServiceException {
+		long start = System.nanoTime();
+		Files.createDirectories(directory);
+		Map<String, String> hashes = new ConcurrentHashMap<>(readHashes(directory.resolve(HASH_FILE)));
+		List<City> cities = weatherRequest.getCityID().getCities();
+		UnaryOperator<String> imageSource = getImageSource(directory);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> pages = new ArrayList<>(cities.size());
+			for (City city : cities)
+				pages.add(executor.submit(() -> generatePage(directory, city, hashes, imageSource)));
+			for (Future<?> page : pages)
+				page.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Could not generate page", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		writeIfChanged(directory, INDEX_PAGE, renderIndex(directory, cities), hashes);
+		writeHashes(directory.resolve(HASH_FILE), hashes);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		print(written.get() + " written, " + unchanged.get() + " unchanged, " + failed.get() + " failed in " + millis + " ms");
+	}
+
+	/**
+	 * Requests, renders and, if changed, writes the page of a single city.
+	 */
+	private void generatePage(Path directory, City city, Map<String, String> hashes, UnaryOperator<String> imageSource) {
+		try {
+			WeatherResponse response = weatherRequest.getWeatherFromID(city.getId());
+			ByteArrayOutputStream page = new ByteArrayOutputStream(4096);
+			new WeatherRenderer(true, detail, imageSource).render(response, page);
+			if (writeIfChanged(directory, getPageName(city), page.toByteArray(), hashes))
+				written.incrementAndGet();
+			else
+				unchanged.incrementAndGet();
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			print("NG " + city.getTitle() + ": " + WeatherService.getErrorMessage(e));
+		}
+	}
+
+	/**
+	 * Gives the sources of the weather images, the paths of the local copies relative to the site directory if an
+	 * image cache is set.
+	 */
+	private UnaryOperator<String> getImageSource(Path directory) {
+		if (imageCache == null)
+			return UnaryOperator.identity();
+		Path relative = directory.toAbsolutePath().normalize().relativize(imageCache.getDirectory().toAbsolutePath().normalize());
+		StringBuilder prefix = new StringBuilder();
+		for (Path name : relative) {
+			if (!name.toString().isEmpty())
+				prefix.append(name).append('/');
+		}
+		return imageCache.linking(prefix.toString());
+	}
+
+	/**
+	 * Writes a page, unless the hash of its content equals the hash of the previously written page and the
+	 * page still exists with the same size. The hash of the page a compressed copy was made of is recorded
+	 * separately, so a copy left from an older page, e.g. by a run without compression, is written again. Without
+	 * compression, a changed page removes its outdated copy. The compressed copy is written before the page, so
+	 * it is never older than the page.
+	 * @return true, if the page was written
+	 */
+	private boolean writeIfChanged(Path directory, String name, byte[] content, Map<String, String> hashes) throws IOException {
+		String hash = ContentFiles.sha256(content);
+		Path file = directory.resolve(name);
+		String compressedName = name + ".gz";
+		Path compressed = directory.resolve(compressedName);
+		boolean changed = !hash.equals(hashes.get(name)) || !Files.isRegularFile(file) || Files.size(file) != content.length;
+		if (gzip) {
+			if (changed || !hash.equals(hashes.get(compressedName)) || !Files.isRegularFile(compressed)) {
+				ContentFiles.writeAtomically(compressed, compress(content));
+				hashes.put(compressedName, hash);
+			}
+		} else if (changed) {
+			hashes.remove(compressedName);
+			Files.deleteIfExists(compressed);
+		}
+		if (!changed)
+			return false;
+		ContentFiles.writeAtomically(file, content);
+		hashes.put(name, hash);
+		return true;
+	}
+
+	/**
+	 * Renders the index page, linking the pages existing for the cities grouped by prefecture in the order of the
+	 * area configuration.
+	 */
+	private static byte[] renderIndex(Path directory, List<City> cities) {
+		Map<String, List<City>> byPref = new LinkedHashMap<>();
+		for (City city : cities) {
+			if (Files.isRegularFile(directory.resolve(getPageName(city))))
+				byPref.computeIfAbsent(city.getPref(), pref -> new ArrayList<>()).add(city);
+		}
+		StringBuilder html = new StringBuilder(8192);
+		html.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>天気予報</title>\n</head>\n<body>\n");
+		for (Map.Entry<String, List<City>> pref : byPref.entrySet()) {
+			html.append("<h2>").append(StringEscapeUtils.escapeHtml4(pref.getKey())).append("</h2>\n<ul>\n");
+			for (City city : pref.getValue()) {
+				html.append("<li><a href=\"").append(getPageName(city)).append("\">")
+						.append(StringEscapeUtils.escapeHtml4(city.getTitle())).append("</a></li>\n");
+			}
+			html.append("</ul>\n");
+		}
+		html.append("</body>\n</html>\n");
+		return html.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static String getPageName(City city) {
+		return city.getId() + ".html";
+	}
+
+	/**
+	 * Reads the hashes of the previously written pages, each line containing the name of a page and its hash.
+	 */
+	private static Map<String, String> readHashes(Path file) throws IOException {
+		Map<String, String> hashes = new TreeMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] entry = line.trim().split("\\s+");
+				if (entry.length == 2)
+					hashes.put(entry[0], entry[1]);
+			}
+		} catch (NoSuchFileException e) {
+			// first run, all pages are written
+		}
+		return hashes;
+	}
+
+	private static void writeHashes(Path file, Map<String, String> hashes) throws IOException {
+		StringBuilder content = new StringBuilder(hashes.size() * 80);
+		for (Map.Entry<String, String> entry : new TreeMap<>(hashes).entrySet())
+			content.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		ContentFiles.writeAtomically(file, content.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] compress(byte[] content) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 3 + 64);
+		try (OutputStream out = WeatherService.gzip(compressed)) {
+			out.write(content);
+		}
+		return compressed.toByteArray();
+	}
+
+	private void print(String message) {
+		synchronized (outStream) {
+			outStream.println(message);
+		}
+	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	/**
+	 * Set if a gzip compressed copy should be written next to every page.
+	 * @param gzip true, to write the compressed copies
+	 */
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	public ImageCache getImageCache() {
+		return imageCache;
+	}
+
+	/**
+	 * Sets the cache of the weather images linked by the pages.
+	 * @param imageCache the cache or null, to link the original images
+	 */
+	public void setImageCache(ImageCache imageCache) {
+		this.imageCache = imageCache;
+	}
+
+	public int getWritten() {
+		return written.get();
+	}
+
+	public int getUnchanged() {
+		return unchanged.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+}
@@ -0,0 +1,57 @@
+package smkra.weather.main;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Milliseconds taken by the phases of starting the weather service, printed if requested by the user to compare
+ * cold starts. Phases running in parallel are recorded each with its own duration, so the phases do not add up to
+ * the total.
+ */
+class StartupTiming {
+
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+	private final long start = System.nanoTime();
+
+	/**
+	 * Records the time from the start of the JVM until now, before the weather service started.
+	 */
+	StartupTiming() {
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		if (uptime >= 0)
+			phases.put("jvm", uptime);
+	}
+
+	/**
+	 * Records a phase ending now.
+	 * @param phase the name of the phase
+	 * @param startNanos the <code>System.nanoTime()</code> the phase started at
+	 */
+	synchronized void record(String phase, long startNanos) {
+		phases.put(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+	}
+
+	/**
+	 * Records a phase measured elsewhere, e.g. on another thread.
+	 * @param phase the name of the phase
+	 * @param millis the milliseconds taken
+	 */
+	synchronized void put(String phase, long millis) {
+		phases.put(phase, millis);
+	}
+
+	/**
+	 * Prints the phases in the order they were first recorded, followed by the time since the JVM started.
+	 * @param out the stream to print to
+	 */
+	synchronized void print(PrintStream out) {
+		out.println("Startup timing:");
+		for (Map.Entry<String, Long> phase : phases.entrySet())
+			out.println("\t" + phase.getKey() + "\t" + phase.getValue() + " ms");
+		long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + phases.getOrDefault("jvm", 0L);
+		out.println("\ttotal\t" + total + " ms");
+	}
+}
@@ -0,0 +1,359 @@
+package smkra.weather.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import smkra.weather.http.ImageCache;
+import smkra.weather.http.WeatherRequest;
+import smkra.weather.http.WeatherServiceException;
+import smkra.weather.metrics.WeatherMetrics;
+import smkra.weather.model.WeatherResponse;
+import smkra.weather.render.WeatherRenderer;
+import smkra.weather.xml.City;
+import smkra.weather.xml.CityID;
+
+/**
+ * Long running HTTP server answering weather requests from one warm {@link WeatherRequest}, so the
+ * city-ID-configuration and the connections to the weather API are reused by all lookups.
+ *
+ * The weather is requested with <code>GET /weather?city=name&amp;format=html|text&amp;detail=true</code>, the
+ * response is rendered as it would be printed by the console application. Requests are handled by a fixed number
+ * of threads. Responses are gzip compressed if the client accepts it. If the weather API is not available and an
+ * older response is sent instead, it is marked with the header <code>Warning: 110 - "Response is Stale"</code>.
+ *
+ * <code>GET /suggest?q=name&amp;limit=10</code> lists the cities matching an incomplete or misspelled name, one
+ * per line with ID, name and prefecture separated by tabs, e.g. to complete the input of a user. If the city of a
+ * weather request is unknown, the response also contains suggestions. Names of municipalities are resolved by the
+ * pinpoint locations of the responses received before, if the request instance has an index of them.
+ *
+ * If an {@link ImageCache} is set, html responses link the local copies of the weather images, which are served
+ * by <code>GET /images/name</code>. As the name of a copy is the hash of its content, the copies are sent with a
+ * long cache lifetime, so browsers request each image once.
+ *
+ * <code>GET /metrics</code> gives the {@link WeatherMetrics#GLOBAL metrics} of the process in the Prometheus text
+ * format.
+ */
+public class WeatherServer {
+
+	/**
+	 * Number of cities suggested if not requested otherwise
+	 */
+	private static final int SUGGESTIONS = 5;
+	/**
+	 * Maximum number of cities suggested for one request
+	 */
+	private static final int MAX_SUGGESTIONS = 50;
+	/**
+	 * Responses smaller than this number of bytes are not compressed, as the gzip header would outweigh the gain
+	 */
+	private static final int MIN_COMPRESSED_SIZE = 256;
+	/**
+	 * Path the local copies of the weather images are served from
+	 */
+	private static final String IMAGES = "/images/";
+
+	private final WeatherRequest weatherRequest;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private volatile ImageCache imageCache = null;
+
+	/**
+	 * Creates a new server. The server is not started before {@link #start()} is called.
+	 * @param weatherRequest the request instance shared by all handler threads
+	 * @param port the port to listen on, 0 to use any free port
+	 * @param threads the number of handler threads
+	 * @throws IOException if the port could not be bound
+	 */
+	public WeatherServer(WeatherRequest weatherRequest, int port, int threads) throws IOException {
+		this.weatherRequest = weatherRequest;
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		server.setExecutor(executor);
+		server.createContext("/weather", this::handleWeather);
+		server.createContext("/suggest", this::handleSuggest);
+		server.createContext("/metrics", WeatherServer::handleMetrics);
+		server.createContext(IMAGES, this::handleImage);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops the server, waiting at most one second for running requests to finish.
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	public ImageCache getImageCache() {
+		return imageCache;
+	}
+
+	/**
+	 * Sets the cache of the weather images linked by html responses.
+	 * @param imageCache the cache or null, to link the original images
+	 */
+	public void setImageCache(ImageCache imageCache) {
+		this.imageCache = imageCache;
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Handles a request for the weather of a city.
+	 * @param exchange the request and response
+	 * @throws IOException if the response could not be sent
+	 */
+	private void handleWeather(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, "Only GET is supported", false);
+				return;
+			}
+			Map<String, String> query;
+			try {
+				query = parseQuery(exchange.getRequestURI().getRawQuery());
+			} catch (IllegalArgumentException e) {
+				send(exchange, 400, "Query is malformed", false);
+				return;
+			}
+			String city = query.get("city");
+			boolean html = "html".equalsIgnoreCase(query.get("format"));
+			boolean detail = Boolean.parseBoolean(query.get("detail"));
+			if (city == null || city.isEmpty()) {
+				send(exchange, 400, "Parameter city is missing", false);
+				return;
+			}
+			CityID cities;
+			try {
+				cities = weatherRequest.getCityID();
+			} catch (WeatherServiceException e) {
+				send(exchange, 503, e.getMessage(), false);
+				return;
+			}
+			String cityID;
+			try {
+				cityID = weatherRequest.getCityIDFromName(city);
+			} catch (WeatherServiceException e) {
+				List<City> suggestions = cities.suggest(city, SUGGESTIONS);
+				String message = e.getMessage();
+				if (!suggestions.isEmpty())
+					message += " Did you mean: " + suggestions.stream().map(City::getTitle).collect(Collectors.joining(", ")) + "?";
+				send(exchange, 404, message, false);
+				return;
+			}
+			WeatherResponse response;
+			try {
+				response = weatherRequest.getWeatherFromID(cityID);
+			} catch (WeatherServiceException e) {
+				send(exchange, 502, e.getMessage(), false);
+				return;
+			}
+			ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+			ImageCache images = imageCache;
+			new WeatherRenderer(html, detail, images != null ? images.linking(IMAGES) : UnaryOperator.identity()).render(response, body);
+			if (response.isStale())
+				exchange.getResponseHeaders().set("Warning", "110 - \"Response is Stale\"");
+			send(exchange, 200, body.toByteArray(), html);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Handles a request for suggestions of cities.
+	 * @param exchange the request and response
+	 * @throws IOException if the response could not be sent
+	 */
+	private void handleSuggest(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, "Only GET is supported", false);
+				return;
+			}
+			Map<String, String> query;
+			try {
+				query = parseQuery(exchange.getRequestURI().getRawQuery());
+			} catch (IllegalArgumentException e) {
+				send(exchange, 400, "Query is malformed", false);
+				return;
+			}
+			String name = query.get("q");
+			if (name == null || name.isEmpty()) {
+				send(exchange, 400, "Parameter q is missing", false);
+				return;
+			}
+			int limit;
+			try {
+				limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : SUGGESTIONS;
+			} catch (NumberFormatException e) {
+				send(exchange, 400, "Parameter limit is not a number", false);
+				return;
+			}
+			CityID cities;
+			try {
+				cities = weatherRequest.getCityID();
+			} catch (WeatherServiceException e) {
+				send(exchange, 503, e.getMessage(), false);
+				return;
+			}
+			StringBuilder body = new StringBuilder();
+			for (City match : cities.suggest(name, Math.min(limit, MAX_SUGGESTIONS)))
+				body.append(match.getId()).append('\t').append(match.getTitle()).append('\t').append(match.getPref()).append('\n');
+			send(exchange, 200, body.toString(), false);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Handles a request for the local copy of a weather image.
+	 * @param exchange the request and response
+	 * @throws IOException if the response could not be sent
+	 */
+	private void handleImage(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, "Only GET is supported", false);
+				return;
+			}
+			ImageCache images = imageCache;
+			Path file = images != null ? images.findFile(exchange.getRequestURI().getPath().substring(IMAGES.length())) : null;
+			if (file == null) {
+				send(exchange, 404, "Image not found", false);
+				return;
+			}
+			byte[] body = Files.readAllBytes(file);
+			exchange.getResponseHeaders().set("Content-Type", ImageCache.getContentType(file.getFileName().toString()));
+			exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31536000, immutable");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Handles a request for the metrics in the Prometheus text format.
+	 * @param exchange the request and response
+	 * @throws IOException if the response could not be sent
+	 */
+	private static void handleMetrics(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, "Only GET is supported", false);
+				return;
+			}
+			byte[] body = WeatherMetrics.GLOBAL.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=UTF-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String body, boolean html) throws IOException {
+		send(exchange, status, body.getBytes(StandardCharsets.UTF_8), html);
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] bytes, boolean html) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", (html ? "text/html" : "text/plain") + "; charset=UTF-8");
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (bytes.length >= MIN_COMPRESSED_SIZE && acceptsGzip(acceptEncoding)) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+			try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+				out.write(bytes);
+			}
+			bytes = compressed.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Checks if the client accepts gzip compressed responses. A coding with the quality <code>q=0</code> is
+	 * refused, gzip is also accepted by the wildcard <code>*</code>, unless gzip is listed on its own.
+	 * @param acceptEncoding the value of the <code>Accept-Encoding</code> header, may be null
+	 * @return true, if the response may be compressed with gzip
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return false;
+		Boolean gzip = null;
+		boolean wildcard = false;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parameters = coding.split(";");
+			String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+			boolean accepted = true;
+			for (int i = 1; i < parameters.length; i++) {
+				String parameter = parameters[i].trim();
+				if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+					try {
+						accepted = Double.parseDouble(parameter.substring(2).trim()) > 0;
+					} catch (NumberFormatException e) {
+						accepted = false;
+					}
+				}
+			}
+			if (name.equals("gzip") || name.equals("x-gzip"))
+				gzip = accepted;
+			else if (name.equals("*"))
+				wildcard = accepted;
+		}
+		return gzip != null ? gzip : wildcard;
+	}
+
+	/**
+	 * Splits the query of a request URI into its parameters.
+	 * @param rawQuery the encoded query, may be null
+	 * @return the decoded parameters
+	 * @throws IllegalArgumentException if the query contains a malformed escape sequence, e.g. <code>%zz</code>
+	 */
+	static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<>();
+		if (rawQuery == null)
+			return params;
+		for (String pair : rawQuery.split("&")) {
+			int idx = pair.indexOf('=');
+			String key = idx < 0 ? pair : pair.substring(0, idx);
+			String value = idx < 0 ? "" : pair.substring(idx + 1);
+			params.putIfAbsent(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+		return params;
+	}
+}
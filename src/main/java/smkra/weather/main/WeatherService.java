@@ -1,20 +1,48 @@
 package smkra.weather.main;
 
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
-
-import org.xml.sax.SAXException;
+import javax.management.JMException;
 
+import smkra.weather.history.ForecastHistory;
+import smkra.weather.history.ForecastRecord;
+import smkra.weather.http.ImageCache;
+import smkra.weather.http.RateLimiter;
+import smkra.weather.http.RefreshScheduler;
+import smkra.weather.http.TransportConfig;
+import smkra.weather.http.WeatherCache;
 import smkra.weather.http.WeatherRequest;
+import smkra.weather.http.WeatherResponseDecoder;
 import smkra.weather.http.WeatherServiceException;
+import smkra.weather.metrics.Phase;
+import smkra.weather.metrics.WeatherMetrics;
 import smkra.weather.model.WeatherResponse;
+import smkra.weather.render.RenderSink;
+import smkra.weather.render.WeatherRenderer;
+import smkra.weather.xml.City;
+import smkra.weather.xml.CityID;
+import smkra.weather.xml.PinpointIndex;
 
 /**
  * Main class of the weather service. Takes the user's parameters and requests the weather from the configured weather REST API
@@ -46,6 +74,70 @@ public class WeatherService
 	 * Maximum number of seconds to wait, if a retry-after header is included in the response.
 	 */
 	private int maxSecondsBeforeRetry = -1;
+	/**
+	 * Name of the file listing the cities and files for the bulk mode, "-" for the standard input.
+	 */
+	private String bulkFilename = "";
+	/**
+	 * Number of worker threads used in bulk, site and server mode.
+	 */
+	private int threads = 4;
+	/**
+	 * Port to listen on in server mode, -1 if not running as server.
+	 */
+	private int port = -1;
+	/**
+	 * Beginning of a city name to suggest cities for, null if no suggestions are requested.
+	 */
+	private String suggestion = null;
+	/**
+	 * True, if the weather of all cities should be refreshed in the background in server mode.
+	 */
+	private boolean refresh = false;
+	/**
+	 * Directory to generate the pages of all cities in, empty if no site should be generated.
+	 */
+	private String siteDirectory = "";
+	/**
+	 * True, if a gzip compressed copy should be written next to every html file.
+	 */
+	private boolean gzip = false;
+	/**
+	 * Maximum number of requests per second sent to the weather API, -1 to use the default.
+	 */
+	private double rate = -1;
+	/**
+	 * Directory of the forecast history to append the received forecasts to, empty if no history is kept.
+	 */
+	private String historyDirectory = "";
+	/**
+	 * Number of recorded forecasts to print from the history, 0 to request the weather.
+	 */
+	private int last = 0;
+	/**
+	 * Format to export the forecasts of all cities in, null if nothing should be exported.
+	 */
+	private ForecastExporter.Format exportFormat = null;
+	/**
+	 * Durations of the startup phases to print, null if the user did not ask for them.
+	 */
+	private StartupTiming timing = null;
+	/**
+	 * Directory of the local copies of the weather images, empty if the pages should show the original images.
+	 */
+	private String imageDirectory = "";
+	/**
+	 * Cache of the weather images, opened on first use and shared by all files, pages and responses of this run.
+	 */
+	private ImageCache imageCache = null;
+	/**
+	 * File of the index of the pinpoint locations, empty if only names of cities should be looked up.
+	 */
+	private String pinpointFile = "";
+	/**
+	 * Maximum number of cities suggested for a misspelled or incomplete name.
+	 */
+	private static final int SUGGESTIONS = 5;
 	
 	protected static PrintStream outStream = System.out;
 	
@@ -61,8 +153,22 @@ public class WeatherService
     		outStream.println(getUsageString());
     	} else {
     		WeatherService weatherService = new WeatherService();
-    		if(weatherService.initializeParameter(args))
-    			weatherService.getAndPrintWeather();
+    		if(weatherService.initializeParameter(args)) {
+    			if(weatherService.suggestion != null)
+    				weatherService.printSuggestions();
+    			else if(weatherService.last > 0)
+    				weatherService.printHistory();
+    			else if(weatherService.port > -1)
+    				weatherService.serveWeather();
+    			else if(weatherService.exportFormat != null)
+    				weatherService.exportForecasts();
+    			else if(!weatherService.siteDirectory.equals(""))
+    				weatherService.generateSite();
+    			else if(weatherService.bulkFilename.equals(""))
+    				weatherService.getAndPrintWeather();
+    			else
+    				weatherService.getAndWriteWeatherInBulk();
+    		}
     	}
     }
     
@@ -71,7 +177,7 @@ public class WeatherService
      * @return the possible parameters
      */
     protected static String getUsageString(){
-    	return "WeatherService -c city -f filename [-h -d -r retrials -s secondsToWait -ms maxSecondsToWait]";
+    	return "WeatherService (-c city -f filename | -b listfile [-t threads] | -serve port [-t threads -refresh] | -site directory [-t threads] | -export ndjson|csv [-f filename -t threads] | -suggest name | -c city -last count -history directory) [-h -d -gz -r retrials -s secondsToWait -ms maxSecondsToWait -rate requestsPerSecond -history directory -images directory -pinpoints file -timing]";
     }
     
     /**
@@ -84,11 +190,31 @@ public class WeatherService
     	writer.write("\t-hc\t\tprint this description\n");
     	writer.write("\t-c\t\tcity to get weather for\n");
     	writer.write("\t-f\t\tfilename of the html file to write weather to\n");
+    	writer.write("\t-b\t\tfile listing one city and html filename per line, - to read the list from the console\n");
+    	writer.write("\t-serve\t\tport to answer GET /weather?city=name&format=html|text&detail=true on,\n"
+    			+ "\t\t\t\tGET /metrics gives the latency metrics in the Prometheus text format\n");
+    	writer.write("\t-site\t\tdirectory to write the html pages of all cities and an index page to, "
+    			+ "\n\t\t\t\tonly changed pages are written\n");
+    	writer.write("\t-export\t\texport the forecasts of all cities as ndjson or csv, one line per day, "
+    			+ "\n\t\t\t\tto the file given by -f or the console\n");
+    	writer.write("\t-refresh (optional)\tin server mode, refresh the weather of all cities shortly after "
+    			+ "\n\t\t\t\tnew forecasts are expected to be published\n");
+    	writer.write("\t-suggest\tprint the cities matching the beginning of a name, one per line\n");
+    	writer.write("\t-last\t\tprint the given number of forecasts recorded in the history for the city\n");
+    	writer.write("\t-t (optional)\tnumber of cities requested in parallel in bulk, site or server mode\n");
     	writer.write("\t-d (optional)\t\tif a detailed weather description shall be printed\n");
+    	writer.write("\t-gz (optional)\twrite a gzip compressed copy (.html.gz) next to every html file\n");
     	writer.write("\t-r (optional)\tnumber of retrials if service is not available\n");
     	writer.write("\t-s (optional)\tnumber of seconds to wait before retrying\n");
     	writer.write("\t-ms (optional)\tif service suggests how many seconds to wait before retrying, "
     			+ "\n\t\t\t\tthis number must not exceed maxSecondsToWait\n");
+    	writer.write("\t-rate (optional)\tmaximum number of requests per second sent to the weather service\n");
+    	writer.write("\t-history (optional)\tdirectory of the history every received forecast is appended to\n");
+    	writer.write("\t-images (optional)\tdirectory to keep local copies of the weather images in, html files "
+    			+ "\n\t\t\t\tembed them, pages of a site or server link to them\n");
+    	writer.write("\t-pinpoints (optional)\tfile of the index of the municipalities seen in the responses, "
+    			+ "\n\t\t\t\tto look up the names of municipalities like the names of cities\n");
+    	writer.write("\t-timing (optional)\tprint how long each phase of starting the weather service took\n");
     	return writer.toString();
     }
     
@@ -105,6 +231,12 @@ public class WeatherService
     		}
     		if(args[i].equalsIgnoreCase("-d")) {
     			detail = true;
+    		} else if(args[i].equalsIgnoreCase("-refresh")) {
+    			refresh = true;
+    		} else if(args[i].equalsIgnoreCase("-gz")) {
+    			gzip = true;
+    		} else if(args[i].equalsIgnoreCase("-timing")) {
+    			timing = new StartupTiming();
     		} else {
     			if(args.length < i+2){
     				outStream.println(getUsageString());
@@ -120,12 +252,46 @@ public class WeatherService
     				secondsBeforeRetry = Integer.parseInt(args[++i]);
     			} else if(args[i].equalsIgnoreCase("-ms")) {
     				maxSecondsBeforeRetry = Integer.parseInt(args[++i]);
+    			} else if(args[i].equalsIgnoreCase("-b")) {
+    				bulkFilename = args[++i];
+    			} else if(args[i].equalsIgnoreCase("-serve")) {
+    				port = Integer.parseInt(args[++i]);
+    			} else if(args[i].equalsIgnoreCase("-site")) {
+    				siteDirectory = args[++i];
+    			} else if(args[i].equalsIgnoreCase("-suggest")) {
+    				suggestion = args[++i];
+    			} else if(args[i].equalsIgnoreCase("-t")) {
+    				threads = Integer.parseInt(args[++i]);
+    			} else if(args[i].equalsIgnoreCase("-rate")) {
+    				rate = Double.parseDouble(args[++i]);
+    			} else if(args[i].equalsIgnoreCase("-history")) {
+    				historyDirectory = args[++i];
+    			} else if(args[i].equalsIgnoreCase("-images")) {
+    				imageDirectory = args[++i];
+    			} else if(args[i].equalsIgnoreCase("-pinpoints")) {
+    				pinpointFile = args[++i];
+    			} else if(args[i].equalsIgnoreCase("-export")) {
+    				try {
+    					exportFormat = ForecastExporter.Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+    				} catch (IllegalArgumentException e) {
+    					outStream.println(getUsageString());
+    					return false;
+    				}
+    			} else if(args[i].equalsIgnoreCase("-last")) {
+    				last = Integer.parseInt(args[++i]);
     			} else {
     				outStream.println(getUsageString());
         			return false;
     			}
     		}
     	}
+    	if(last > 0 && !city.equals("") && !historyDirectory.equals(""))
+    		return true;
+    	if(exportFormat != null && city.equals(""))
+    		return true;
+    	if((!bulkFilename.equals("") || port > -1 || !siteDirectory.equals("") || suggestion != null)
+    			&& city.equals("") && filename.equals(""))
+    		return true;
     	if(city.equals("") || filename.equals("")){
     		outStream.println(getUsageString());
     		return false;
@@ -138,59 +304,448 @@ public class WeatherService
      * to the console and the given file 
      */
     private void getAndPrintWeather(){
-    	WeatherRequest weather;
-		try {
-			weather = new WeatherRequest();
-		} catch (IOException | WeatherServiceException | SAXException | ParserConfigurationException e1) {
-			outStream.println("Could not load weather service configuration");
-			return;
-		}
-    	if(retryCount > -1)
-    		weather.setRetryCount(retryCount);
-    	if(maxSecondsBeforeRetry > -1)
-    		weather.setMaxSecondsBeforeRetry(maxSecondsBeforeRetry);
-    	if(secondsBeforeRetry > -1)
-    		weather.setSecondsBeforeRetry(secondsBeforeRetry);
+    	WeatherRequest weather = createWeatherRequest(new TransportConfig());
+    	if(weather == null)
+    		return;
     	try {
-	    	WeatherResponse response = weather.getWeatherDataFromName(city);
-	    	outStream.println(response.toString(false, detail));
-	    	writeToFile(filename, response);
-    	} catch (WeatherServiceException e){
-    		outStream.println(e.getMessage());
-    	} catch (FileNotFoundException e){
-    		outStream.println("Could not write to file");
-    	} catch (IOException e){
-    		outStream.println("Could not read weather information");
-    	} catch (XPathExpressionException e) {
-    		outStream.println("Could not load weather service configuration");
+    		CityID cities = getCityID(weather);
+    		String cityID;
+    		try {
+    			cityID = weather.getCityIDFromName(city);
+    		} catch (WeatherServiceException e) {
+    			outStream.println(e.getMessage());
+    			List<City> suggestions = cities.suggest(city, SUGGESTIONS);
+    			if(!suggestions.isEmpty())
+    				outStream.println("Did you mean: "+suggestions.stream().map(City::getTitle).collect(Collectors.joining(", "))+"?");
+    			return;
+    		}
+    		long start = System.nanoTime();
+	    	WeatherResponse response = weather.getWeatherFromID(cityID);
+	    	recordTiming("request", start);
+	    	start = System.nanoTime();
+	    	new WeatherRenderer(false, detail).render(response, (Appendable) outStream);
+	    	outStream.println();
+	    	writeToFile(filename, response, detail, gzip, getImageSource(weather));
+	    	recordTiming("output", start);
     	} catch (Exception e) {
-    		outStream.println("Unknown error occurred");
+    		outStream.println(getErrorMessage(e));
+    	} finally {
+    		closeWeatherRequest(weather);
+    		printTiming();
+    	}
+    }
+    
+    /**
+     * Prints the cities suggested for the given beginning of a city name, one per line, e.g. to complete
+     * the name in a shell.
+     * @see CityID#suggest(String, int)
+     */
+    private void printSuggestions(){
+    	try {
+    		for(City match : new CityID().suggest(suggestion, SUGGESTIONS))
+    			outStream.println(match.getTitle());
+    	} catch (IOException | WeatherServiceException e) {
+    		outStream.println("Could not load weather service configuration");
+    	}
+    }
+    
+    /**
+     * Prints the last forecasts recorded in the history for the city, without requesting the weather.
+     * @see ForecastHistory#getLast(String, int)
+     */
+    private void printHistory(){
+    	String cityID;
+    	try {
+    		cityID = new CityID().getCityID(city);
+    	} catch (IOException e) {
+    		outStream.println("Could not load weather service configuration");
+    		return;
+    	} catch (WeatherServiceException e) {
+    		cityID = findPinpoint(city);
+    		if(cityID == null) {
+    			outStream.println(e.getMessage());
+    			return;
+    		}
+    	}
+    	try (ForecastHistory history = new ForecastHistory(Paths.get(historyDirectory))) {
+    		List<ForecastRecord> records = history.getLast(cityID, last);
+    		if(records.isEmpty())
+    			outStream.println("No forecasts recorded for "+city);
+    		for(ForecastRecord record : records)
+    			outStream.println(record);
+    	} catch (IOException e) {
+    		outStream.println("Could not read history directory "+historyDirectory);
+    	}
+    }
+    
+    /**
+     * Requests the weather for all cities listed in the bulk file using one shared request instance and writes
+     * each result to its file.
+     * @see BulkRequest
+     */
+    private void getAndWriteWeatherInBulk(){
+    	TransportConfig config = new TransportConfig();
+    	config.setMaxPerRoute(Math.max(config.getMaxPerRoute(), threads));
+    	config.setMaxTotal(Math.max(config.getMaxTotal(), threads));
+    	config.setPrewarmConnections(threads);
+    	WeatherRequest weather = createWeatherRequest(config);
+    	if(weather == null)
+    		return;
+    	registerMetrics();
+    	InputStream in = null;
+    	try {
+    		in = bulkFilename.equals("-") ? System.in : new FileInputStream(bulkFilename);
+    		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    		BulkRequest bulkRequest = new BulkRequest(weather, threads, detail, outStream);
+    		bulkRequest.setGzip(gzip);
+    		bulkRequest.setImageSource(getImageSource(weather));
+    		bulkRequest.run(reader);
+    	} catch (IOException e) {
+    		outStream.println("Could not read city list");
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
     	} finally {
+    		if(in != null && in != System.in) {
+    			try {
+    				in.close();
+    			} catch (IOException e) {
+    				// nothing left to read
+    			}
+    		}
+    		closeWeatherRequest(weather);
+    	}
+    }
+    
+    /**
+     * Generates the html pages of all cities and the index page in the site directory, writing only changed pages.
+     * @see SiteGenerator
+     */
+    private void generateSite(){
+    	TransportConfig config = new TransportConfig();
+    	config.setMaxPerRoute(Math.max(config.getMaxPerRoute(), threads));
+    	config.setMaxTotal(Math.max(config.getMaxTotal(), threads));
+    	config.setPrewarmConnections(threads);
+    	WeatherRequest weather = createWeatherRequest(config);
+    	if(weather == null)
+    		return;
+    	registerMetrics();
+    	try {
+    		SiteGenerator generator = new SiteGenerator(weather, threads, detail, outStream);
+    		generator.setGzip(gzip);
+    		generator.setImageCache(openImageCache(weather));
+    		generator.generate(Paths.get(siteDirectory));
+    	} catch (WeatherServiceException e) {
+    		outStream.println(e.getMessage());
+    	} catch (IOException e) {
+    		outStream.println("Could not write to directory "+siteDirectory);
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	} finally {
+    		closeWeatherRequest(weather);
+    	}
+    }
+    
+    /**
+     * Exports the forecasts of all cities to the file given by the user or, if no file was given, to the console.
+     * When exporting to the console, failures and the summary are printed to the error stream.
+     * @see ForecastExporter
+     */
+    private void exportForecasts(){
+    	TransportConfig config = new TransportConfig();
+    	config.setMaxPerRoute(Math.max(config.getMaxPerRoute(), threads));
+    	config.setMaxTotal(Math.max(config.getMaxTotal(), threads));
+    	config.setPrewarmConnections(threads);
+    	WeatherRequest weather = createWeatherRequest(config);
+    	if(weather == null)
+    		return;
+    	// every city is requested once, caching or keeping stale copies would only hold the responses
+    	weather.setCache(null);
+    	weather.setStaleFallback(false);
+    	registerMetrics();
+    	boolean console = filename.equals("");
+    	PrintStream messages = console ? System.err : outStream;
+    	Writer out = null;
+    	try {
+    		out = new BufferedWriter(new OutputStreamWriter(console ? outStream : new FileOutputStream(filename), StandardCharsets.UTF_8));
+    		new ForecastExporter(weather, threads, exportFormat, messages).export(out);
+    	} catch (WeatherServiceException e) {
+    		messages.println(e.getMessage());
+    	} catch (FileNotFoundException e) {
+    		messages.println("Could not write to file");
+    	} catch (IOException e) {
+    		messages.println("Could not write export");
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	} finally {
+    		// the console is flushed, but left open
+    		if(out != null) {
+    			try {
+    				if(console)
+    					out.flush();
+    				else
+    					out.close();
+    			} catch (IOException e) {
+    				messages.println("Could not write export");
+    			}
+    		}
+    		closeWeatherRequest(weather);
+    	}
+    }
+    
+    /**
+     * Starts the server answering weather requests until the process is terminated. If requested, the weather of
+     * all cities is refreshed in the background, so the server answers from the cache.
+     * @see WeatherServer
+     * @see RefreshScheduler
+     */
+    private void serveWeather(){
+    	TransportConfig config = new TransportConfig();
+    	config.setMaxPerRoute(Math.max(config.getMaxPerRoute(), threads));
+    	config.setMaxTotal(Math.max(config.getMaxTotal(), threads));
+    	WeatherRequest weather = createWeatherRequest(config);
+    	if(weather == null)
+    		return;
+    	RefreshScheduler scheduler = null;
+    	if(refresh) {
+    		// responses are replaced by the scheduler, so they are kept until the next publication
+    		List<City> cities;
     		try {
-				weather.closeHttpClient();
-			} catch (IOException e) {
-				outStream.println("Http Client could not be closed");
-			}
+    			cities = getCityID(weather).getCities();
+    		} catch (WeatherServiceException e) {
+    			outStream.println(e.getMessage());
+    			closeWeatherRequest(weather);
+    			return;
+    		}
+    		weather.setCache(new WeatherCache(Math.max(256, cities.size()), TimeUnit.DAYS.toMillis(1)));
+    		scheduler = new RefreshScheduler(weather);
+    		scheduler.start(cities.stream().map(City::getId).collect(Collectors.toList()));
+    	}
+    	RefreshScheduler refreshScheduler = scheduler;
+    	try {
+    		long start = System.nanoTime();
+    		WeatherServer server = new WeatherServer(weather, port, threads);
+    		server.setImageCache(openImageCache(weather));
+    		server.start();
+    		recordTiming("server", start);
+    		registerMetrics();
+    		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+    			if(refreshScheduler != null)
+    				refreshScheduler.close();
+    			server.stop();
+    			closeWeatherRequest(weather);
+    		}));
+    		outStream.println("Serving weather on port "+server.getPort());
+    		printTiming();
+    	} catch (IOException | IllegalArgumentException e) {
+    		outStream.println("Could not start server on port "+port);
+    		if(refreshScheduler != null)
+    			refreshScheduler.close();
+    		closeWeatherRequest(weather);
+    	}
+    }
+    
+    /**
+     * Creates the request instance and applies the retry settings given by the user.
+     * @param config the settings of the HTTP transport
+     * @return the request instance or null, if the history could not be opened
+     */
+    private WeatherRequest createWeatherRequest(TransportConfig config){
+    	long start = System.nanoTime();
+    	WeatherRequest weather = new WeatherRequest(config);
+    	recordTiming("http client", start);
+    	try {
+    		if(retryCount > -1)
+    			weather.setRetryCount(retryCount);
+    		if(maxSecondsBeforeRetry > -1)
+    			weather.setMaxSecondsBeforeRetry(maxSecondsBeforeRetry);
+    		if(secondsBeforeRetry > -1)
+    			weather.setSecondsBeforeRetry(secondsBeforeRetry);
+    		if(rate > 0) {
+    			RateLimiter.GLOBAL.setRate(rate);
+    			RateLimiter.GLOBAL.setBurst((int) Math.ceil(rate));
+    		}
+    		if(!pinpointFile.equals("")) {
+    			try {
+    				weather.setPinpoints(new PinpointIndex(Paths.get(pinpointFile)));
+    			} catch (IOException e) {
+    				outStream.println("Could not read pinpoint locations, only names of cities are looked up");
+    			}
+    		}
+    		// pinpoint locations are only read to be added to the index
+    		if(port < 0)
+    			weather.setDecoder(new WeatherResponseDecoder(detail, weather.getPinpoints() != null, false));
+    		if(!historyDirectory.equals("")) {
+    			try {
+    				weather.setHistory(new ForecastHistory(Paths.get(historyDirectory)));
+    			} catch (IOException e) {
+    				outStream.println("Could not open history directory "+historyDirectory);
+    				closeWeatherRequest(weather);
+    				return null;
+    			}
+    		}
+    	} catch (RuntimeException e) {
+    		closeWeatherRequest(weather);
+    		throw e;
     	}
+    	return weather;
     }
     
     /**
-     * Writes the weather information contained in the response to the given file.
+     * Gives the city-ID-configuration of the request, which is loaded in the background, and records how long it
+     * took to load and how long it was waited for.
+     * @param weather the request instance
+     * @return the city-ID-configuration
+     * @throws WeatherServiceException if the configuration could not be loaded
+     */
+    private CityID getCityID(WeatherRequest weather) throws WeatherServiceException {
+    	long start = System.nanoTime();
+    	CityID cities = weather.getCityID();
+    	recordTiming("area configuration wait", start);
+    	if(timing != null)
+    		timing.put("area configuration", cities.getLoadMillis());
+    	return cities;
+    }
+    
+    /**
+     * Looks up the city of a pinpoint location in the index of the pinpoint locations seen before.
+     * @param name the name of the pinpoint location
+     * @return the ID of the city or null, if no index was given, the name is not indexed or the index could not
+     * be read
+     */
+    private String findPinpoint(String name){
+    	if(pinpointFile.equals(""))
+    		return null;
+    	try {
+    		return new PinpointIndex(Paths.get(pinpointFile)).getCityID(name);
+    	} catch (IOException e) {
+    		return null;
+    	}
+    }
+    
+    /**
+     * Gives the cache of the weather images in the directory given by the user, opening it on the first call.
+     * @param weather the request instance, whose transport downloads the images
+     * @return the cache or null, if no directory was given or the cache could not be opened
+     */
+    private ImageCache openImageCache(WeatherRequest weather){
+    	if(imageDirectory.equals(""))
+    		return null;
+    	if(imageCache == null) {
+    		try {
+    			imageCache = new ImageCache(Paths.get(imageDirectory), weather.getTransport());
+    		} catch (IOException e) {
+    			outStream.println("Could not open image directory "+imageDirectory+", the original images are shown");
+    			// not tried again for the further files of this run
+    			imageDirectory = "";
+    		}
+    	}
+    	return imageCache;
+    }
+    
+    /**
+     * Gives the sources of the weather images for html files, which embed the local copies as data URIs, so a
+     * file can be viewed without requesting the images from the weather API.
+     * @param weather the request instance, whose transport downloads the images
+     * @return the function replacing the URL of an image
+     */
+    private UnaryOperator<String> getImageSource(WeatherRequest weather){
+    	ImageCache images = openImageCache(weather);
+    	return images != null ? images.inlining() : UnaryOperator.identity();
+    }
+    
+    private void recordTiming(String phase, long start){
+    	if(timing != null)
+    		timing.record(phase, start);
+    }
+    
+    private void printTiming(){
+    	if(timing != null)
+    		timing.print(outStream);
+    }
+    
+    /**
+     * Publishes the metrics of this process as MBean, so they can be watched while requesting the weather.
+     * @see WeatherMetrics
+     */
+    private static void registerMetrics(){
+    	try {
+    		WeatherMetrics.GLOBAL.register();
+    	} catch (JMException e) {
+    		outStream.println("Metrics could not be published");
+    	}
+    }
+    
+    private static void closeWeatherRequest(WeatherRequest weather){
+    	try {
+			weather.closeHttpClient();
+		} catch (IOException e) {
+			outStream.println("Http Client could not be closed");
+		}
+    	if(weather.getHistory() != null) {
+    		try {
+    			weather.getHistory().close();
+    		} catch (IOException e) {
+    			outStream.println("History could not be closed");
+    		}
+    	}
+    }
+    
+    /**
+     * Gives the message shown to the user for an error that occurred while requesting or writing the weather.
+     * @param e the error that occurred
+     * @return the message for the user
+     */
+    static String getErrorMessage(Exception e){
+    	if(e instanceof WeatherServiceException)
+    		return e.getMessage();
+    	if(e instanceof FileNotFoundException)
+    		return "Could not write to file";
+    	if(e instanceof IOException)
+    		return "Could not read weather information";
+    	return "Unknown error occurred";
+    }
+    
+    /**
+     * Writes the weather information contained in the response UTF-8 encoded to the given file. If requested,
+     * a gzip compressed copy is written to a file of the same name with the extension <code>.gz</code>, both
+     * files are written in the same pass.
      * @param fileName the name of the file, the weather information should be written to
      * @param response the response containing the weather information
+     * @param detail if the weather description should be written
+     * @param gzip if a compressed copy should be written
+     * @param imageSource gives the source of a weather image by its URL
      * @throws IOException if writing to the file fails 
      */
-    private void writeToFile(String fileName, WeatherResponse response) throws IOException {
+    static void writeToFile(String fileName, WeatherResponse response, boolean detail, boolean gzip, UnaryOperator<String> imageSource) throws IOException {
     	if(!fileName.endsWith(".html"))
     		fileName += ".html";
-    	File file = new File(fileName);
-    	PrintWriter writer = new PrintWriter(file);
-    	try{
-    		writer.write(response.toString(true, detail));
-    		writer.flush();
-    	} finally {
-    		writer.close();
+    	long start = System.nanoTime();
+    	if(gzip) {
+    		try (OutputStream out = new FileOutputStream(fileName);
+    				OutputStream compressedFile = new FileOutputStream(fileName+".gz");
+    				OutputStream compressed = gzip(compressedFile)) {
+    			new WeatherRenderer(true, detail, imageSource).render(response, RenderSink.utf8(out), RenderSink.utf8(compressed));
+    		}
+    	} else {
+    		try (OutputStream out = new FileOutputStream(fileName)) {
+    			new WeatherRenderer(true, detail, imageSource).render(response, out);
+    		}
     	}
-    	
+    	WeatherMetrics.GLOBAL.record(Phase.FILE_WRITE, start);
+    }
+    
+    /**
+     * Creates a stream compressing with the best compression, as the compressed files are written once but
+     * served many times.
+     * @param out the stream to write the compressed data to
+     * @return the compressing stream, closing it closes <code>out</code>
+     * @throws IOException if the gzip header could not be written
+     */
+    static OutputStream gzip(OutputStream out) throws IOException {
+    	return new GZIPOutputStream(out, 8192) {
+    		{
+    			def.setLevel(Deflater.BEST_COMPRESSION);
+    		}
+    	};
     }
 }
@@ -0,0 +1,65 @@
+package smkra.weather.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable summary of a {@link LatencyHistogram}, as published by the {@link WeatherMetricsMXBean}.
+ */
+public class LatencySummary {
+
+	private final long count;
+	private final double p50Millis;
+	private final double p95Millis;
+	private final double p99Millis;
+	private final double maxMillis;
+
+	@ConstructorProperties({ "count", "p50Millis", "p95Millis", "p99Millis", "maxMillis" })
+	public LatencySummary(long count, double p50Millis, double p95Millis, double p99Millis, double maxMillis) {
+		this.count = count;
+		this.p50Millis = p50Millis;
+		this.p95Millis = p95Millis;
+		this.p99Millis = p99Millis;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * Creates the summary of the latencies currently recorded by a histogram.
+	 * @param histogram the histogram
+	 * @return the summary
+	 */
+	public static LatencySummary of(LatencyHistogram histogram) {
+		return new LatencySummary(histogram.getCount(), toMillis(histogram.getPercentile(0.5)),
+				toMillis(histogram.getPercentile(0.95)), toMillis(histogram.getPercentile(0.99)),
+				toMillis(histogram.getMax()));
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public double getP95Millis() {
+		return p95Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms", count, p50Millis, p95Millis,
+				p99Millis, maxMillis);
+	}
+}
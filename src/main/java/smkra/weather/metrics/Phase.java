@@ -0,0 +1,48 @@
+package smkra.weather.metrics;
+
+/**
+ * The phases of getting and writing weather information, whose latency is recorded by {@link WeatherMetrics}.
+ */
+public enum Phase {
+	/**
+	 * Loading the city-ID-configuration, from the snapshot or the xml-file
+	 */
+	AREA_LOAD("area_load"),
+	/**
+	 * Resolving the host name of the weather API
+	 */
+	DNS("dns"),
+	/**
+	 * Establishing a new connection to the weather API
+	 */
+	CONNECT("connect"),
+	/**
+	 * Sending the request until the response headers are received, excluding DNS and connect
+	 */
+	UPSTREAM("upstream"),
+	/**
+	 * Decoding the content of the response
+	 */
+	PARSE("parse"),
+	/**
+	 * Rendering the weather information as text or html, including writing to the target
+	 */
+	RENDER("render"),
+	/**
+	 * Writing the html file, including rendering
+	 */
+	FILE_WRITE("file_write");
+
+	private final String label;
+
+	Phase(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * @return the name of the phase as used in metric labels
+	 */
+	public String getLabel() {
+		return label;
+	}
+}
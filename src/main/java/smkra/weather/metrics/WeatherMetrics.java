@@ -0,0 +1,240 @@
+package smkra.weather.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms per {@link Phase} and counters of retries, cache hits and requests rejected by the circuit
+ * breaker of the weather service. All
+ * recording methods are lock-free and cheap enough to be called on every request.
+ *
+ * The metrics of the running process are collected in {@link #GLOBAL}. They can be published as MBean with
+ * {@link #register()} and written in the Prometheus text format with {@link #writePrometheus(Appendable)}.
+ */
+public class WeatherMetrics implements WeatherMetricsMXBean {
+
+	/**
+	 * Metrics recorded by all requests of this process
+	 */
+	public static final WeatherMetrics GLOBAL = new WeatherMetrics();
+
+	/**
+	 * Name of the MBean registered by {@link #register()}
+	 */
+	public static final String OBJECT_NAME = "smkra.weather:type=WeatherMetrics";
+
+	/**
+	 * Label used for retries without a response
+	 */
+	private static final String NO_STATUS = "none";
+
+	private final Map<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+	private final ConcurrentHashMap<String, LongAdder> retries = new ConcurrentHashMap<>();
+	private final LongAdder retryAfterWaits = new LongAdder();
+	private final LongAdder retryAfterSeconds = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private final LongAdder staleResponses = new LongAdder();
+	private final LongAdder rejectedRequests = new LongAdder();
+
+	public WeatherMetrics() {
+		for (Phase phase : Phase.values())
+			latencies.put(phase, new LatencyHistogram());
+	}
+
+	/**
+	 * Records the latency of a phase that started at the given time.
+	 * @param phase the phase
+	 * @param startNanos the start of the phase as given by <code>System.nanoTime()</code>
+	 */
+	public void record(Phase phase, long startNanos) {
+		latencies.get(phase).record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Records a retried request.
+	 * @param status the status code of the failed attempt, 0 if no response was received
+	 */
+	public void recordRetry(int status) {
+		retries.computeIfAbsent(status > 0 ? String.valueOf(status) : NO_STATUS, s -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Records a retry delayed as suggested by a "retry-after" header.
+	 * @param seconds the seconds waited
+	 */
+	public void recordRetryAfter(int seconds) {
+		retryAfterWaits.increment();
+		retryAfterSeconds.add(seconds);
+	}
+
+	/**
+	 * Records a lookup in the cache of responses.
+	 * @param hit true, if the response was found in the cache
+	 */
+	public void recordCacheLookup(boolean hit) {
+		if (hit)
+			cacheHits.increment();
+		else
+			cacheMisses.increment();
+	}
+
+	/**
+	 * Records a request rejected by the circuit breaker.
+	 * @param stale true, if the last good response was returned instead, false if the request failed
+	 */
+	public void recordRejection(boolean stale) {
+		if (stale)
+			staleResponses.increment();
+		else
+			rejectedRequests.increment();
+	}
+
+	/**
+	 * Gives the histogram of a phase.
+	 * @param phase the phase
+	 * @return the histogram
+	 */
+	public LatencyHistogram getHistogram(Phase phase) {
+		return latencies.get(phase);
+	}
+
+	@Override
+	public Map<String, LatencySummary> getLatencies() {
+		Map<String, LatencySummary> summaries = new TreeMap<>();
+		for (Map.Entry<Phase, LatencyHistogram> entry : latencies.entrySet())
+			summaries.put(entry.getKey().getLabel(), LatencySummary.of(entry.getValue()));
+		return summaries;
+	}
+
+	@Override
+	public Map<String, Long> getRetriesByStatus() {
+		Map<String, Long> counts = new TreeMap<>();
+		retries.forEach((status, count) -> counts.put(status, count.sum()));
+		return counts;
+	}
+
+	@Override
+	public long getRetryAfterWaits() {
+		return retryAfterWaits.sum();
+	}
+
+	@Override
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds.sum();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	@Override
+	public long getStaleResponses() {
+		return staleResponses.sum();
+	}
+
+	@Override
+	public long getRejectedRequests() {
+		return rejectedRequests.sum();
+	}
+
+	@Override
+	public String getPrometheusText() {
+		StringBuilder builder = new StringBuilder(4096);
+		try {
+			writePrometheus(builder);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text exposition format (version 0.0.4). Latencies are written as
+	 * summaries in seconds with the quantiles 0.5, 0.95 and 0.99, their maximum as separate gauge.
+	 * @param out the target
+	 * @throws IOException if writing to the target failed
+	 */
+	public void writePrometheus(Appendable out) throws IOException {
+		out.append("# HELP weather_phase_seconds Latency of the phases of getting and writing weather information.\n");
+		out.append("# TYPE weather_phase_seconds summary\n");
+		for (Map.Entry<Phase, LatencyHistogram> entry : latencies.entrySet()) {
+			String phase = entry.getKey().getLabel();
+			LatencyHistogram histogram = entry.getValue();
+			writeSample(out, "weather_phase_seconds{phase=\"" + phase + "\",quantile=\"0.5\"}", seconds(histogram.getPercentile(0.5)));
+			writeSample(out, "weather_phase_seconds{phase=\"" + phase + "\",quantile=\"0.95\"}", seconds(histogram.getPercentile(0.95)));
+			writeSample(out, "weather_phase_seconds{phase=\"" + phase + "\",quantile=\"0.99\"}", seconds(histogram.getPercentile(0.99)));
+			writeSample(out, "weather_phase_seconds_sum{phase=\"" + phase + "\"}", seconds(histogram.getSum()));
+			writeSample(out, "weather_phase_seconds_count{phase=\"" + phase + "\"}", String.valueOf(histogram.getCount()));
+		}
+		out.append("# HELP weather_phase_max_seconds Highest latency of the phases of getting and writing weather information.\n");
+		out.append("# TYPE weather_phase_max_seconds gauge\n");
+		for (Map.Entry<Phase, LatencyHistogram> entry : latencies.entrySet())
+			writeSample(out, "weather_phase_max_seconds{phase=\"" + entry.getKey().getLabel() + "\"}", seconds(entry.getValue().getMax()));
+
+		out.append("# HELP weather_retries_total Retried requests to the weather API by status code of the failed attempt.\n");
+		out.append("# TYPE weather_retries_total counter\n");
+		for (Map.Entry<String, Long> entry : getRetriesByStatus().entrySet())
+			writeSample(out, "weather_retries_total{status=\"" + entry.getKey() + "\"}", String.valueOf(entry.getValue()));
+
+		out.append("# HELP weather_retry_after_waits_total Retries delayed as suggested by a retry-after header.\n");
+		out.append("# TYPE weather_retry_after_waits_total counter\n");
+		writeSample(out, "weather_retry_after_waits_total", String.valueOf(getRetryAfterWaits()));
+		out.append("# HELP weather_retry_after_seconds_total Seconds waited as suggested by retry-after headers.\n");
+		out.append("# TYPE weather_retry_after_seconds_total counter\n");
+		writeSample(out, "weather_retry_after_seconds_total", String.valueOf(getRetryAfterSeconds()));
+
+		out.append("# HELP weather_cache_hits_total Requests answered from the cache.\n");
+		out.append("# TYPE weather_cache_hits_total counter\n");
+		writeSample(out, "weather_cache_hits_total", String.valueOf(getCacheHits()));
+		out.append("# HELP weather_cache_misses_total Requests not found in the cache.\n");
+		out.append("# TYPE weather_cache_misses_total counter\n");
+		writeSample(out, "weather_cache_misses_total", String.valueOf(getCacheMisses()));
+
+		out.append("# HELP weather_stale_responses_total Requests answered with the last good response while the circuit breaker was open.\n");
+		out.append("# TYPE weather_stale_responses_total counter\n");
+		writeSample(out, "weather_stale_responses_total", String.valueOf(getStaleResponses()));
+		out.append("# HELP weather_rejected_requests_total Requests failed by the open circuit breaker without a response to fall back to.\n");
+		out.append("# TYPE weather_rejected_requests_total counter\n");
+		writeSample(out, "weather_rejected_requests_total", String.valueOf(getRejectedRequests()));
+	}
+
+	private static void writeSample(Appendable out, String name, String value) throws IOException {
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static String seconds(long nanos) {
+		return String.valueOf(nanos / 1_000_000_000.0);
+	}
+
+	/**
+	 * Registers these metrics as MBean named {@link #OBJECT_NAME} at the platform MBean server, unless it is
+	 * already registered.
+	 * @throws JMException if the MBean could not be registered
+	 */
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// registered by a previous run in this process
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package smkra.weather.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link WeatherMetrics}, registered as
+ * <code>smkra.weather:type=WeatherMetrics</code>.
+ */
+public interface WeatherMetricsMXBean {
+
+	/**
+	 * @return the latencies recorded per phase, by the label of the phase
+	 */
+	Map<String, LatencySummary> getLatencies();
+
+	/**
+	 * @return the number of retried requests, by the status code of the failed attempt or "none" if no
+	 * response was received
+	 */
+	Map<String, Long> getRetriesByStatus();
+
+	/**
+	 * @return the number of retries delayed as suggested by a "retry-after" header
+	 */
+	long getRetryAfterWaits();
+
+	/**
+	 * @return the total number of seconds waited as suggested by "retry-after" headers
+	 */
+	long getRetryAfterSeconds();
+
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	long getCacheHits();
+
+	/**
+	 * @return the number of requests not found in the cache
+	 */
+	long getCacheMisses();
+
+	/**
+	 * @return the number of requests answered with the last good response while the circuit breaker was open
+	 */
+	long getStaleResponses();
+
+	/**
+	 * @return the number of requests failed by the open circuit breaker without a response to fall back to
+	 */
+	long getRejectedRequests();
+
+	/**
+	 * @return all metrics in the Prometheus text format
+	 */
+	String getPrometheusText();
+}
@@ -0,0 +1,6 @@
+/**
+ * This package provides the latency histograms and counters recorded while requesting and writing weather
+ * information, published as MBean and in the Prometheus text format.
+ */
+
+package smkra.weather.metrics;
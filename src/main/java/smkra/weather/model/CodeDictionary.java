@@ -0,0 +1,117 @@
+package smkra.weather.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the strings repeating across the responses of the weather API, like telops, icon URLs, date labels
+ * or the names and links of the cities. Every string is kept once and referenced by a 16 bit code, so a
+ * {@link CompactWeather} stores two bytes instead of a String per value.
+ *
+ * Codes are never removed, so only strings from a bounded set must be added. Code 0 stands for <code>null</code>.
+ * New strings get the code following the highest one contained. Strings stored together with their codes can be
+ * added again with {@link #put(short, String)}, so the codes do not depend on the order the strings are read in.
+ * The dictionary is safe to be used by several threads, looking up a code or string does not lock.
+ */
+public final class CodeDictionary {
+
+	/**
+	 * Dictionary shared by all compact responses of this process
+	 */
+	public static final CodeDictionary GLOBAL = new CodeDictionary();
+
+	/**
+	 * Maximum number of strings, so every code fits in a <code>short</code>
+	 */
+	static final int CAPACITY = 0xFFFF;
+
+	private final ConcurrentHashMap<String, Short> codes = new ConcurrentHashMap<>();
+	/**
+	 * Strings by code, replaced by a larger copy when full
+	 */
+	private volatile String[] values = new String[64];
+	/**
+	 * Code of the next string added
+	 */
+	private int next = 1;
+	private int size;
+
+	/**
+	 * Gives the code of a string, adding the string if it is not contained yet.
+	 * @param value the string, may be null
+	 * @return the code of the string, 0 for null
+	 * @throws IllegalStateException if the dictionary is full
+	 */
+	public short codeOf(String value) {
+		if (value == null)
+			return 0;
+		Short code = codes.get(value);
+		return code != null ? code : add(value);
+	}
+
+	private synchronized short add(String value) {
+		Short code = codes.get(value);
+		if (code != null)
+			return code;
+		if (next > CAPACITY)
+			throw new IllegalStateException("Dictionary is full");
+		code = (short) next;
+		store(next, value);
+		return code;
+	}
+
+	/**
+	 * Adds a string with the given code, e.g. a string stored together with its code before.
+	 * @param code the code of the string, not 0
+	 * @param value the string
+	 * @throws IllegalArgumentException if the code is 0, the string is null or either is already contained
+	 */
+	public synchronized void put(short code, String value) {
+		int index = code & 0xFFFF;
+		if (index == 0 || value == null)
+			throw new IllegalArgumentException("Code 0 is reserved for null");
+		if (codes.containsKey(value))
+			throw new IllegalArgumentException("Duplicate string " + value);
+		if (index < values.length && values[index] != null)
+			throw new IllegalArgumentException("Duplicate code " + index);
+		store(index, value);
+	}
+
+	private void store(int index, String value) {
+		String[] current = values;
+		if (index >= current.length) {
+			int length = current.length;
+			while (length <= index)
+				length *= 2;
+			current = Arrays.copyOf(current, Math.min(CAPACITY + 1, length));
+		}
+		current[index] = value;
+		// publish the string before its code, so a reader getting the code also finds the string
+		values = current;
+		codes.put(value, (short) index);
+		next = Math.max(next, index + 1);
+		size++;
+	}
+
+	/**
+	 * Gives the string of a code.
+	 * @param code the code as returned by {@link #codeOf(String)}
+	 * @return the string, null for code 0
+	 * @throws IllegalArgumentException if the code is unknown
+	 */
+	public String valueOf(short code) {
+		int index = code & 0xFFFF;
+		String[] current = values;
+		String value = index < current.length ? current[index] : null;
+		if (value == null && index != 0)
+			throw new IllegalArgumentException("Unknown code " + index);
+		return value;
+	}
+
+	/**
+	 * @return the number of strings contained
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,411 @@
+package smkra.weather.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Compact, immutable form of a {@link WeatherResponse}, meant for keeping the weather of many cities in memory.
+ *
+ * Strings repeating across responses, e.g. telops, icon URLs, dates and the names and links of the city, are
+ * stored as 16 bit codes of a {@link CodeDictionary}, by default the {@link CodeDictionary#GLOBAL global one}.
+ * Temperatures are stored in tenths of a degree Celsius, the Fahrenheit values are computed from them. The times of
+ * publication are stored as epoch milliseconds. The forecasts, the pinpoint locations and the copyright are kept in
+ * one <code>short</code> array each instead of one object per value. The HTTP response is not kept.
+ *
+ * Converting a response with {@link #of(WeatherResponse)} and back with {@link #toWeatherResponse()} keeps all
+ * values, except
+ * <ul>
+ * <li>the HTTP response and the stale flag,</li>
+ * <li>Celsius values which are not numbers and Fahrenheit values differing from the converted Celsius value,</li>
+ * <li>times of publication not in the format of the weather API, e.g. <code>2018-03-10T11:00:00+0900</code>.</li>
+ * </ul>
+ * Instances are safe to be shared between threads.
+ */
+public final class CompactWeather {
+
+	/**
+	 * Value of a missing temperature
+	 */
+	public static final short NO_TEMPERATURE = Short.MIN_VALUE;
+	/**
+	 * Value of a missing time of publication
+	 */
+	public static final long NO_TIME = Long.MIN_VALUE;
+
+	static final DateTimeFormatter PUBLIC_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ");
+
+	/*
+	 * Layout of a forecast in the forecasts array
+	 */
+	private static final int DATE = 0;
+	private static final int DATE_LABEL = 1;
+	private static final int TELOP = 2;
+	private static final int MIN = 3;
+	private static final int MAX = 4;
+	private static final int IMAGE_URL = 5;
+	private static final int IMAGE_TITLE = 6;
+	private static final int IMAGE_LINK = 7;
+	private static final int IMAGE_WIDTH = 8;
+	private static final int IMAGE_HEIGHT = 9;
+	private static final int FORECAST_SIZE = 10;
+	/**
+	 * Width of a missing image, distinguishing it from an image without values
+	 */
+	private static final short NO_IMAGE = -1;
+
+	/*
+	 * Layout of the copyright array, followed by the name and link of each provider
+	 */
+	private static final int COPYRIGHT_TITLE = 0;
+	private static final int COPYRIGHT_LINK = 1;
+	private static final int COPYRIGHT_IMAGE = 2;
+	private static final int COPYRIGHT_SIZE = 7;
+
+	private static final short[] EMPTY = new short[0];
+	private static final BigDecimal NINE_FIFTHS = new BigDecimal("1.8");
+	private static final BigDecimal THIRTY_TWO = new BigDecimal(32);
+
+	private final CodeDictionary dictionary;
+	private final short title;
+	private final short link;
+	private final short area;
+	private final short pref;
+	private final short city;
+	private final long publicTime;
+	private final short publicTimeOffset;
+	private final String description;
+	private final long descriptionTime;
+	private final short descriptionTimeOffset;
+	private final short[] forecasts;
+	/**
+	 * Name and link of each pinpoint location, null if the response did not contain them
+	 */
+	private final short[] pinpointLocations;
+	/**
+	 * Copyright in the layout given above, null if the response did not contain it
+	 */
+	private final short[] copyright;
+
+	private CompactWeather(WeatherResponse response, CodeDictionary dictionary) {
+		this.dictionary = dictionary;
+		title = dictionary.codeOf(response.getTitle());
+		link = dictionary.codeOf(response.getLink());
+		Location location = response.getLocation();
+		area = location != null ? dictionary.codeOf(location.getArea()) : 0;
+		pref = location != null ? dictionary.codeOf(location.getPref()) : 0;
+		city = location != null ? dictionary.codeOf(location.getCity()) : 0;
+		OffsetDateTime published = parseTime(response.getPublicTime());
+		publicTime = published != null ? published.toInstant().toEpochMilli() : NO_TIME;
+		publicTimeOffset = published != null ? (short) (published.getOffset().getTotalSeconds() / 60) : 0;
+		Description text = response.getDescription();
+		description = text != null ? text.getText() : null;
+		OffsetDateTime described = text != null ? parseTime(text.getPublicTime()) : null;
+		descriptionTime = described != null ? described.toInstant().toEpochMilli() : NO_TIME;
+		descriptionTimeOffset = described != null ? (short) (described.getOffset().getTotalSeconds() / 60) : 0;
+		forecasts = encodeForecasts(response.getForecasts(), dictionary);
+		pinpointLocations = response.getPinpointLocations() != null ? encodeLinks(response.getPinpointLocations(), 0, dictionary) : null;
+		copyright = response.getCopyright() != null ? encodeCopyright(response.getCopyright(), dictionary) : null;
+	}
+
+	/**
+	 * Converts a response, adding its repeating strings to the {@link CodeDictionary#GLOBAL global dictionary}.
+	 * @param response the response
+	 * @return the compact form of the response
+	 * @throws IllegalStateException if the dictionary is full
+	 */
+	public static CompactWeather of(WeatherResponse response) {
+		return new CompactWeather(response, CodeDictionary.GLOBAL);
+	}
+
+	/**
+	 * Converts a response, adding its repeating strings to the given dictionary, e.g. to keep them apart from the
+	 * strings of the {@link CodeDictionary#GLOBAL global dictionary}, which are kept as long as the process runs.
+	 * @param response the response
+	 * @param dictionary the dictionary to add the strings to
+	 * @return the compact form of the response
+	 * @throws IllegalStateException if the dictionary is full
+	 */
+	public static CompactWeather of(WeatherResponse response, CodeDictionary dictionary) {
+		return new CompactWeather(response, dictionary);
+	}
+
+	/**
+	 * Converts this compact form back to a response, without HTTP response.
+	 * @return a new response
+	 */
+	public WeatherResponse toWeatherResponse() {
+		WeatherResponse response = new WeatherResponse();
+		response.setTitle(dictionary.valueOf(title));
+		response.setLink(dictionary.valueOf(link));
+		if (area != 0 || pref != 0 || city != 0) {
+			Location location = new Location();
+			location.setArea(dictionary.valueOf(area));
+			location.setPref(dictionary.valueOf(pref));
+			location.setCity(dictionary.valueOf(city));
+			response.setLocation(location);
+		}
+		response.setPublicTime(formatTime(publicTime, publicTimeOffset));
+		if (description != null || descriptionTime != NO_TIME) {
+			Description text = new Description();
+			text.setText(description);
+			text.setPublicTime(formatTime(descriptionTime, descriptionTimeOffset));
+			response.setDescription(text);
+		}
+		Forecast[] decoded = new Forecast[getForecastCount()];
+		for (int i = 0; i < decoded.length; i++)
+			decoded[i] = toForecast(i, dictionary);
+		response.setForecasts(decoded);
+		if (pinpointLocations != null)
+			response.setPinpointLocations(decodeLinks(pinpointLocations, 0, dictionary));
+		if (copyright != null)
+			response.setCopyright(decodeCopyright(dictionary));
+		return response;
+	}
+
+	private Forecast toForecast(int index, CodeDictionary dictionary) {
+		int offset = index * FORECAST_SIZE;
+		Forecast forecast = new Forecast();
+		forecast.setDate(dictionary.valueOf(forecasts[offset + DATE]));
+		forecast.setDateLabel(dictionary.valueOf(forecasts[offset + DATE_LABEL]));
+		forecast.setTelop(dictionary.valueOf(forecasts[offset + TELOP]));
+		Temperature temperature = new Temperature();
+		temperature.setMin(toDegree(forecasts[offset + MIN]));
+		temperature.setMax(toDegree(forecasts[offset + MAX]));
+		forecast.setTemperature(temperature);
+		if (forecasts[offset + IMAGE_WIDTH] != NO_IMAGE) {
+			Image image = new Image();
+			image.setUrl(dictionary.valueOf(forecasts[offset + IMAGE_URL]));
+			image.setTitle(dictionary.valueOf(forecasts[offset + IMAGE_TITLE]));
+			image.setLink(dictionary.valueOf(forecasts[offset + IMAGE_LINK]));
+			image.setWidth(forecasts[offset + IMAGE_WIDTH]);
+			image.setHeight(forecasts[offset + IMAGE_HEIGHT]);
+			forecast.setImage(image);
+		}
+		return forecast;
+	}
+
+	private static short[] encodeForecasts(Forecast[] forecasts, CodeDictionary dictionary) {
+		if (forecasts == null || forecasts.length == 0)
+			return EMPTY;
+		short[] encoded = new short[forecasts.length * FORECAST_SIZE];
+		for (int i = 0; i < forecasts.length; i++) {
+			Forecast forecast = forecasts[i];
+			int offset = i * FORECAST_SIZE;
+			encoded[offset + DATE] = dictionary.codeOf(forecast.getDate());
+			encoded[offset + DATE_LABEL] = dictionary.codeOf(forecast.getDateLabel());
+			encoded[offset + TELOP] = dictionary.codeOf(forecast.getTelop());
+			Temperature temperature = forecast.getTemperature();
+			encoded[offset + MIN] = temperature != null ? toTenths(temperature.getMin()) : NO_TEMPERATURE;
+			encoded[offset + MAX] = temperature != null ? toTenths(temperature.getMax()) : NO_TEMPERATURE;
+			Image image = forecast.getImage();
+			if (image != null) {
+				encoded[offset + IMAGE_URL] = dictionary.codeOf(image.getUrl());
+				encoded[offset + IMAGE_TITLE] = dictionary.codeOf(image.getTitle());
+				encoded[offset + IMAGE_LINK] = dictionary.codeOf(image.getLink());
+				encoded[offset + IMAGE_WIDTH] = toShort(image.getWidth());
+				encoded[offset + IMAGE_HEIGHT] = toShort(image.getHeight());
+			} else {
+				encoded[offset + IMAGE_WIDTH] = NO_IMAGE;
+			}
+		}
+		return encoded;
+	}
+
+	private static short[] encodeCopyright(Copyright copyright, CodeDictionary dictionary) {
+		Link[] providers = copyright.getProvider();
+		short[] encoded = encodeLinks(providers != null ? providers : new Link[0], COPYRIGHT_SIZE, dictionary);
+		encoded[COPYRIGHT_TITLE] = dictionary.codeOf(copyright.getTitle());
+		encoded[COPYRIGHT_LINK] = dictionary.codeOf(copyright.getLink());
+		Image image = copyright.getImage();
+		if (image != null) {
+			encoded[COPYRIGHT_IMAGE] = dictionary.codeOf(image.getUrl());
+			encoded[COPYRIGHT_IMAGE + 1] = dictionary.codeOf(image.getTitle());
+			encoded[COPYRIGHT_IMAGE + 2] = dictionary.codeOf(image.getLink());
+			encoded[COPYRIGHT_IMAGE + 3] = toShort(image.getWidth());
+			encoded[COPYRIGHT_IMAGE + 4] = toShort(image.getHeight());
+		} else {
+			encoded[COPYRIGHT_IMAGE + 3] = NO_IMAGE;
+		}
+		return encoded;
+	}
+
+	private Copyright decodeCopyright(CodeDictionary dictionary) {
+		Copyright decoded = new Copyright();
+		decoded.setTitle(dictionary.valueOf(copyright[COPYRIGHT_TITLE]));
+		decoded.setLink(dictionary.valueOf(copyright[COPYRIGHT_LINK]));
+		if (copyright[COPYRIGHT_IMAGE + 3] != NO_IMAGE) {
+			Image image = new Image();
+			image.setUrl(dictionary.valueOf(copyright[COPYRIGHT_IMAGE]));
+			image.setTitle(dictionary.valueOf(copyright[COPYRIGHT_IMAGE + 1]));
+			image.setLink(dictionary.valueOf(copyright[COPYRIGHT_IMAGE + 2]));
+			image.setWidth(copyright[COPYRIGHT_IMAGE + 3]);
+			image.setHeight(copyright[COPYRIGHT_IMAGE + 4]);
+			decoded.setImage(image);
+		}
+		decoded.setProvider(decodeLinks(copyright, COPYRIGHT_SIZE, dictionary));
+		return decoded;
+	}
+
+	/**
+	 * Encodes the name and link of each given link, after <code>offset</code> unused values.
+	 */
+	private static short[] encodeLinks(Link[] links, int offset, CodeDictionary dictionary) {
+		short[] encoded = new short[offset + links.length * 2];
+		for (int i = 0; i < links.length; i++) {
+			encoded[offset + i * 2] = dictionary.codeOf(links[i].getName());
+			encoded[offset + i * 2 + 1] = dictionary.codeOf(links[i].getLink());
+		}
+		return encoded;
+	}
+
+	private static Link[] decodeLinks(short[] encoded, int offset, CodeDictionary dictionary) {
+		Link[] links = new Link[(encoded.length - offset) / 2];
+		for (int i = 0; i < links.length; i++) {
+			links[i] = new Link();
+			links[i].setName(dictionary.valueOf(encoded[offset + i * 2]));
+			links[i].setLink(dictionary.valueOf(encoded[offset + i * 2 + 1]));
+		}
+		return links;
+	}
+
+	/**
+	 * Converts a temperature to tenths of a degree Celsius.
+	 * @param degree the temperature, may be null
+	 * @return the tenths of a degree or {@link #NO_TEMPERATURE}, if the temperature is missing or not a number
+	 */
+	static short toTenths(Degree degree) {
+		if (degree == null || degree.getCelsius() == null)
+			return NO_TEMPERATURE;
+		try {
+			long tenths = Math.round(Double.parseDouble(degree.getCelsius()) * 10);
+			return tenths > NO_TEMPERATURE && tenths <= Short.MAX_VALUE ? (short) tenths : NO_TEMPERATURE;
+		} catch (NumberFormatException e) {
+			return NO_TEMPERATURE;
+		}
+	}
+
+	/**
+	 * Converts tenths of a degree Celsius to a temperature, e.g. 40 to 4 °C and 39.2 °F.
+	 * @param tenths the tenths of a degree or {@link #NO_TEMPERATURE}
+	 * @return the temperature, null if missing
+	 */
+	static Degree toDegree(short tenths) {
+		if (tenths == NO_TEMPERATURE)
+			return null;
+		BigDecimal celsius = BigDecimal.valueOf(tenths, 1);
+		Degree degree = new Degree();
+		degree.setCelsius(celsius.stripTrailingZeros().toPlainString());
+		degree.setFahrenheit(celsius.multiply(NINE_FIFTHS).add(THIRTY_TWO).stripTrailingZeros().toPlainString());
+		return degree;
+	}
+
+	private static short toShort(int value) {
+		return (short) Math.max(0, Math.min(Short.MAX_VALUE, value));
+	}
+
+	private static OffsetDateTime parseTime(String time) {
+		if (time == null)
+			return null;
+		try {
+			return OffsetDateTime.parse(time, PUBLIC_TIME_FORMAT);
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	private static String formatTime(long millis, short offsetMinutes) {
+		if (millis == NO_TIME)
+			return null;
+		return Instant.ofEpochMilli(millis).atOffset(ZoneOffset.ofTotalSeconds(offsetMinutes * 60)).format(PUBLIC_TIME_FORMAT);
+	}
+
+	/**
+	 * @return the number of forecasts
+	 */
+	public int getForecastCount() {
+		return forecasts.length / FORECAST_SIZE;
+	}
+
+	public String getTitle() {
+		return dictionary.valueOf(title);
+	}
+
+	public String getLink() {
+		return dictionary.valueOf(link);
+	}
+
+	public String getCity() {
+		return dictionary.valueOf(city);
+	}
+
+	/**
+	 * @return the time of publication in epoch milliseconds, {@link #NO_TIME} if missing
+	 */
+	public long getPublicTime() {
+		return publicTime;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @param index the index of the forecast
+	 * @return the date of the forecast, e.g. <code>2018-03-10</code>
+	 */
+	public String getDate(int index) {
+		return dictionary.valueOf(forecasts[index * FORECAST_SIZE + DATE]);
+	}
+
+	/**
+	 * @param index the index of the forecast
+	 * @return the label of the date, e.g. 今日
+	 */
+	public String getDateLabel(int index) {
+		return dictionary.valueOf(forecasts[index * FORECAST_SIZE + DATE_LABEL]);
+	}
+
+	/**
+	 * @param index the index of the forecast
+	 * @return the code of the telop in the dictionary of this instance, 0 if missing
+	 */
+	public short getTelopCode(int index) {
+		return forecasts[index * FORECAST_SIZE + TELOP];
+	}
+
+	/**
+	 * @param index the index of the forecast
+	 * @return the telop, e.g. 晴れ
+	 */
+	public String getTelop(int index) {
+		return dictionary.valueOf(getTelopCode(index));
+	}
+
+	/**
+	 * @param index the index of the forecast
+	 * @return the minimum temperature in tenths of a degree Celsius, {@link #NO_TEMPERATURE} if missing
+	 */
+	public short getMinTenths(int index) {
+		return forecasts[index * FORECAST_SIZE + MIN];
+	}
+
+	/**
+	 * @param index the index of the forecast
+	 * @return the maximum temperature in tenths of a degree Celsius, {@link #NO_TEMPERATURE} if missing
+	 */
+	public short getMaxTenths(int index) {
+		return forecasts[index * FORECAST_SIZE + MAX];
+	}
+
+	/**
+	 * @param index the index of the forecast
+	 * @return the URL of the weather icon, null if missing
+	 */
+	public String getImageUrl(int index) {
+		return dictionary.valueOf(forecasts[index * FORECAST_SIZE + IMAGE_URL]);
+	}
+}
@@ -5,4 +5,29 @@ public class Copyright {
 	private String link;
 	private String title;
 	private Image image;
+	
+	public Link[] getProvider() {
+		return provider;
+	}
+	public void setProvider(Link[] provider) {
+		this.provider = provider;
+	}
+	public String getLink() {
+		return link;
+	}
+	public void setLink(String link) {
+		this.link = link;
+	}
+	public String getTitle() {
+		return title;
+	}
+	public void setTitle(String title) {
+		this.title = title;
+	}
+	public Image getImage() {
+		return image;
+	}
+	public void setImage(Image image) {
+		this.image = image;
+	}
 }
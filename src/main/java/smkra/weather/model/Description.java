@@ -6,6 +6,19 @@ public class Description {
 	private String text;
 	private String publicTime;
 	
+	public String getText() {
+		return text;
+	}
+	public void setText(String text) {
+		this.text = text;
+	}
+	public String getPublicTime() {
+		return publicTime;
+	}
+	public void setPublicTime(String publicTime) {
+		this.publicTime = publicTime;
+	}
+	
 	public String toString(){
 		return toString(false, "\n");
 	}
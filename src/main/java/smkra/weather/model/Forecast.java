@@ -1,6 +1,6 @@
 package smkra.weather.model;
 
-import java.io.StringWriter;
+import smkra.weather.render.WeatherRenderer;
 
 public class Forecast {
 	private String date;
@@ -10,26 +10,41 @@ public class Forecast {
 	private Temperature temperature;
 	
 	public String toString(boolean html){
-		String forecastText = "";
-		if(telop != null && !telop.equals(""))
-			forecastText += dateLabel+"の天気: "+telop+"。 ";
-		forecastText += temperature.toString();
-		
-		if(!forecastText.equals("") && html) {
-			StringWriter writer = new StringWriter();
-			writer.write("<tr>\n<td>\n");
-			writer.write(forecastText+"\n");
-			writer.write("</td>\n<td>\n");
-			if(image.getUrl() != null && !image.getUrl().equals("")){
-				writer.write("<img src=\""+image.getUrl()+"\" alt=\""+image.getTitle()+"\">\n");
-			}
-			writer.write("</td>\n</tr>");
-			return writer.toString();
-		}
-		return forecastText;
+		return new WeatherRenderer(html, false).toString(this);
 	}
 	
 	public String toString(){
 		return toString(false);
 	}
+	
+	public String getDate() {
+		return date;
+	}
+	public void setDate(String date) {
+		this.date = date;
+	}
+	public String getDateLabel() {
+		return dateLabel;
+	}
+	public void setDateLabel(String dateLabel) {
+		this.dateLabel = dateLabel;
+	}
+	public String getTelop() {
+		return telop;
+	}
+	public void setTelop(String telop) {
+		this.telop = telop;
+	}
+	public Image getImage() {
+		return image;
+	}
+	public void setImage(Image image) {
+		this.image = image;
+	}
+	public Temperature getTemperature() {
+		return temperature;
+	}
+	public void setTemperature(Temperature temperature) {
+		this.temperature = temperature;
+	}
 }
@@ -3,4 +3,17 @@ package smkra.weather.model;
 public class Link {
 	private String name;
 	private String link;
+	
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public String getLink() {
+		return link;
+	}
+	public void setLink(String link) {
+		this.link = link;
+	}
 }
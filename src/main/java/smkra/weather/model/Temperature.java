@@ -1,6 +1,6 @@
 package smkra.weather.model;
 
-import java.io.StringWriter;
+import smkra.weather.render.WeatherRenderer;
 
 public class Temperature {
 	private Degree min;
@@ -19,19 +19,6 @@ public class Temperature {
 	}
 	
 	public String toString(){
-		if (min != null || max != null){
-			StringWriter writer = new StringWriter();
-			if (min != null){
-				writer.write("最低気温"+min.getCelsius()+"°C");
-				if(max != null)
-					writer.write(",");
-				else
-					writer.write("です。");
-			}
-			if (max != null){
-				writer.write("最高気温"+max.getCelsius()+"°Cです。");
-			}
-			return writer.toString();
-		} else return "";
+		return WeatherRenderer.toString(this);
 	}
 }
@@ -1,11 +1,9 @@
 package smkra.weather.model;
 
-import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.List;
-
 import org.apache.http.HttpResponse;
 
+import smkra.weather.render.WeatherRenderer;
+
 /**
  * This class contains all the weather information returned by the weather API. Also the appropriate methods to print
  * the information are provided.
@@ -20,6 +18,10 @@ public class WeatherResponse {
 	private Forecast[] forecasts;
 	private Link[] pinpointLocations;
 	private Copyright copyright;
+	/**
+	 * True, if the weather API could not be contacted and this is the last response received before
+	 */
+	private boolean stale;
 
 	@Override
 	public String toString(){
@@ -31,65 +33,10 @@ public class WeatherResponse {
 	 * @param html If true, the appropriate html tags and the weather image are added
 	 * @param detail If true, the weather description is added.
 	 * @return the String representation of the contained weather information
+	 * @see WeatherRenderer
 	 */
 	public String toString(boolean html, boolean detail){
-		String separator;
-		if(detail)
-			separator = html?"\n<br><br>":"\n\n";
-		else
-			separator = html?"<br>\n":"\n";
-		StringWriter writer = new StringWriter();
-		
-		if(title != null && !title.equals(""))
-			writer.write(title+separator);
-		else
-			writer.write(getBackupTitleString()+separator);
-		
-		if(forecasts.length>0){
-			if(html)
-				writer.write("<table>\n");
-			for(Forecast forecast : forecasts){
-				String forecastString = forecast.toString(html);
-				if(!forecastString.equals("")){
-					writer.write(forecastString);
-					if(!html)
-						writer.write(separator);
-				}
-			}
-			if(html)
-				writer.write("</table>"+separator);
-		}
-		
-		String descriptionString = description.toString(html, separator);
-		if(detail && !descriptionString.equals(""))
-			writer.write(descriptionString.toString()+separator);
-		
-		if(link != null && !link.equals("")){
-			if (html)
-				writer.write("あなたは "+"<a href=\""+link+"\">ここで</a> ぴったりの 情報を 見つけられるでしょう。");
-			else
-				writer.write("あなたは "+link+"で ぴったりの 情報を 見つけられるでしょう。");
-		}
-		return writer.toString();
-	}
-	
-	/**
-	 * Creates an alternative title if no title is contained in the response of the weather API
-	 * @return the alternative title
-	 */
-	private String getBackupTitleString(){
-		String city = (location.getCity()==null)?"the requested city":location.getCity();
-		List<String> areaPrefList = new ArrayList<>();
-		if(location.getPref() != null && !location.getPref().equals(""))
-			areaPrefList.add(location.getPref());
-		if(location.getArea() != null && !location.getArea().equals(""))
-			areaPrefList.add(location.getArea());
-		String areaPref = String.join(", ", areaPrefList);
-		String cityDetails = "";
-		if(areaPref != null && !areaPref.equals(""))
-			cityDetails = " ("+areaPref+")";
-				
-		return "Weather forecast for "+city+cityDetails+":";
+		return new WeatherRenderer(html, detail).toString(this);
 	}
 
 	public HttpResponse getHttpResponse() {
@@ -163,5 +110,16 @@ public class WeatherResponse {
 	public void setCopyright(Copyright copyright) {
 		this.copyright = copyright;
 	}
+
+	/**
+	 * @return true, if the weather API was not available and the response is an older one, which may be outdated
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
+	public void setStale(boolean stale) {
+		this.stale = stale;
+	}
 	
 }
@@ -1,5 +1,6 @@
 /**
  * This package provides the structure of a response as returned by the weather API. The classes are used to deserialize the JSON-String included in a response.
+ * A {@link smkra.weather.model.CompactWeather} keeps the values of a response in a compact form, e.g. for holding the weather of many cities in memory.
  */
 
 package smkra.weather.model;
\ No newline at end of file
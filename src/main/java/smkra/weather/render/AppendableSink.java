@@ -0,0 +1,32 @@
+package smkra.weather.render;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Sink appending the output to an {@link Appendable}.
+ */
+class AppendableSink implements RenderSink {
+
+	private final Appendable out;
+
+	AppendableSink(Appendable out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(Fragment fragment) throws IOException {
+		out.append(fragment.getText());
+	}
+
+	@Override
+	public void write(CharSequence text) throws IOException {
+		out.append(text);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (out instanceof Flushable)
+			((Flushable) out).flush();
+	}
+}
@@ -0,0 +1,37 @@
+package smkra.weather.render;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed piece of output, kept both as String and as pre-encoded UTF-8 bytes, so byte sinks do not have to
+ * encode it again for every render.
+ */
+public final class Fragment {
+
+	private final String text;
+	private final byte[] utf8;
+
+	/**
+	 * @param text the text of the fragment
+	 */
+	public Fragment(String text) {
+		this.text = text;
+		this.utf8 = text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return the UTF-8 encoded text, must not be modified
+	 */
+	byte[] getUtf8() {
+		return utf8;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
@@ -0,0 +1,59 @@
+package smkra.weather.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Target of a render. Fixed fragments and variable text are written separately, so sinks writing bytes can use
+ * the pre-encoded fragments.
+ */
+public interface RenderSink {
+
+	/**
+	 * Writes a fixed fragment.
+	 * @param fragment the fragment to write
+	 * @throws IOException if writing failed
+	 */
+	void write(Fragment fragment) throws IOException;
+
+	/**
+	 * Writes variable text.
+	 * @param text the text to write
+	 * @throws IOException if writing failed
+	 */
+	void write(CharSequence text) throws IOException;
+
+	/**
+	 * Passes all buffered output on to the underlying target.
+	 * @throws IOException if writing failed
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Creates a sink appending to the given target, e.g. a <code>StringBuilder</code> or <code>Writer</code>.
+	 * @param out the target
+	 * @return the sink
+	 */
+	static RenderSink of(Appendable out) {
+		return new AppendableSink(out);
+	}
+
+	/**
+	 * Creates a sink writing UTF-8 encoded bytes to the given stream. The output is buffered until
+	 * {@link #flush()} is called, the stream is not closed.
+	 * @param out the stream
+	 * @return the sink
+	 */
+	static RenderSink utf8(OutputStream out) {
+		return new Utf8Sink(out);
+	}
+
+	/**
+	 * Creates a sink writing the same output to all given sinks.
+	 * @param sinks the sinks to write to
+	 * @return the sink
+	 */
+	static RenderSink tee(RenderSink... sinks) {
+		return new TeeSink(sinks);
+	}
+}
@@ -0,0 +1,33 @@
+package smkra.weather.render;
+
+import java.io.IOException;
+
+/**
+ * Sink writing the same output to several sinks.
+ */
+class TeeSink implements RenderSink {
+
+	private final RenderSink[] sinks;
+
+	TeeSink(RenderSink[] sinks) {
+		this.sinks = sinks.clone();
+	}
+
+	@Override
+	public void write(Fragment fragment) throws IOException {
+		for (RenderSink sink : sinks)
+			sink.write(fragment);
+	}
+
+	@Override
+	public void write(CharSequence text) throws IOException {
+		for (RenderSink sink : sinks)
+			sink.write(text);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		for (RenderSink sink : sinks)
+			sink.flush();
+	}
+}
@@ -0,0 +1,76 @@
+package smkra.weather.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sink encoding the output as UTF-8 into an internal buffer, which is written to the stream when it is full
+ * and when the sink is flushed. Fragments are copied in their pre-encoded form.
+ */
+class Utf8Sink implements RenderSink {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int count;
+
+	Utf8Sink(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(Fragment fragment) throws IOException {
+		byte[] bytes = fragment.getUtf8();
+		if (bytes.length > BUFFER_SIZE - count) {
+			flushBuffer();
+			if (bytes.length > BUFFER_SIZE) {
+				out.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	@Override
+	public void write(CharSequence text) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			if (BUFFER_SIZE - count < 4)
+				flushBuffer();
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				buffer[count++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[count++] = (byte) (0xC0 | (c >> 6));
+				buffer[count++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, text.charAt(++i));
+				buffer[count++] = (byte) (0xF0 | (cp >> 18));
+				buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buffer[count++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buffer[count++] = '?';
+			} else {
+				buffer[count++] = (byte) (0xE0 | (c >> 12));
+				buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[count++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+}
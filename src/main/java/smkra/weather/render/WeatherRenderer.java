@@ -0,0 +1,306 @@
+package smkra.weather.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import smkra.weather.metrics.Phase;
+import smkra.weather.metrics.WeatherMetrics;
+import smkra.weather.model.Degree;
+import smkra.weather.model.Description;
+import smkra.weather.model.Forecast;
+import smkra.weather.model.Image;
+import smkra.weather.model.Location;
+import smkra.weather.model.Temperature;
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Renders the weather information of a {@link WeatherResponse} as text or html in a single pass, writing directly
+ * to one or several {@link RenderSink}s instead of building intermediate Strings. The fixed Japanese parts of the
+ * output are pre-encoded {@link Fragment}s.
+ *
+ * The sources of the weather images can be replaced, e.g. by local copies of the images, so pages do not depend on
+ * the image host of the weather API.
+ *
+ * Instances are immutable and can be shared between threads. The time needed to render a response is recorded in
+ * {@link WeatherMetrics#GLOBAL}.
+ */
+public class WeatherRenderer {
+
+	private static final Fragment TEXT_SEPARATOR = new Fragment("\n");
+	private static final Fragment TEXT_DETAIL_SEPARATOR = new Fragment("\n\n");
+	private static final Fragment HTML_SEPARATOR = new Fragment("<br>\n");
+	private static final Fragment HTML_DETAIL_SEPARATOR = new Fragment("\n<br><br>");
+
+	private static final Fragment WEATHER_OF = new Fragment("の天気: ");
+	private static final Fragment SENTENCE_END = new Fragment("。 ");
+	private static final Fragment MIN_TEMPERATURE = new Fragment("最低気温");
+	private static final Fragment MAX_TEMPERATURE = new Fragment("最高気温");
+	private static final Fragment CELSIUS = new Fragment("°C");
+	private static final Fragment CELSIUS_END = new Fragment("°Cです。");
+	private static final Fragment COMMA = new Fragment(",");
+	private static final Fragment END = new Fragment("です。");
+
+	private static final Fragment TABLE_START = new Fragment("<table>\n");
+	private static final Fragment TABLE_END = new Fragment("</table>");
+	private static final Fragment ROW_START = new Fragment("<tr>\n<td>\n");
+	private static final Fragment CELL_SEPARATOR = new Fragment("\n</td>\n<td>\n");
+	private static final Fragment IMAGE_START = new Fragment("<img src=\"");
+	private static final Fragment IMAGE_ALT = new Fragment("\" alt=\"");
+	private static final Fragment IMAGE_END = new Fragment("\">\n");
+	private static final Fragment ROW_END = new Fragment("</td>\n</tr>");
+	private static final Fragment NEW_LINE_BREAK = new Fragment("\n<br>");
+
+	private static final Fragment LINK_START = new Fragment("あなたは ");
+	private static final Fragment HTML_LINK = new Fragment("<a href=\"");
+	private static final Fragment HTML_LINK_END = new Fragment("\">ここで</a> ぴったりの 情報を 見つけられるでしょう。");
+	private static final Fragment TEXT_LINK_END = new Fragment("で ぴったりの 情報を 見つけられるでしょう。");
+
+	private final boolean html;
+	private final boolean detail;
+	private final UnaryOperator<String> imageSource;
+
+	/**
+	 * Creates a new renderer.
+	 * @param html If true, the appropriate html tags and the weather image are added
+	 * @param detail If true, the weather description is added.
+	 */
+	public WeatherRenderer(boolean html, boolean detail) {
+		this(html, detail, UnaryOperator.identity());
+	}
+
+	/**
+	 * Creates a new renderer showing the weather images from the given sources.
+	 * @param html If true, the appropriate html tags and the weather image are added
+	 * @param detail If true, the weather description is added.
+	 * @param imageSource gives the source of a weather image by its URL, e.g. the path of a local copy
+	 */
+	public WeatherRenderer(boolean html, boolean detail, UnaryOperator<String> imageSource) {
+		this.html = html;
+		this.detail = detail;
+		this.imageSource = imageSource;
+	}
+
+	/**
+	 * Renders the response to a String.
+	 * @param response the response containing the weather information
+	 * @return the rendered weather information
+	 */
+	public String toString(WeatherResponse response) {
+		StringBuilder builder = new StringBuilder(1024);
+		try {
+			render(response, RenderSink.of(builder));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Renders the response to the given target.
+	 * @param response the response containing the weather information
+	 * @param out the target, e.g. a <code>Writer</code> or <code>PrintStream</code>
+	 * @throws IOException if writing to the target failed
+	 */
+	public void render(WeatherResponse response, Appendable out) throws IOException {
+		render(response, RenderSink.of(out));
+	}
+
+	/**
+	 * Renders the response UTF-8 encoded to the given stream. The stream is flushed, but not closed.
+	 * @param response the response containing the weather information
+	 * @param out the stream
+	 * @throws IOException if writing to the stream failed
+	 */
+	public void render(WeatherResponse response, OutputStream out) throws IOException {
+		render(response, RenderSink.utf8(out));
+	}
+
+	/**
+	 * Renders the response once to all given sinks. The sinks are flushed afterwards.
+	 * @param response the response containing the weather information
+	 * @param sinks the sinks to write to
+	 * @throws IOException if writing to a sink failed
+	 */
+	public void render(WeatherResponse response, RenderSink... sinks) throws IOException {
+		long start = System.nanoTime();
+		RenderSink out = sinks.length == 1 ? sinks[0] : RenderSink.tee(sinks);
+		Fragment separator;
+		if (detail)
+			separator = html ? HTML_DETAIL_SEPARATOR : TEXT_DETAIL_SEPARATOR;
+		else
+			separator = html ? HTML_SEPARATOR : TEXT_SEPARATOR;
+
+		String title = response.getTitle();
+		if (title != null && !title.equals(""))
+			out.write(title);
+		else
+			out.write(getBackupTitle(response.getLocation()));
+		out.write(separator);
+
+		Forecast[] forecasts = response.getForecasts();
+		if (forecasts != null && forecasts.length > 0) {
+			if (html)
+				out.write(TABLE_START);
+			for (Forecast forecast : forecasts) {
+				if (renderForecast(forecast, out) && !html)
+					out.write(separator);
+			}
+			if (html) {
+				out.write(TABLE_END);
+				out.write(separator);
+			}
+		}
+
+		Description description = response.getDescription();
+		if (detail && description != null && description.getText() != null && !description.getText().equals("")) {
+			if (html)
+				writeEscaped(description.getText(), out);
+			else
+				out.write(description.getText());
+			out.write(separator);
+		}
+
+		String link = response.getLink();
+		if (link != null && !link.equals("")) {
+			out.write(LINK_START);
+			if (html) {
+				out.write(HTML_LINK);
+				out.write(link);
+				out.write(HTML_LINK_END);
+			} else {
+				out.write(link);
+				out.write(TEXT_LINK_END);
+			}
+		}
+		out.flush();
+		WeatherMetrics.GLOBAL.record(Phase.RENDER, start);
+	}
+
+	/**
+	 * Renders a single forecast to a String.
+	 * @param forecast the forecast
+	 * @return the rendered forecast, empty if the forecast contains neither weather nor temperatures
+	 */
+	public String toString(Forecast forecast) {
+		StringBuilder builder = new StringBuilder(256);
+		try {
+			renderForecast(forecast, RenderSink.of(builder));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Renders the temperatures to a String.
+	 * @param temperature the temperatures
+	 * @return the rendered temperatures, empty if neither minimum nor maximum is given
+	 */
+	public static String toString(Temperature temperature) {
+		StringBuilder builder = new StringBuilder(64);
+		try {
+			renderTemperature(temperature, RenderSink.of(builder));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Renders a single forecast.
+	 * @param forecast the forecast
+	 * @param out the sink to write to
+	 * @return true, if anything was written
+	 * @throws IOException if writing failed
+	 */
+	private boolean renderForecast(Forecast forecast, RenderSink out) throws IOException {
+		String telop = forecast.getTelop();
+		boolean hasTelop = telop != null && !telop.equals("");
+		Temperature temperature = forecast.getTemperature();
+		boolean hasTemperature = temperature != null && (temperature.getMin() != null || temperature.getMax() != null);
+		if (!hasTelop && !hasTemperature)
+			return false;
+
+		if (html)
+			out.write(ROW_START);
+		if (hasTelop) {
+			out.write(String.valueOf(forecast.getDateLabel()));
+			out.write(WEATHER_OF);
+			out.write(telop);
+			out.write(SENTENCE_END);
+		}
+		if (hasTemperature)
+			renderTemperature(temperature, out);
+		if (html) {
+			out.write(CELL_SEPARATOR);
+			Image image = forecast.getImage();
+			if (image != null && image.getUrl() != null && !image.getUrl().equals("")) {
+				out.write(IMAGE_START);
+				out.write(imageSource.apply(image.getUrl()));
+				out.write(IMAGE_ALT);
+				out.write(String.valueOf(image.getTitle()));
+				out.write(IMAGE_END);
+			}
+			out.write(ROW_END);
+		}
+		return true;
+	}
+
+	private static void renderTemperature(Temperature temperature, RenderSink out) throws IOException {
+		Degree min = temperature.getMin();
+		Degree max = temperature.getMax();
+		if (min != null) {
+			out.write(MIN_TEMPERATURE);
+			out.write(String.valueOf(min.getCelsius()));
+			out.write(CELSIUS);
+			out.write(max != null ? COMMA : END);
+		}
+		if (max != null) {
+			out.write(MAX_TEMPERATURE);
+			out.write(String.valueOf(max.getCelsius()));
+			out.write(CELSIUS_END);
+		}
+	}
+
+	/**
+	 * Writes the html escaped text, adding a line break tag after each new line.
+	 */
+	private static void writeEscaped(String text, RenderSink out) throws IOException {
+		String escaped = StringEscapeUtils.escapeHtml4(text);
+		int start = 0;
+		int end;
+		while ((end = escaped.indexOf('\n', start)) >= 0) {
+			out.write(escaped.subSequence(start, end));
+			out.write(NEW_LINE_BREAK);
+			start = end + 1;
+		}
+		out.write(escaped.subSequence(start, escaped.length()));
+	}
+
+	/**
+	 * Creates an alternative title if no title is contained in the response of the weather API
+	 * @return the alternative title
+	 */
+	private static String getBackupTitle(Location location) {
+		if (location == null)
+			return "Weather forecast for the requested city:";
+		String city = (location.getCity()==null)?"the requested city":location.getCity();
+		List<String> areaPrefList = new ArrayList<>();
+		if(location.getPref() != null && !location.getPref().equals(""))
+			areaPrefList.add(location.getPref());
+		if(location.getArea() != null && !location.getArea().equals(""))
+			areaPrefList.add(location.getArea());
+		String areaPref = String.join(", ", areaPrefList);
+		String cityDetails = "";
+		if(!areaPref.equals(""))
+			cityDetails = " ("+areaPref+")";
+
+		return "Weather forecast for "+city+cityDetails+":";
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * This package provides the rendering of the weather information as text or html, written directly to the
+ * sinks the output is meant for.
+ */
+
+package smkra.weather.render;
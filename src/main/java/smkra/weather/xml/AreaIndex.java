@@ -0,0 +1,70 @@
+package smkra.weather.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of all cities defined in the area configuration of the weather API, together with the
+ * version information of the configuration it was created from.
+ */
+public class AreaIndex {
+
+	private final String lastBuildDate;
+	private final String lastModified;
+	private final List<City> cities;
+	private final Map<String, City> citiesByTitle;
+	private final Map<String, City> citiesByID;
+
+	/**
+	 * Creates a new index.
+	 * @param lastBuildDate the <code>lastBuildDate</code> of the area configuration, empty if unknown
+	 * @param lastModified the <code>Last-Modified</code> header sent with the area configuration, empty if unknown
+	 * @param cities all cities in the order of the area configuration
+	 */
+	public AreaIndex(String lastBuildDate, String lastModified, List<City> cities) {
+		this.lastBuildDate = lastBuildDate != null ? lastBuildDate : "";
+		this.lastModified = lastModified != null ? lastModified : "";
+		Map<String, City> byTitle = new HashMap<>();
+		Map<String, City> byID = new HashMap<>();
+		for (City city : cities) {
+			byTitle.putIfAbsent(city.getTitle(), city);
+			byID.putIfAbsent(city.getId(), city);
+		}
+		this.cities = Collections.unmodifiableList(new ArrayList<>(cities));
+		this.citiesByTitle = Collections.unmodifiableMap(byTitle);
+		this.citiesByID = Collections.unmodifiableMap(byID);
+	}
+
+	/**
+	 * Gives the city with the given name. If several cities have the same name, the first one is returned.
+	 * @param title the name of the city
+	 * @return the city or null, if no city has the given name
+	 */
+	public City getCityByTitle(String title) {
+		return citiesByTitle.get(title);
+	}
+
+	/**
+	 * Gives the city with the given ID.
+	 * @param id the ID of the city
+	 * @return the city or null, if no city has the given ID
+	 */
+	public City getCityByID(String id) {
+		return citiesByID.get(id);
+	}
+
+	public List<City> getCities() {
+		return cities;
+	}
+
+	public String getLastBuildDate() {
+		return lastBuildDate;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+}
@@ -0,0 +1,104 @@
+package smkra.weather.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes an {@link AreaIndex} as compact binary file, so later starts do not have to fetch and parse
+ * the area configuration.
+ *
+ * The file starts with a magic number and a format version, followed by the <code>lastBuildDate</code>, the
+ * <code>Last-Modified</code> header, the number of cities and for each city its ID, name, prefecture, feed URL and
+ * warning feed URL. Every string is stored as unsigned 16 bit length followed by its UTF-8 bytes.
+ */
+public class AreaSnapshot {
+
+	private static final int MAGIC = 0x57534149; // "WSAI"
+	private static final int VERSION = 1;
+
+	private AreaSnapshot() {
+	}
+
+	/**
+	 * Reads the snapshot from the given file by mapping it into memory.
+	 * @param file the snapshot file
+	 * @return the index stored in the file
+	 * @throws IOException if the file could not be read or is not a valid snapshot
+	 */
+	public static AreaIndex read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException("Not a valid area snapshot: " + file);
+			String lastBuildDate = readString(buffer);
+			String lastModified = readString(buffer);
+			int count = buffer.getInt();
+			List<City> cities = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				cities.add(new City(readString(buffer), readString(buffer), readString(buffer), readString(buffer),
+						readString(buffer)));
+			}
+			return new AreaIndex(lastBuildDate, lastModified, cities);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Truncated area snapshot: " + file);
+		}
+	}
+
+	/**
+	 * Writes the index to the given file. The file is first written to a temporary file which then replaces
+	 * the given file, so readers never see a partially written snapshot.
+	 * @param file the snapshot file
+	 * @param index the index to write
+	 * @throws IOException if the file could not be written
+	 */
+	public static void write(Path file, AreaIndex index) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, index.getLastBuildDate());
+				writeString(out, index.getLastModified());
+				out.writeInt(index.getCities().size());
+				for (City city : index.getCities()) {
+					writeString(out, city.getId());
+					writeString(out, city.getTitle());
+					writeString(out, city.getPref());
+					writeString(out, city.getSource());
+					writeString(out, city.getWarn());
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0xFFFF)
+			throw new IOException("String too long for area snapshot");
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
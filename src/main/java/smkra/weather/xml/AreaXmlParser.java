@@ -0,0 +1,80 @@
+package smkra.weather.xml;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser for the area configuration of the weather API. Only the <code>lastBuildDate</code> of the
+ * channel and the <code>pref</code>, <code>warn</code> and <code>city</code> elements are read, everything else
+ * is skipped without building a document tree.
+ */
+public class AreaXmlParser {
+
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	private AreaXmlParser() {
+	}
+
+	/**
+	 * Parses the area configuration read from the given stream.
+	 * @param in the stream to read the xml-file from, it is not closed by this method
+	 * @param lastModified the <code>Last-Modified</code> header sent with the xml-file, empty if unknown
+	 * @return the index of the contained cities
+	 * @throws XMLStreamException if the xml-file is not well-formed
+	 */
+	public static AreaIndex parse(InputStream in, String lastModified) throws XMLStreamException {
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+		try {
+			String lastBuildDate = "";
+			String pref = "";
+			String warn = "";
+			List<City> cities = new ArrayList<>();
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				switch (reader.getLocalName()) {
+				case "lastBuildDate":
+					if (lastBuildDate.isEmpty())
+						lastBuildDate = reader.getElementText().trim();
+					break;
+				case "pref":
+					pref = getAttribute(reader, "title");
+					warn = "";
+					break;
+				case "warn":
+					warn = getAttribute(reader, "source");
+					break;
+				case "city":
+					String id = getAttribute(reader, "id");
+					if (!id.isEmpty())
+						cities.add(new City(id, getAttribute(reader, "title"), pref, getAttribute(reader, "source"), warn));
+					break;
+				default:
+					break;
+				}
+			}
+			return new AreaIndex(lastBuildDate, lastModified, cities);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static String getAttribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value != null ? value : "";
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+}
@@ -0,0 +1,53 @@
+package smkra.weather.xml;
+
+/**
+ * A city as defined in the area configuration of the weather API, including the prefecture it belongs to.
+ */
+public class City {
+	private final String id;
+	private final String title;
+	private final String pref;
+	private final String source;
+	private final String warn;
+
+	/**
+	 * Creates a new city.
+	 * @param id the ID of the city as required by the weather API
+	 * @param title the name of the city
+	 * @param pref the name of the prefecture (or area) the city belongs to
+	 * @param source the URL of the RSS feed of the city
+	 * @param warn the URL of the RSS feed with the warnings for the prefecture of the city
+	 */
+	public City(String id, String title, String pref, String source, String warn) {
+		this.id = id;
+		this.title = title;
+		this.pref = pref;
+		this.source = source;
+		this.warn = warn;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getPref() {
+		return pref;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public String getWarn() {
+		return warn;
+	}
+
+	@Override
+	public String toString() {
+		return title + " (" + id + ")";
+	}
+}
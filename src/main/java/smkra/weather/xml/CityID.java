@@ -2,26 +2,39 @@ package smkra.weather.xml;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLStreamException;
 
 import smkra.weather.http.WeatherServiceException;
+import smkra.weather.metrics.Phase;
+import smkra.weather.metrics.WeatherMetrics;
 
 /**
  * This class maps names of cities to there IDs as required by the weather API. If available, the
  * IDs are parsed from the xml-file retrieved from the <code>AREA_XML_URL</code>. Otherwise, a older copy of 
  * this xml-file is used.
+ * 
+ * The parsed cities are kept in an immutable {@link AreaIndex}, so looking up a city is a single map access and
+ * instances can be shared between threads. The index is also stored as binary snapshot in <code>SNAPSHOT_FILE</code>.
+ * If the snapshot exists, it is loaded instead of the xml-file and the xml-file is only checked for changes
+ * in the background. Without snapshot, the <code>AREA_XML_URL</code> is given only a short time to answer, before
+ * the older copy is used and the <code>AREA_XML_URL</code> is checked in the background as well. The snapshot is
+ * rewritten only if the <code>lastBuildDate</code> or the <code>Last-Modified</code> header of the xml-file changed.
+ * The time needed to load the mapping is recorded in {@link WeatherMetrics#GLOBAL}.
+ * 
+ * Names not matching a city exactly are looked up in a {@link CitySearch}, which ignores the differences between
+ * katakana and hiragana, full-width and half-width characters and also knows the readings listed in
+ * <code>READINGS_FILE</code>. It also suggests cities for misspelled names.
  */
 public class CityID {
 	
@@ -29,50 +42,219 @@ public class CityID {
 	 * The URL to the xml-file containing the mapping of city names to city IDs.
 	 */
 	public static String AREA_XML_URL = "http://weather.livedoor.com/forecast/rss/primary_area.xml";
+	/**
+	 * The older copy of the xml-file, used if the <code>AREA_XML_URL</code> is not available.
+	 */
+	public static String AREA_XML_FILE = "data/primary_area.xml";
+	/**
+	 * The binary snapshot of the parsed xml-file.
+	 */
+	public static String SNAPSHOT_FILE = "data/primary_area.bin";
+	/**
+	 * The readings and other aliases of the city names, optional.
+	 */
+	public static String READINGS_FILE = "data/city_readings.txt";
+	
+	/**
+	 * Milliseconds to wait for connecting to and reading from the <code>AREA_XML_URL</code>.
+	 */
+	private static final int TIMEOUT = 5000;
+	/**
+	 * Milliseconds to wait for the <code>AREA_XML_URL</code> while starting without snapshot, before the older copy
+	 * is used.
+	 */
+	private static final int STARTUP_TIMEOUT = 1000;
+	
+	protected static PrintStream outStream = System.out;
 	
-	private Document document;
-	private XPath xpath;
+	private volatile AreaIndex index;
+	private volatile CitySearch search;
+	private final Map<String, List<String>> aliases;
+	private final long loadNanos;
 	
 	/**
-	 * Creates a new instance of this class and parses the xml-file containing the name-ID-mapping.
-	 * @throws ParserConfigurationException if the XML-parser could not be created
+	 * Creates a new instance of this class and loads the name-ID-mapping, either from the snapshot or
+	 * from the xml-file.
+	 * @throws IOException if the readings could not be read
 	 * @throws WeatherServiceException If the xml-file could not be read
 	 */
-	public CityID() throws ParserConfigurationException, IOException, WeatherServiceException {
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    	DocumentBuilder builder = factory.newDocumentBuilder();
-    	try {
-    		document = builder.parse(AREA_XML_URL);
-    	} catch (Exception e) {
-    		try (FileInputStream fis = new FileInputStream("data/primary_area.xml")) {
-    			document = builder.parse(fis);
-    		} catch (Exception e2) {
-    			throw new WeatherServiceException("Could not load configuration from weather service nor backup file.");
-    		}
-    	}
-    	XPathFactory xPathfactory = XPathFactory.newInstance();
-    	xpath = xPathfactory.newXPath();
+	public CityID() throws IOException, WeatherServiceException {
+		long start = System.nanoTime();
+		aliases = CitySearch.readAliases(Paths.get(READINGS_FILE));
+		Path snapshot = Paths.get(SNAPSHOT_FILE);
+		AreaIndex loaded = null;
+		if (Files.isReadable(snapshot)) {
+			try {
+				loaded = AreaSnapshot.read(snapshot);
+			} catch (IOException e) {
+				// invalid snapshot, load the xml-file instead
+			}
+		}
+		if (loaded != null) {
+			setIndex(loaded);
+			startRefresh();
+		} else {
+			AreaIndex fetched = null;
+			try {
+				fetched = fetch("", STARTUP_TIMEOUT);
+			} catch (Exception e) {
+				// not available in time, use the backup file
+			}
+			if (fetched != null && !fetched.getCities().isEmpty()) {
+				setIndex(fetched);
+			} else {
+				setIndex(loadBackup());
+				startRefresh();
+			}
+			writeSnapshot(snapshot, index);
+		}
+		loadNanos = System.nanoTime() - start;
+		WeatherMetrics.GLOBAL.record(Phase.AREA_LOAD, start);
 	}
 	
 	/**
-	 * Searches the xml-file for the given city name and returns the ID if found. If no ID could
+	 * Checks the <code>AREA_XML_URL</code> for a changed xml-file in the background.
+	 */
+	private void startRefresh() {
+		Thread refresher = new Thread(this::refresh, "area-refresh");
+		refresher.setDaemon(true);
+		refresher.start();
+	}
+	
+	private void setIndex(AreaIndex index) {
+		search = new CitySearch(index, aliases);
+		this.index = index;
+	}
+	
+	/**
+	 * Looks up the given city name and returns the ID if found. If the name does not match a city exactly,
+	 * it is looked up normalized, also comparing it to the readings of the city names. If no ID could
 	 * be found, an exception will be thrown.
 	 * @param city The name of the city to get the ID for
 	 * @return the ID of the requested city
-	 * @throws XPathExpressionException If the search is invalid
 	 * @throws WeatherServiceException If the ID was not found
+	 * @see #suggest(String, int)
+	 */
+	public String getCityID(String city) throws WeatherServiceException {
+		City entry = city != null ? index.getCityByTitle(city) : null;
+		if (entry == null && city != null)
+			entry = search.find(city);
+		if (entry == null)
+			throw new WeatherServiceException("Could not get weather information for specified city.");
+		return entry.getId();
+	}
+	
+	/**
+	 * Suggests cities for an incomplete or misspelled name, e.g. to complete the input of a user or to propose
+	 * alternatives if {@link #getCityID(String)} failed.
+	 * @param city the name of the city, may be incomplete
+	 * @param limit the maximum number of suggestions
+	 * @return the suggested cities, best match first
+	 * @see CitySearch#suggest(String, int)
+	 */
+	public List<City> suggest(String city, int limit) {
+		return search.suggest(city, limit);
+	}
+	
+	/**
+	 * Gives the city with the given ID.
+	 * @param id the ID of the city
+	 * @return the city or null, if no city has the given ID
+	 */
+	public City getCity(String id) {
+		return index.getCityByID(id);
+	}
+	
+	/**
+	 * Gives all cities in the order they are defined in the xml-file.
+	 * @return an unmodifiable list of all cities
+	 */
+	public List<City> getCities() {
+		return index.getCities();
+	}
+	
+	/**
+	 * @return the milliseconds it took to load the mapping when this instance was created
+	 */
+	public long getLoadMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(loadNanos);
+	}
+	
+	/**
+	 * Checks the <code>AREA_XML_URL</code> for a changed xml-file. If the xml-file changed, the mapping and the
+	 * snapshot are updated.
+	 * @return true, if the mapping was updated
+	 */
+	public boolean refresh() {
+		AreaIndex current = index;
+		try {
+			AreaIndex fetched = fetch(current.getLastModified(), TIMEOUT);
+			if (fetched == null || fetched.getCities().isEmpty())
+				return false;
+			if (fetched.getLastBuildDate().equals(current.getLastBuildDate())
+					&& fetched.getLastModified().equals(current.getLastModified()))
+				return false;
+			setIndex(fetched);
+			writeSnapshot(Paths.get(SNAPSHOT_FILE), fetched);
+			return true;
+		} catch (IOException | XMLStreamException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Writes the snapshot of the mapping. The snapshot only speeds up the next start, so if it could not be
+	 * written, e.g. because the directory is read-only, the failure is reported and the mapping is used anyway.
+	 * @param snapshot the file of the snapshot
+	 * @param index the mapping to write
+	 */
+	private static void writeSnapshot(Path snapshot, AreaIndex index) {
+		try {
+			AreaSnapshot.write(snapshot, index);
+		} catch (IOException e) {
+			outStream.println("Could not write snapshot "+snapshot+": "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Loads the mapping from the <code>AREA_XML_FILE</code>.
+	 * @return the loaded mapping
+	 * @throws WeatherServiceException if the xml-file could not be read
+	 */
+	private static AreaIndex loadBackup() throws WeatherServiceException {
+		try (FileInputStream fis = new FileInputStream(AREA_XML_FILE)) {
+			return AreaXmlParser.parse(fis, "");
+		} catch (Exception e2) {
+			throw new WeatherServiceException("Could not load configuration from weather service nor backup file.");
+		}
+	}
+	
+	/**
+	 * Fetches and parses the xml-file from the <code>AREA_XML_URL</code>.
+	 * @param lastModified the <code>Last-Modified</code> header of the previously fetched xml-file, empty if unknown
+	 * @param timeout the milliseconds to wait for connecting and for reading
+	 * @return the parsed mapping or null, if the xml-file was not modified since <code>lastModified</code>
+	 * @throws IOException if the xml-file could not be fetched
+	 * @throws XMLStreamException if the xml-file could not be parsed
 	 */
-	public String getCityID(String city) throws XPathExpressionException, WeatherServiceException {
-		
-    	XPathExpression expr = xpath.compile("//city[@title=\""+city+"\"]");
-    	NodeList nl = (NodeList) expr.evaluate(document, XPathConstants.NODESET);
-    	if(nl == null || nl.getLength() < 1)
-    		throw new WeatherServiceException("Could not get weather information for specified city.");
-    	Element el = (org.w3c.dom.Element) nl.item(0);
-    	String attribute = el.getAttribute("id");
-    	if(attribute == null || attribute == "")
-    		throw new WeatherServiceException("Could not get weather information for specified city.");
-    	return attribute;
+	private static AreaIndex fetch(String lastModified, int timeout) throws IOException, XMLStreamException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(AREA_XML_URL).openConnection();
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		if (!lastModified.isEmpty())
+			connection.setRequestProperty("If-Modified-Since", lastModified);
+		try {
+			int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+				return null;
+			if (status != HttpURLConnection.HTTP_OK)
+				throw new IOException("Unexpected status " + status);
+			try (InputStream in = connection.getInputStream()) {
+				return AreaXmlParser.parse(in, connection.getHeaderField("Last-Modified"));
+			}
+		} finally {
+			connection.disconnect();
+		}
 	}
 
 }
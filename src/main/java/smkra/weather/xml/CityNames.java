@@ -0,0 +1,122 @@
+package smkra.weather.xml;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Normalization and romanization of city names, so the search keys of {@link CitySearch} match regardless of
+ * full-width or half-width characters, katakana or hiragana and upper or lower case.
+ */
+final class CityNames {
+
+	/**
+	 * Romanization of the hiragana syllables, two-character combinations with small kana are looked up first
+	 */
+	private static final Map<String, String> ROMAJI = new HashMap<>();
+
+	static {
+		String[] table = {
+				"あ", "a", "い", "i", "う", "u", "え", "e", "お", "o",
+				"か", "ka", "き", "ki", "く", "ku", "け", "ke", "こ", "ko",
+				"さ", "sa", "し", "shi", "す", "su", "せ", "se", "そ", "so",
+				"た", "ta", "ち", "chi", "つ", "tsu", "て", "te", "と", "to",
+				"な", "na", "に", "ni", "ぬ", "nu", "ね", "ne", "の", "no",
+				"は", "ha", "ひ", "hi", "ふ", "fu", "へ", "he", "ほ", "ho",
+				"ま", "ma", "み", "mi", "む", "mu", "め", "me", "も", "mo",
+				"や", "ya", "ゆ", "yu", "よ", "yo",
+				"ら", "ra", "り", "ri", "る", "ru", "れ", "re", "ろ", "ro",
+				"わ", "wa", "ゐ", "i", "ゑ", "e", "を", "o", "ん", "n",
+				"が", "ga", "ぎ", "gi", "ぐ", "gu", "げ", "ge", "ご", "go",
+				"ざ", "za", "じ", "ji", "ず", "zu", "ぜ", "ze", "ぞ", "zo",
+				"だ", "da", "ぢ", "ji", "づ", "zu", "で", "de", "ど", "do",
+				"ば", "ba", "び", "bi", "ぶ", "bu", "べ", "be", "ぼ", "bo",
+				"ぱ", "pa", "ぴ", "pi", "ぷ", "pu", "ぺ", "pe", "ぽ", "po", "ゔ", "vu",
+				"ぁ", "a", "ぃ", "i", "ぅ", "u", "ぇ", "e", "ぉ", "o", "ゃ", "ya", "ゅ", "yu", "ょ", "yo", "ゎ", "wa",
+				"きゃ", "kya", "きゅ", "kyu", "きょ", "kyo", "ぎゃ", "gya", "ぎゅ", "gyu", "ぎょ", "gyo",
+				"しゃ", "sha", "しゅ", "shu", "しょ", "sho", "じゃ", "ja", "じゅ", "ju", "じょ", "jo",
+				"ちゃ", "cha", "ちゅ", "chu", "ちょ", "cho", "にゃ", "nya", "にゅ", "nyu", "にょ", "nyo",
+				"ひゃ", "hya", "ひゅ", "hyu", "ひょ", "hyo", "びゃ", "bya", "びゅ", "byu", "びょ", "byo",
+				"ぴゃ", "pya", "ぴゅ", "pyu", "ぴょ", "pyo", "みゃ", "mya", "みゅ", "myu", "みょ", "myo",
+				"りゃ", "rya", "りゅ", "ryu", "りょ", "ryo",
+				"うぃ", "wi", "うぇ", "we", "うぉ", "wo", "ふぁ", "fa", "ふぃ", "fi", "ふぇ", "fe", "ふぉ", "fo",
+				"てぃ", "ti", "でぃ", "di", "しぇ", "she", "じぇ", "je", "ちぇ", "che", "ゔぁ", "va", "ゔぃ", "vi" };
+		for (int i = 0; i < table.length; i += 2)
+			ROMAJI.put(table[i], table[i + 1]);
+	}
+
+	private CityNames() {
+	}
+
+	/**
+	 * Normalizes a city name: applies NFKC, so full-width latin letters and half-width katakana are folded to their
+	 * usual form, removes accents from latin letters, converts to lower case, folds katakana to hiragana and removes
+	 * spaces and separators.
+	 * @param name the name
+	 * @return the normalized name
+	 */
+	static String normalize(String name) {
+		String decomposed = Normalizer.normalize(name, Normalizer.Form.NFKD);
+		StringBuilder builder = new StringBuilder(decomposed.length());
+		char base = 0;
+		for (int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			if (Character.getType(c) == Character.NON_SPACING_MARK && base < 0x0250)
+				continue; // accent of a latin letter, the voicing marks of kana are kept
+			base = c;
+			builder.append(c);
+		}
+		String composed = Normalizer.normalize(builder, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+		builder.setLength(0);
+		for (int i = 0; i < composed.length(); i++) {
+			char c = composed.charAt(i);
+			if (c >= 'ァ' && c <= 'ヶ')
+				builder.append((char) (c - 0x60));
+			else if (!Character.isWhitespace(c) && c != '・' && c != '-' && c != '\'' && c != '.')
+				builder.append(c);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Romanizes a name written in hiragana using the Hepburn system, long vowels are written as in the kana.
+	 * @param kana the normalized name
+	 * @return the romanized name or null, if the name contains other characters than hiragana
+	 */
+	static String romanize(String kana) {
+		StringBuilder builder = new StringBuilder(kana.length() * 2);
+		boolean geminate = false;
+		for (int i = 0; i < kana.length(); i++) {
+			char c = kana.charAt(i);
+			if (c == 'っ') {
+				geminate = true;
+				continue;
+			}
+			if (c == 'ー')
+				continue;
+			String romaji = i + 1 < kana.length() ? ROMAJI.get(kana.substring(i, i + 2)) : null;
+			if (romaji != null)
+				i++;
+			else
+				romaji = ROMAJI.get(String.valueOf(c));
+			if (romaji == null)
+				return null;
+			if (geminate)
+				builder.append(romaji.startsWith("ch") ? 't' : romaji.charAt(0));
+			geminate = false;
+			builder.append(romaji);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Shortens the long vowels of a romanized name as they are usually written without macrons, e.g.
+	 * <code>toukyou</code> to <code>tokyo</code>.
+	 * @param romaji the romanized name
+	 * @return the shortened name
+	 */
+	static String shortenVowels(String romaji) {
+		return romaji.replace("ou", "o").replace("oo", "o").replace("uu", "u");
+	}
+}
@@ -0,0 +1,124 @@
+package smkra.weather.xml;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Search index over the names of all cities of an {@link AreaIndex}. Names are compared after normalization, so
+ * full-width or half-width characters, katakana or hiragana and upper or lower case do not matter. Besides the
+ * names, aliases like the readings of the names are indexed. Aliases in hiragana are also indexed romanized,
+ * with and without long vowels, so "とうきょう", "トウキョウ", "toukyou" and "Tokyo" all find 東京.
+ *
+ * The keys are kept in a trie, so exact, prefix and fuzzy lookups cost time proportional to the length of the
+ * query instead of the number of cities. Instances are immutable and can be shared between threads.
+ */
+public class CitySearch {
+
+	private final CityTrie trie;
+
+	/**
+	 * Creates the search index for the cities of an area index.
+	 * @param index the cities to search
+	 * @param aliases further names of the cities, by city ID
+	 */
+	public CitySearch(AreaIndex index, Map<String, List<String>> aliases) {
+		Map<String, Set<City>> keys = new LinkedHashMap<>();
+		for (City city : index.getCities())
+			addKey(keys, CityNames.normalize(city.getTitle()), city);
+		for (City city : index.getCities()) {
+			for (String alias : aliases.getOrDefault(city.getId(), Collections.emptyList())) {
+				String key = CityNames.normalize(alias);
+				addKey(keys, key, city);
+				String romaji = CityNames.romanize(key);
+				if (romaji != null) {
+					addKey(keys, romaji, city);
+					addKey(keys, CityNames.shortenVowels(romaji), city);
+				}
+			}
+		}
+		trie = new CityTrie(keys);
+	}
+
+	private static void addKey(Map<String, Set<City>> keys, String key, City city) {
+		if (!key.isEmpty())
+			keys.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(city);
+	}
+
+	/**
+	 * Reads the aliases of the cities from a file. Each line contains a city ID followed by its aliases, separated
+	 * by whitespace. Empty lines and lines starting with <code>#</code> are ignored.
+	 * @param file the file
+	 * @return the aliases by city ID, empty if the file does not exist
+	 * @throws IOException if the file could not be read
+	 */
+	public static Map<String, List<String>> readAliases(Path file) throws IOException {
+		Map<String, List<String>> aliases = new HashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] parts = line.split("\\s+");
+				List<String> cityAliases = aliases.computeIfAbsent(parts[0], id -> new ArrayList<>());
+				for (int i = 1; i < parts.length; i++)
+					cityAliases.add(parts[i]);
+			}
+		} catch (NoSuchFileException e) {
+			// aliases are optional
+		}
+		return aliases;
+	}
+
+	/**
+	 * Gives the city whose name or alias equals the query after normalization.
+	 * @param query the name to look for
+	 * @return the city or null, if no name or alias matches. If several cities match, the first one is returned.
+	 */
+	public City find(String query) {
+		List<City> cities = trie.exact(CityNames.normalize(query));
+		return cities.isEmpty() ? null : cities.get(0);
+	}
+
+	/**
+	 * Suggests cities for an incomplete or misspelled name. First the cities matching the query exactly are
+	 * returned, then the cities with a name starting with the query and finally those with a name within a small
+	 * edit distance of the query: none for queries up to two characters, one for up to five characters and two
+	 * for longer ones.
+	 * @param query the name to look for
+	 * @param limit the maximum number of suggestions
+	 * @return the suggested cities, best match first
+	 */
+	public List<City> suggest(String query, int limit) {
+		String key = CityNames.normalize(query);
+		Set<City> suggestions = new LinkedHashSet<>();
+		if (key.isEmpty() || limit <= 0)
+			return new ArrayList<>();
+		addAll(suggestions, trie.exact(key), limit);
+		addAll(suggestions, trie.prefix(key, limit), limit);
+		int maxDistance = key.length() <= 2 ? 0 : key.length() <= 5 ? 1 : 2;
+		for (List<City> cities : trie.fuzzy(key, maxDistance))
+			addAll(suggestions, cities, limit);
+		return new ArrayList<>(suggestions);
+	}
+
+	private static void addAll(Set<City> target, List<City> cities, int limit) {
+		for (City city : cities) {
+			if (target.size() >= limit)
+				return;
+			target.add(city);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package smkra.weather.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trie over the normalized search keys of the cities. Looking up a key costs time proportional to the length of
+ * the key, independent of the number of cities. The children of a node are kept in sorted arrays, so a
+ * node is searched with a binary search.
+ *
+ * The trie is filled once when created and is not changed afterwards, so it can be shared between threads.
+ */
+class CityTrie {
+
+	private static final City[] NO_CITIES = new City[0];
+
+	/**
+	 * A node of the trie, the cities are those whose key ends at this node
+	 */
+	private static final class Node {
+		private char[] labels = new char[0];
+		private Node[] children = new Node[0];
+		private City[] cities = NO_CITIES;
+
+		private Node child(char label) {
+			int idx = Arrays.binarySearch(labels, label);
+			return idx >= 0 ? children[idx] : null;
+		}
+
+		private Node addChild(char label) {
+			int idx = Arrays.binarySearch(labels, label);
+			if (idx >= 0)
+				return children[idx];
+			int insert = -idx - 1;
+			char[] newLabels = new char[labels.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, insert);
+			System.arraycopy(children, 0, newChildren, 0, insert);
+			System.arraycopy(labels, insert, newLabels, insert + 1, labels.length - insert);
+			System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+			Node node = new Node();
+			newLabels[insert] = label;
+			newChildren[insert] = node;
+			labels = newLabels;
+			children = newChildren;
+			return node;
+		}
+
+		private void addCity(City city) {
+			for (City existing : cities) {
+				if (existing == city)
+					return;
+			}
+			cities = Arrays.copyOf(cities, cities.length + 1);
+			cities[cities.length - 1] = city;
+		}
+	}
+
+	private final Node root = new Node();
+
+	/**
+	 * Creates a trie containing the given keys.
+	 * @param keys the normalized keys and the cities they lead to, in the order the cities should be returned
+	 */
+	CityTrie(Map<String, ? extends Collection<City>> keys) {
+		for (Map.Entry<String, ? extends Collection<City>> entry : keys.entrySet()) {
+			Node node = root;
+			for (int i = 0; i < entry.getKey().length(); i++)
+				node = node.addChild(entry.getKey().charAt(i));
+			for (City city : entry.getValue())
+				node.addCity(city);
+		}
+	}
+
+	/**
+	 * Gives the cities with exactly the given key.
+	 * @param key the normalized key
+	 * @return the cities, empty if none has the key
+	 */
+	List<City> exact(String key) {
+		Node node = find(key);
+		return node != null ? Collections.unmodifiableList(Arrays.asList(node.cities)) : Collections.emptyList();
+	}
+
+	/**
+	 * Gives the cities with a key starting with the given prefix, shorter keys first.
+	 * @param prefix the normalized prefix
+	 * @param limit the maximum number of cities to return
+	 * @return the cities, empty if no key starts with the prefix
+	 */
+	List<City> prefix(String prefix, int limit) {
+		Set<City> found = new LinkedHashSet<>();
+		Node node = find(prefix);
+		if (node == null)
+			return new ArrayList<>();
+		List<Node> level = new ArrayList<>();
+		level.add(node);
+		while (!level.isEmpty() && found.size() < limit) {
+			List<Node> next = new ArrayList<>();
+			for (Node current : level) {
+				for (City city : current.cities) {
+					if (found.size() < limit)
+						found.add(city);
+				}
+				next.addAll(Arrays.asList(current.children));
+			}
+			level = next;
+		}
+		return new ArrayList<>(found);
+	}
+
+	/**
+	 * Gives the cities with a key within the given edit distance (Levenshtein) of the query. The distance is
+	 * computed row by row while walking down the trie, and branches are left as soon as no key below them can
+	 * be within the distance.
+	 * @param query the normalized query
+	 * @param maxDistance the maximum number of inserted, deleted or replaced characters
+	 * @return the cities by their distance, nearest first
+	 */
+	List<List<City>> fuzzy(String query, int maxDistance) {
+		List<List<City>> byDistance = new ArrayList<>();
+		for (int i = 0; i <= maxDistance; i++)
+			byDistance.add(new ArrayList<>());
+		int[] firstRow = new int[query.length() + 1];
+		for (int i = 0; i < firstRow.length; i++)
+			firstRow[i] = i;
+		if (firstRow[query.length()] <= maxDistance)
+			addAll(byDistance.get(firstRow[query.length()]), root.cities);
+		for (int i = 0; i < root.labels.length; i++)
+			fuzzy(root.children[i], root.labels[i], query, firstRow, maxDistance, byDistance);
+		return byDistance;
+	}
+
+	private static void fuzzy(Node node, char label, String query, int[] previousRow, int maxDistance,
+			List<List<City>> byDistance) {
+		int[] row = new int[previousRow.length];
+		row[0] = previousRow[0] + 1;
+		int min = row[0];
+		for (int i = 1; i < row.length; i++) {
+			int replace = previousRow[i - 1] + (query.charAt(i - 1) == label ? 0 : 1);
+			row[i] = Math.min(replace, Math.min(row[i - 1] + 1, previousRow[i] + 1));
+			min = Math.min(min, row[i]);
+		}
+		int distance = row[row.length - 1];
+		if (distance <= maxDistance)
+			addAll(byDistance.get(distance), node.cities);
+		if (min > maxDistance)
+			return;
+		for (int i = 0; i < node.labels.length; i++)
+			fuzzy(node.children[i], node.labels[i], query, row, maxDistance, byDistance);
+	}
+
+	private static void addAll(List<City> target, City[] cities) {
+		for (City city : cities) {
+			if (!target.contains(city))
+				target.add(city);
+		}
+	}
+
+	private Node find(String key) {
+		Node node = root;
+		for (int i = 0; i < key.length() && node != null; i++)
+			node = node.child(key.charAt(i));
+		return node;
+	}
+}
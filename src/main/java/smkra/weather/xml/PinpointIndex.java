@@ -0,0 +1,160 @@
+package smkra.weather.xml;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import smkra.weather.model.Link;
+
+/**
+ * Index of the pinpoint locations of the cities, e.g. the municipalities 弘前市 or 黒石市 of the city 青森, mapping
+ * the name of each pinpoint location to the ID of its city. The index is filled from the
+ * <code>pinpointLocations</code> of the responses received anyway, so names below the level of the cities can be
+ * looked up without further requests to the weather API.
+ *
+ * Names are looked up normalized like the names of the cities, with and without the suffix 市, 町, 村 or 区. If the
+ * same name belongs to several cities, e.g. 府中市 in 東京 and 広島, it is not resolved at all, so no forecast of the
+ * wrong city is shown.
+ *
+ * Every pair of name and city ID seen is appended to the file of the index, one pair per line separated by a tab,
+ * and read again when the index is opened. The index is safe to be updated by several threads while names are
+ * looked up, but only by one process at a time.
+ */
+public class PinpointIndex {
+
+	/**
+	 * City ID of a name belonging to several cities
+	 */
+	private static final String AMBIGUOUS = "";
+
+	private final Path file;
+	/**
+	 * City ID by normalized name
+	 */
+	private final ConcurrentHashMap<String, String> cityIDs = new ConcurrentHashMap<>();
+	/**
+	 * Pairs of name and city ID already written to the file
+	 */
+	private final ConcurrentHashMap<String, Boolean> recorded = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an index kept in memory only.
+	 */
+	public PinpointIndex() {
+		this.file = null;
+	}
+
+	/**
+	 * Opens the index kept in the given file, which is created when the first pinpoint location is added.
+	 * @param file the file of the index
+	 * @throws IOException if the file could not be read
+	 */
+	public PinpointIndex(Path file) throws IOException {
+		this.file = file;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] pair = line.split("\t");
+				if (pair.length == 2 && recorded.putIfAbsent(line, Boolean.TRUE) == null)
+					index(pair[0], pair[1]);
+			}
+		} catch (NoSuchFileException e) {
+			// nothing recorded yet
+		}
+	}
+
+	/**
+	 * Adds the pinpoint locations of a city.
+	 * @param cityID the ID of the city
+	 * @param pinpointLocations the pinpoint locations as contained in a response of the city, may be null
+	 * @return the number of names not known for the city before
+	 * @throws IOException if the new names could not be written to the file
+	 */
+	public int add(String cityID, Link[] pinpointLocations) throws IOException {
+		if (cityID == null || pinpointLocations == null)
+			return 0;
+		List<String> lines = new ArrayList<>();
+		for (Link location : pinpointLocations) {
+			String name = location != null ? location.getName() : null;
+			if (name == null || name.isEmpty() || name.indexOf('\t') >= 0 || name.indexOf('\n') >= 0)
+				continue;
+			String line = name + "\t" + cityID;
+			if (recorded.putIfAbsent(line, Boolean.TRUE) == null) {
+				index(name, cityID);
+				lines.add(line);
+			}
+		}
+		if (!lines.isEmpty() && file != null) {
+			synchronized (this) {
+				Path parent = file.toAbsolutePath().getParent();
+				if (parent != null)
+					Files.createDirectories(parent);
+				Files.write(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			}
+		}
+		return lines.size();
+	}
+
+	private void index(String name, String cityID) {
+		String key = CityNames.normalize(name);
+		put(key, cityID);
+		String shortKey = withoutSuffix(key);
+		if (shortKey != null)
+			put(shortKey, cityID);
+	}
+
+	private void put(String key, String cityID) {
+		if (!key.isEmpty())
+			cityIDs.merge(key, cityID, (known, added) -> known.equals(added) ? known : AMBIGUOUS);
+	}
+
+	/**
+	 * Gives the name without the suffix of a municipality, null if it has none or nothing would be left.
+	 */
+	private static String withoutSuffix(String key) {
+		if (key.length() < 2)
+			return null;
+		switch (key.charAt(key.length() - 1)) {
+		case '市':
+		case '町':
+		case '村':
+		case '区':
+			return key.substring(0, key.length() - 1);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up the city of a pinpoint location.
+	 * @param name the name of the pinpoint location, with or without its suffix
+	 * @return the ID of the city or null, if the name is unknown or belongs to several cities
+	 */
+	public String getCityID(String name) {
+		if (name == null)
+			return null;
+		String cityID = cityIDs.get(CityNames.normalize(name));
+		return cityID == null || cityID.equals(AMBIGUOUS) ? null : cityID;
+	}
+
+	/**
+	 * @return the number of names indexed, including those without suffix
+	 */
+	public int size() {
+		return cityIDs.size();
+	}
+
+	/**
+	 * @return the file of the index, null if it is kept in memory only
+	 */
+	public Path getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,152 @@
+package smkra.weather.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import smkra.weather.http.WeatherResponseDecoder;
+import smkra.weather.model.CodeDictionary;
+import smkra.weather.model.Degree;
+import smkra.weather.model.Forecast;
+import smkra.weather.model.WeatherResponse;
+
+public class ForecastHistoryTest {
+
+	private byte[] json;
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		json = Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"));
+		directory = Files.createTempDirectory("history");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testAppendAndReopen() throws Exception {
+		WeatherResponse response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+		try (ForecastHistory history = new ForecastHistory(directory)) {
+			Assert.assertEquals(3, history.append("020010", response));
+			Assert.assertEquals("same publication should not be appended twice", 0, history.append("020010", response));
+			Assert.assertTrue(history.getLast("010010", 5).isEmpty());
+		}
+		Assert.assertEquals(3 * Segment.RECORD_SIZE, Files.size(directory.resolve("020010.seg")));
+		try (ForecastHistory history = new ForecastHistory(directory)) {
+			List<ForecastRecord> records = history.getLast("020010", 2);
+			Assert.assertEquals(2, records.size());
+			ForecastRecord tomorrow = records.get(0);
+			Forecast forecast = response.getForecasts()[1];
+			Assert.assertEquals("020010", tomorrow.getCityID());
+			Assert.assertEquals("明日", tomorrow.getDateLabel());
+			Assert.assertEquals(forecast.getTelop(), tomorrow.getTelop());
+			Assert.assertEquals(LocalDate.parse(forecast.getDate()), tomorrow.getDate());
+			Assert.assertEquals(-20, tomorrow.getMinTenths());
+			Assert.assertEquals(OffsetDateTime.parse("2018-03-10T11:00:00+09:00").toInstant().toEpochMilli(), tomorrow.getPublicTime());
+			Assert.assertEquals("all forecasts should be read", 3, history.getLast("020010", 10).size());
+		}
+	}
+
+	@Test
+	public void testIncompleteRecordDropped() throws Exception {
+		WeatherResponse response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+		try (ForecastHistory history = new ForecastHistory(directory)) {
+			history.append("020010", response);
+		}
+		Files.write(directory.resolve("020010.seg"), new byte[5], StandardOpenOption.APPEND);
+		try (ForecastHistory history = new ForecastHistory(directory)) {
+			Assert.assertEquals(3, history.getLast("020010", 10).size());
+			response.setPublicTime("2018-03-10T17:00:00+0900");
+			Assert.assertEquals(3, history.append("020010", response));
+			Assert.assertEquals(6, history.getLast("020010", 10).size());
+		}
+	}
+
+	@Test
+	public void testCodesFile() throws Exception {
+		WeatherResponse response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+		int global = CodeDictionary.GLOBAL.size();
+		try (ForecastHistory history = new ForecastHistory(directory)) {
+			history.append("020010", response);
+		}
+		Assert.assertEquals("strings should not be added to the global dictionary", global, CodeDictionary.GLOBAL.size());
+		Path codes = directory.resolve(ForecastHistory.CODES_FILE);
+		List<String> lines = Files.readAllLines(codes, StandardCharsets.UTF_8);
+		for (String line : lines)
+			Assert.assertTrue(line, line.matches("[0-9]+\t.+"));
+		Collections.reverse(lines);
+		Files.write(codes, lines, StandardCharsets.UTF_8);
+		try (ForecastHistory history = new ForecastHistory(directory)) {
+			Assert.assertEquals("codes should not depend on the order of the lines",
+					response.getForecasts()[1].getTelop(), history.getLast("020010", 2).get(0).getTelop());
+		}
+
+		lines.add(lines.size() + 1 + "\t" + response.getForecasts()[1].getTelop());
+		Files.write(codes, lines, StandardCharsets.UTF_8);
+		try {
+			new ForecastHistory(directory).close();
+			Assert.fail("string with two codes should be rejected");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Duplicate string"));
+		}
+	}
+
+	@Test
+	public void testTrend() throws Exception {
+		LocalDate first = LocalDate.of(2018, 3, 1);
+		try (ForecastHistory history = new ForecastHistory(directory)) {
+			// two publications a day for 30 days, each with the forecasts of three days
+			for (int day = 0; day < 30; day++) {
+				for (int hour : new int[] {5, 17}) {
+					WeatherResponse response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+					LocalDate published = first.plusDays(day);
+					response.setPublicTime(published.atTime(hour, 0).atOffset(ZoneOffset.ofHours(9)).format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ")));
+					for (int i = 0; i < 3; i++) {
+						Forecast forecast = response.getForecasts()[i];
+						forecast.setDate(published.plusDays(i).toString());
+						Degree max = new Degree();
+						// the later publication of a day forecasts one degree more
+						max.setCelsius(String.valueOf(day + i + (hour == 17 ? 1 : 0)));
+						forecast.getTemperature().setMax(max);
+					}
+					Assert.assertEquals(3, history.append("020010", response));
+				}
+			}
+			List<ForecastRecord> trend = history.getTrend("020010", first.plusDays(10), first.plusDays(14));
+			Assert.assertEquals(5, trend.size());
+			for (int i = 0; i < 5; i++) {
+				ForecastRecord record = trend.get(i);
+				Assert.assertEquals(first.plusDays(10 + i), record.getDate());
+				Assert.assertEquals("last publication for the day should win", "今日", record.getDateLabel());
+				Assert.assertEquals((10 + i + 1) * 10, record.getMaxTenths());
+			}
+			Assert.assertEquals("trend should end with the recorded days", 2, history.getTrend("020010", first.plusDays(30), first.plusDays(40)).size());
+
+			long from = first.plusDays(20).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+			long to = first.plusDays(21).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+			Assert.assertEquals("two publications of three forecasts within a day", 6, history.getPublished("020010", from, to).size());
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package smkra.weather.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+import smkra.weather.http.CircuitBreaker.State;
+import smkra.weather.model.WeatherResponse;
+
+public class CircuitBreakerTest {
+
+	private static final long OPEN_MILLIS = 30000;
+
+	@Test
+	public void testOpensOnFailureRate() {
+		CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, 1.0, 1000, OPEN_MILLIS, 1, () -> 0);
+		record(breaker, false, 10);
+		record(breaker, true, 10);
+		record(breaker, false, 10);
+		Assert.assertEquals("breaker should wait for the minimum number of calls", State.CLOSED, breaker.getState());
+		record(breaker, true, 10);
+		Assert.assertEquals("half of the calls failed", State.OPEN, breaker.getState());
+		Assert.assertFalse("calls should be rejected", breaker.tryAcquire());
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.75, 1.0, 1000, OPEN_MILLIS, 1, () -> 0);
+		record(breaker, true, 10);
+		record(breaker, true, 10);
+		record(breaker, false, 10);
+		record(breaker, false, 10);
+		record(breaker, false, 10);
+		Assert.assertEquals("oldest failure should have left the window", 0.25, breaker.getFailureRate(), 0.001);
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testOpensOnSlowCalls() {
+		CircuitBreaker breaker = new CircuitBreaker(3, 3, 0.5, 0.6, 1000, OPEN_MILLIS, 1, () -> 0);
+		record(breaker, false, 1500);
+		record(breaker, false, 10);
+		record(breaker, false, 2000);
+		Assert.assertEquals("two of three calls were slow", State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testProbeCalls() {
+		AtomicLong now = new AtomicLong();
+		CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, 1.0, 1000, OPEN_MILLIS, 2, now::get);
+		record(breaker, true, 10);
+		record(breaker, true, 10);
+		now.addAndGet(OPEN_MILLIS - 1);
+		Assert.assertFalse("breaker should still be open", breaker.tryAcquire());
+
+		now.addAndGet(1);
+		Assert.assertTrue("first probe should be permitted", breaker.tryAcquire());
+		Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+		breaker.record(true, 10);
+		Assert.assertEquals("failed probe should open the breaker again", State.OPEN, breaker.getState());
+
+		now.addAndGet(OPEN_MILLIS);
+		Assert.assertTrue(breaker.tryAcquire());
+		Assert.assertTrue(breaker.tryAcquire());
+		Assert.assertFalse("only two probes should be permitted", breaker.tryAcquire());
+		breaker.record(false, 10);
+		Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+		breaker.record(false, 10);
+		Assert.assertEquals("successful probes should close the breaker", State.CLOSED, breaker.getState());
+		Assert.assertEquals("window should be empty", 0, breaker.getFailureRate(), 0);
+	}
+
+	@Test
+	public void testStaleResponse() throws Exception {
+		CountingWeatherRequest request = new CountingWeatherRequest(HttpStatus.SC_OK, HttpStatus.SC_SERVICE_UNAVAILABLE, HttpStatus.SC_SERVICE_UNAVAILABLE);
+		request.setCache(null);
+		request.setRetryCount(0);
+		request.setRateLimiter(null);
+		request.setCircuitBreaker(new CircuitBreaker(2, 2, 0.5, 1.0, 10000, OPEN_MILLIS, 1));
+
+		WeatherResponse good = request.getWeatherFromID("020010");
+		Assert.assertFalse(good.isStale());
+		try {
+			request.getWeatherFromID("020010");
+			Assert.fail("failed request should throw an exception");
+		} catch (WeatherServiceException e) {
+			// expected
+		}
+		Assert.assertEquals(State.OPEN, request.getCircuitBreaker().getState());
+
+		WeatherResponse stale = request.getWeatherFromID("020010");
+		Assert.assertTrue("response should be flagged as stale", stale.isStale());
+		Assert.assertEquals(good.getPublicTime(), stale.getPublicTime());
+		Assert.assertNull("HTTP response should not be kept", stale.getHttpResponse());
+		Assert.assertFalse("remembered response should not be changed", good.isStale());
+		Assert.assertTrue("async request should return the stale response", request.getWeatherFromIDAsync("020010").get().isStale());
+		try {
+			request.getWeatherFromID("010010");
+			Assert.fail("request without previous response should fail fast");
+		} catch (WeatherServiceException e) {
+			Assert.assertEquals("Weather service currently not available and no earlier response of the city is known", e.getMessage());
+		}
+		Assert.assertEquals("open breaker should not send requests", 2, request.requests.get());
+	}
+
+	@Test
+	public void testStaleResponsesBounded() throws Exception {
+		CountingWeatherRequest request = new CountingWeatherRequest(HttpStatus.SC_OK, HttpStatus.SC_OK, HttpStatus.SC_SERVICE_UNAVAILABLE);
+		request.setCache(new WeatherCache(1, 0));
+		request.setRetryCount(0);
+		request.setRateLimiter(null);
+		request.setCircuitBreaker(new CircuitBreaker(1, 1, 0.5, 1.0, 10000, OPEN_MILLIS, 1));
+
+		request.getWeatherFromID("020010");
+		request.getWeatherFromID("010010");
+		try {
+			request.getWeatherFromID("130010");
+			Assert.fail("failed request should throw an exception");
+		} catch (WeatherServiceException e) {
+			// expected
+		}
+		Assert.assertEquals(State.OPEN, request.getCircuitBreaker().getState());
+		Assert.assertTrue("most recent response should be kept", request.getWeatherFromID("010010").isStale());
+		try {
+			request.getWeatherFromID("020010");
+			Assert.fail("no more responses than the cache holds should be kept");
+		} catch (WeatherServiceException e) {
+			Assert.assertEquals("Weather service currently not available and no earlier response of the city is known", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testStaleFallbackDisabled() throws Exception {
+		CountingWeatherRequest request = new CountingWeatherRequest(HttpStatus.SC_OK, HttpStatus.SC_SERVICE_UNAVAILABLE);
+		request.setCache(null);
+		request.setStaleFallback(false);
+		request.setRetryCount(0);
+		request.setRateLimiter(null);
+		request.setCircuitBreaker(new CircuitBreaker(1, 1, 0.5, 1.0, 10000, OPEN_MILLIS, 1));
+
+		request.getWeatherFromID("020010");
+		try {
+			request.getWeatherFromID("010010");
+			Assert.fail("failed request should throw an exception");
+		} catch (WeatherServiceException e) {
+			// expected
+		}
+		Assert.assertEquals(State.OPEN, request.getCircuitBreaker().getState());
+		try {
+			request.getWeatherFromID("020010");
+			Assert.fail("response should not be kept if the fallback is disabled");
+		} catch (WeatherServiceException e) {
+			Assert.assertEquals("Weather service currently not available and no earlier response of the city is known", e.getMessage());
+		}
+	}
+
+	private static void record(CircuitBreaker breaker, boolean failure, long millis) {
+		Assert.assertTrue("call should be permitted", breaker.tryAcquire());
+		breaker.record(failure, millis);
+	}
+}
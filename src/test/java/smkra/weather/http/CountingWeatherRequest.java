@@ -0,0 +1,51 @@
+package smkra.weather.http;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Request answering with the given status codes instead of contacting the weather API, counting the requests sent.
+ */
+class CountingWeatherRequest extends WeatherRequest{
+	
+	final AtomicInteger requests = new AtomicInteger();
+	/**
+	 * Status codes of the first responses, all further responses are OK
+	 */
+	private final int[] errors;
+	
+	protected CountingWeatherRequest(int... errors){
+		super();
+		this.errors = errors;
+	}
+	
+	@Override
+	protected WeatherResponse sendRequest(String cityID, int secondsToWait, boolean doWait) throws IOException, InterruptedException {
+		int request = requests.getAndIncrement();
+		int status = request < errors.length ? errors[request] : HttpStatus.SC_OK;
+		if (errors.length == 0)
+			Thread.sleep(500);
+		WeatherResponse response = new WeatherResponse();
+		response.setHttpResponse(new BasicHttpResponse(HttpVersion.HTTP_1_1, status, EnglishReasonPhraseCatalog.INSTANCE.getReason(status, null)));
+		return response;
+	}
+	
+	@Override
+	protected CompletableFuture<WeatherResponse> sendRequestAsync(String cityID) {
+		CompletableFuture<WeatherResponse> response = new CompletableFuture<>();
+		try {
+			response.complete(sendRequest(cityID, -1, false));
+		} catch (IOException | InterruptedException e) {
+			response.completeExceptionally(e);
+		}
+		return response;
+	}
+}
@@ -0,0 +1,60 @@
+package smkra.weather.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Measures decoding the recorded forecast JSON, with reflective Gson as baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+	private byte[] json;
+	private WeatherResponseDecoder lean;
+
+	@Setup
+	public void setUp() throws IOException {
+		json = Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"));
+		lean = new WeatherResponseDecoder(false, false, false);
+	}
+
+	@Benchmark
+	public WeatherResponse reflectiveGson() {
+		return new Gson().fromJson(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8), WeatherResponse.class);
+	}
+
+	@Benchmark
+	public WeatherResponse decoderFull() throws IOException {
+		return WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+	}
+
+	@Benchmark
+	public WeatherResponse decoderSkipping() throws IOException {
+		return lean.decode(new ByteArrayInputStream(json));
+	}
+}
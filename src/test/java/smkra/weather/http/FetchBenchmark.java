@@ -0,0 +1,80 @@
+package smkra.weather.http;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Measures a complete {@link WeatherRequest#getWeatherFromID(String)} call, including the HTTP round trip and
+ * decoding, against a {@link StubWeatherServer} running in the same process, and the same calls sent in batches
+ * by {@link WeatherRequest#getWeatherFromIDAsync(String)}. The cache and the rate limiter are disabled, so every
+ * call reaches the server at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FetchBenchmark {
+
+	/**
+	 * Number of asynchronous requests in flight at once
+	 */
+	private static final int BATCH = 32;
+	private static final String[] CITIES = new String[BATCH];
+
+	static {
+		for (int i = 0; i < BATCH; i++)
+			CITIES[i] = String.format("%06d", i);
+	}
+
+	private StubWeatherServer server;
+	private WeatherRequest request;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		server = new StubWeatherServer();
+		server.install();
+		request = new WeatherRequest();
+		request.setCache(null);
+		request.setRateLimiter(null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		request.closeHttpClient();
+		server.stop();
+	}
+
+	@Benchmark
+	public WeatherResponse getWeatherFromID() throws WeatherServiceException {
+		return request.getWeatherFromID("020010");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void getWeatherFromIDAsync(Blackhole blackhole) {
+		CompletableFuture<?>[] responses = new CompletableFuture<?>[BATCH];
+		for (int i = 0; i < BATCH; i++)
+			responses[i] = request.getWeatherFromIDAsync(CITIES[i]);
+		for (CompletableFuture<?> response : responses)
+			blackhole.consume(response.join());
+	}
+}
@@ -0,0 +1,205 @@
+package smkra.weather.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import smkra.weather.model.Forecast;
+import smkra.weather.model.WeatherResponse;
+import smkra.weather.render.WeatherRenderer;
+
+public class ImageCacheTest {
+
+	private static final byte[] ICON = {'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0, 0, 0, 0, ';'};
+	private static final String ETAG = "\"icon-25\"";
+
+	private HttpServer server;
+	private Path directory;
+	private CloseableHttpClient httpclient;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger conditionalRequests = new AtomicInteger();
+	private final AtomicLong now = new AtomicLong(1000);
+	private volatile int status = 200;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool(new DaemonThreadFactory("image-server")));
+		server.createContext("/img", this::handle);
+		server.start();
+		directory = Files.createTempDirectory("images");
+		httpclient = HttpClients.createDefault();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		httpclient.close();
+		server.stop(0);
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			// slow enough for concurrent renders to overlap
+			Thread.sleep(200);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				conditionalRequests.incrementAndGet();
+				if (status == 200) {
+					exchange.sendResponseHeaders(304, -1);
+					return;
+				}
+			}
+			if (status != 200) {
+				exchange.sendResponseHeaders(status, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", "image/gif");
+			exchange.getResponseHeaders().set("ETag", ETAG);
+			exchange.sendResponseHeaders(200, ICON.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(ICON);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private String getUrl(String name) {
+		return "http://localhost:" + server.getAddress().getPort() + "/img/icon/" + name;
+	}
+
+	private ImageCache createCache() throws IOException {
+		return new ImageCache(directory, httpclient, 60000, now::get);
+	}
+
+	@Test
+	public void testSingleDownloadForConcurrentRequests() throws Exception {
+		ImageCache cache = createCache();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Path>> files = new ArrayList<>();
+		try {
+			for (int i = 0; i < 8; i++) {
+				files.add(executor.submit(() -> {
+					start.await();
+					return cache.getFile(getUrl("25.gif"));
+				}));
+			}
+			start.countDown();
+			for (Future<Path> file : files)
+				Assert.assertEquals(files.get(0).get(), file.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals("the image should be downloaded once", 1, requests.get());
+		Path file = files.get(0).get();
+		Assert.assertTrue(file.getFileName().toString().matches("[0-9a-f]{64}\\.gif"));
+		Assert.assertArrayEquals(ICON, Files.readAllBytes(file));
+
+		Path other = cache.getFile(getUrl("25-copy.gif"));
+		Assert.assertEquals("same content should be stored once", file, other);
+		Assert.assertEquals(2, requests.get());
+
+		ImageCache reopened = createCache();
+		Assert.assertEquals(file, reopened.getFile(getUrl("25.gif")));
+		Assert.assertEquals("reopened cache should use the index", 2, requests.get());
+		Assert.assertEquals(file, reopened.findFile(file.getFileName().toString()));
+		Assert.assertNull(reopened.findFile("../" + ImageCache.INDEX_FILE));
+	}
+
+	@Test
+	public void testRevalidation() throws Exception {
+		ImageCache cache = createCache();
+		Path file = cache.getFile(getUrl("25.gif"));
+		now.addAndGet(60000);
+		Assert.assertEquals(file, cache.getFile(getUrl("25.gif")));
+		Assert.assertEquals(2, requests.get());
+		Assert.assertEquals("expired image should be revalidated conditionally", 1, conditionalRequests.get());
+		Assert.assertEquals(1, cache.getNotModified());
+		Assert.assertEquals(1, cache.getDownloaded());
+
+		now.addAndGet(60000);
+		status = 500;
+		Assert.assertEquals("stored image should be used if the host fails", file, cache.getFile(getUrl("25.gif")));
+		Assert.assertEquals(1, cache.getFailed());
+		now.addAndGet(30000);
+		Assert.assertEquals(file, cache.getFile(getUrl("25.gif")));
+		Assert.assertEquals("failed revalidation should not be repeated before the image expires again", 3, requests.get());
+		now.addAndGet(30000);
+		Assert.assertEquals(file, cache.getFile(getUrl("25.gif")));
+		Assert.assertEquals(4, requests.get());
+		Assert.assertEquals(2, cache.getFailed());
+		try {
+			cache.getFile(getUrl("9.gif"));
+			Assert.fail("missing image should not be found");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testExtensionIndependentOfLocale() {
+		Locale locale = Locale.getDefault();
+		try {
+			// the lower case of I is a dotless i in Turkish
+			Locale.setDefault(new Locale("tr", "TR"));
+			Assert.assertEquals(".gif", ImageCache.getExtension("IMAGE/GIF", "http://example.com/icon"));
+			Assert.assertEquals(".gif", ImageCache.getExtension(null, "http://example.com/ICON.GIF"));
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test
+	public void testRenderLocalImages() throws Exception {
+		ImageCache cache = createCache();
+		WeatherResponse response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(
+				Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"))));
+		for (Forecast forecast : response.getForecasts())
+			forecast.getImage().setUrl(getUrl(forecast.getImage().getUrl().replaceFirst(".*/", "")));
+
+		String inlined = new WeatherRenderer(true, false, cache.inlining()).toString(response);
+		Assert.assertTrue(inlined.contains("<img src=\"data:image/gif;base64," + Base64.getEncoder().encodeToString(ICON) + "\""));
+		Assert.assertFalse(inlined.contains(getUrl("")));
+
+		String linked = new WeatherRenderer(true, false, cache.linking("/images/")).toString(response);
+		String fileName = cache.getFile(getUrl("25.gif")).getFileName().toString();
+		Assert.assertTrue(linked.contains("<img src=\"/images/" + fileName + "\""));
+		Assert.assertEquals("each distinct icon should be downloaded once", 3, requests.get());
+
+		Assert.assertTrue("original images should be shown by default", new WeatherRenderer(true, false).toString(response).contains(getUrl("25.gif")));
+	}
+}
@@ -0,0 +1,145 @@
+package smkra.weather.http;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long FOREVER = Long.MAX_VALUE;
+
+	@Test
+	public void testBurstAndRate() {
+		AtomicLong now = new AtomicLong(1000 * MILLI);
+		RateLimiter limiter = new RateLimiter(10, 3, now::get);
+		long start = now.get();
+		for (int i = 0; i < 3; i++)
+			Assert.assertEquals("burst should be available at once", start, limiter.reserve(start, FOREVER));
+		Assert.assertEquals("next permit after the interval", start + 100 * MILLI, limiter.reserve(start, FOREVER));
+		Assert.assertEquals("permits should be queued", start + 200 * MILLI, limiter.reserve(start, FOREVER));
+		Assert.assertEquals("permit due after the deadline should not be reserved", RateLimiter.NOT_RESERVED, limiter.reserve(start, start + 250 * MILLI));
+		Assert.assertEquals(start + 300 * MILLI, limiter.reserve(start, FOREVER));
+
+		now.addAndGet(1000 * MILLI);
+		Assert.assertEquals("bucket should be refilled", now.get(), limiter.reserve(now.get(), FOREVER));
+		Assert.assertEquals(now.get(), limiter.reserve(now.get(), FOREVER));
+	}
+
+	@Test
+	public void testClockOrigin() throws Exception {
+		AtomicLong now = new AtomicLong(-1000 * MILLI);
+		RateLimiter negative = new RateLimiter(10, 2, now::get);
+		Assert.assertTrue("negative time should not be taken for a missing permit", negative.acquire(1, TimeUnit.SECONDS));
+		Assert.assertTrue(negative.acquireAsync(1, TimeUnit.SECONDS, null).get());
+		Assert.assertEquals(now.get() + 100 * MILLI, negative.reserve(now.get(), now.get() + 1000 * MILLI));
+
+		now.set(Long.MAX_VALUE - 50 * MILLI);
+		RateLimiter wrapping = new RateLimiter(10, 1, now::get);
+		long start = now.get();
+		Assert.assertEquals(start, wrapping.reserve(start, start + 1000 * MILLI));
+		Assert.assertEquals("time should wrap around", start + 100 * MILLI, wrapping.reserve(start, start + 1000 * MILLI));
+		Assert.assertEquals(RateLimiter.NOT_RESERVED, wrapping.reserve(start, start + 150 * MILLI));
+	}
+
+	@Test
+	public void testPause() {
+		AtomicLong now = new AtomicLong(1000 * MILLI);
+		RateLimiter limiter = new RateLimiter(10, 5, now::get);
+		limiter.pause(2000);
+		Assert.assertEquals(2000, limiter.getRemainingPause());
+		limiter.pause(500);
+		Assert.assertEquals("shorter pause should be ignored", 2000, limiter.getRemainingPause());
+		long start = now.get();
+		Assert.assertEquals("no permit during the pause", start + 2100 * MILLI, limiter.reserve(start, FOREVER));
+		Assert.assertEquals("stored permits should be dropped", start + 2200 * MILLI, limiter.reserve(start, FOREVER));
+		Assert.assertEquals("permit needed later should not be delayed", start + 5000 * MILLI, limiter.reserve(start + 5000 * MILLI, FOREVER));
+	}
+
+	@Test
+	public void testPauseKeepsQueuedPermitsApart() throws Exception {
+		RateLimiter limiter = new RateLimiter(10, 1);
+		Assert.assertTrue(limiter.acquire(1, TimeUnit.SECONDS));
+		long[] released = new long[2];
+		Thread[] callers = new Thread[2];
+		for (int i = 0; i < callers.length; i++) {
+			int caller = i;
+			callers[i] = new Thread(() -> {
+				try {
+					if (limiter.acquire(5, TimeUnit.SECONDS))
+						released[caller] = System.nanoTime();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			callers[i].start();
+			// the second caller queues behind the first
+			Thread.sleep(10);
+		}
+		long paused = System.nanoTime();
+		limiter.pause(300);
+		for (Thread caller : callers)
+			caller.join();
+		Assert.assertTrue("queued callers should wait for the pause", released[0] - paused >= 300 * MILLI);
+		Assert.assertTrue("queued callers should be released one interval apart, not at once",
+				Math.abs(released[1] - released[0]) >= 90 * MILLI);
+	}
+
+	@Test
+	public void testAcquire() throws Exception {
+		RateLimiter limiter = new RateLimiter(20, 1);
+		long start = System.nanoTime();
+		Assert.assertTrue(limiter.acquire(1, TimeUnit.SECONDS));
+		Assert.assertTrue(limiter.acquire(1, TimeUnit.SECONDS));
+		Assert.assertTrue("second permit should be waited for", System.nanoTime() - start >= 45 * MILLI);
+		limiter.pause(1000);
+		Assert.assertFalse("paused limiter should time out", limiter.acquire(100, TimeUnit.MILLISECONDS));
+		Assert.assertTrue("delay of the caller should count against the pause", limiter.acquire(1000, 100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testAcquireAsync() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			RateLimiter limiter = new RateLimiter(10, 1);
+			limiter.pause(200);
+			Assert.assertFalse("paused limiter should time out", limiter.acquireAsync(50, TimeUnit.MILLISECONDS, scheduler).get(1, TimeUnit.SECONDS));
+			long start = System.nanoTime();
+			Assert.assertTrue(limiter.acquireAsync(1, TimeUnit.SECONDS, scheduler).get(1, TimeUnit.SECONDS));
+			Assert.assertTrue("permit should be due after the pause", System.nanoTime() - start >= 100 * MILLI);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testServiceUnavailablePausesRequests() throws Exception {
+		CountingWeatherRequest request = new CountingWeatherRequest(HttpStatus.SC_SERVICE_UNAVAILABLE);
+		RateLimiter limiter = new RateLimiter(100, 10);
+		request.setRateLimiter(limiter);
+		request.setCache(null);
+		request.setRetryCount(0);
+		request.setSecondsBeforeRetry(2);
+		request.setMaxSecondsInQueue(0);
+		try {
+			request.getWeatherFromID("020010");
+			Assert.fail("failed request should throw an exception");
+		} catch (WeatherServiceException e) {
+			Assert.assertEquals("Service Unavailable", e.getMessage());
+		}
+		Assert.assertTrue("limiter should be paused", limiter.getRemainingPause() > 1000);
+		try {
+			request.getWeatherFromID("010010");
+			Assert.fail("request should not wait for the paused limiter");
+		} catch (WeatherServiceException e) {
+			Assert.assertEquals("Too many requests waiting for the weather service", e.getMessage());
+		}
+		Assert.assertEquals("paused request should not be sent", 1, request.requests.get());
+		request.closeHttpClient();
+	}
+}
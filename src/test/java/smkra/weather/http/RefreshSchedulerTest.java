@@ -0,0 +1,137 @@
+package smkra.weather.http;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import smkra.weather.model.WeatherResponse;
+
+public class RefreshSchedulerTest {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+	@Test
+	public void testCadence() {
+		PublicationCadence cadence = new PublicationCadence();
+		Assert.assertEquals("nothing observed", -1, cadence.getNextPublication());
+		long day = WeatherCache.getPublicTimeMillis("2018-03-10T05:00:00+0900", 0);
+		Assert.assertTrue(cadence.observe(day));
+		Assert.assertFalse("a single publication does not cover a day", cadence.coversDay());
+		Assert.assertTrue(cadence.observe(day + 6 * HOUR));
+		Assert.assertTrue(cadence.observe(day + 12 * HOUR + 5 * MINUTE));
+		Assert.assertFalse("older publication", cadence.observe(day + 6 * HOUR));
+		Assert.assertEquals(3, cadence.getSlots().size());
+		Assert.assertEquals("next morning expected", day + 24 * HOUR, cadence.getNextPublication());
+		Assert.assertTrue(cadence.observe(day + 24 * HOUR + 3 * MINUTE));
+		Assert.assertEquals("same slot as the day before", 3, cadence.getSlots().size());
+		Assert.assertTrue(cadence.coversDay());
+		Assert.assertEquals("next noon expected", day + 30 * HOUR, cadence.getNextPublication());
+	}
+
+	@Test
+	public void testNextRefresh() throws Exception {
+		AtomicLong now = new AtomicLong(WeatherCache.getPublicTimeMillis("2018-03-10T11:10:00+0900", 0));
+		CountingWeatherRequest request = new CountingWeatherRequest();
+		RefreshScheduler scheduler = new RefreshScheduler(request, Executors.newSingleThreadScheduledExecutor(), now::get);
+		try {
+			scheduler.setSpread(0);
+			scheduler.setLag(2 * MINUTE);
+			scheduler.setRetryDelay(15 * MINUTE);
+			Assert.assertEquals("failed refresh should be retried", now.get() + 15 * MINUTE, scheduler.getNextRefresh("020010", null));
+			long morning = WeatherCache.getPublicTimeMillis("2018-03-10T05:00:00+0900", 0);
+			long noon = WeatherCache.getPublicTimeMillis("2018-03-10T11:00:00+0900", 0);
+			scheduler.getNextRefresh("020010", published("2018-03-09T11:00:00+0900"));
+			scheduler.getNextRefresh("020010", published("2018-03-09T17:00:00+0900"));
+			scheduler.getNextRefresh("020010", published("2018-03-10T05:00:00+0900"));
+			Assert.assertEquals("evening publication expected", morning + 12 * HOUR + 2 * MINUTE,
+					scheduler.getNextRefresh("020010", published("2018-03-10T11:00:00+0900")));
+			now.set(noon + 12 * HOUR);
+			Assert.assertEquals("missed publication should be retried", now.get() + 15 * MINUTE,
+					scheduler.getNextRefresh("020010", published("2018-03-10T11:00:00+0900")));
+
+			scheduler.setSpread(10 * MINUTE);
+			long spread = scheduler.getNextRefresh("020010", null) - now.get() - 15 * MINUTE;
+			Assert.assertEquals("retry should not be spread", 0, spread);
+		} finally {
+			scheduler.close();
+			request.closeHttpClient();
+		}
+	}
+
+	@Test
+	public void testLearnSecondSlot() throws Exception {
+		long noon = WeatherCache.getPublicTimeMillis("2018-03-10T11:00:00+0900", 0);
+		long evening = noon + 6 * HOUR;
+		long[] publications = {noon, evening, noon + 18 * HOUR, noon + 24 * HOUR};
+		AtomicLong now = new AtomicLong(noon + 10 * MINUTE);
+		CountingWeatherRequest request = new CountingWeatherRequest();
+		RefreshScheduler scheduler = new RefreshScheduler(request, Executors.newSingleThreadScheduledExecutor(), now::get);
+		try {
+			scheduler.setSpread(0);
+			scheduler.setLag(2 * MINUTE);
+			scheduler.setProbeInterval(3 * HOUR);
+			Assert.assertEquals("further publications should be probed for", now.get() + 3 * HOUR,
+					scheduler.getNextRefresh("020010", published(noon)));
+			// refresh as scheduled, answering with the latest publication at the time
+			while (now.get() < noon + 24 * HOUR) {
+				long latest = noon;
+				for (long publication : publications) {
+					if (publication <= now.get())
+						latest = publication;
+				}
+				now.set(scheduler.getNextRefresh("020010", published(latest)));
+			}
+			Assert.assertEquals("next day's noon publication should be refreshed at its slot", noon + 24 * HOUR + 2 * MINUTE, now.get());
+			Assert.assertEquals("evening slot should have been learned", evening + 24 * HOUR + 2 * MINUTE,
+					scheduler.getNextRefresh("020010", published(noon + 24 * HOUR)));
+		} finally {
+			scheduler.close();
+			request.closeHttpClient();
+		}
+	}
+
+	@Test
+	public void testRefreshIntoCache() throws Exception {
+		StubWeatherServer server = new StubWeatherServer();
+		server.install();
+		WeatherRequest request = new WeatherRequest();
+		request.setCache(new WeatherCache(16, TimeUnit.DAYS.toMillis(100_000)));
+		RefreshScheduler scheduler = new RefreshScheduler(request);
+		try {
+			scheduler.setSpread(100);
+			scheduler.start(Arrays.asList("020010", "020020"));
+			long deadline = System.currentTimeMillis() + 5000;
+			// the next refresh is scheduled after the response was added to the cache
+			while ((request.getCache().size() < 2 || scheduler.getNextRefresh("020010") <= System.currentTimeMillis())
+					&& System.currentTimeMillis() < deadline)
+				Thread.sleep(20);
+			Assert.assertEquals("both cities should be cached", 2, request.getCache().size());
+			Assert.assertEquals("each city should be requested once", 2, server.getRequests());
+			int requests = server.getRequests();
+			request.getWeatherFromID("020010");
+			Assert.assertEquals("lookup should be answered from the cache", requests, server.getRequests());
+			Assert.assertTrue("next refresh should be scheduled", scheduler.getNextRefresh("020010") > System.currentTimeMillis());
+		} finally {
+			scheduler.close();
+			request.closeHttpClient();
+			server.stop();
+		}
+	}
+
+	private static WeatherResponse published(long publicTime) {
+		return published(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date(publicTime)));
+	}
+
+	private static WeatherResponse published(String publicTime) {
+		WeatherResponse response = new WeatherResponse();
+		response.setPublicTime(publicTime);
+		return response;
+	}
+}
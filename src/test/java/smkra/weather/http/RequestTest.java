@@ -3,15 +3,24 @@ package smkra.weather.http;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
 import org.junit.Assert;
 import org.junit.Test;
-import org.xml.sax.SAXException;
 
+import smkra.weather.metrics.Phase;
+import smkra.weather.metrics.WeatherMetrics;
 import smkra.weather.model.WeatherResponse;
 
 public class RequestTest {
@@ -107,6 +116,212 @@ public class RequestTest {
 		}
 	}
 	
+	@Test
+	public void testConcurrentRequestsCoalesced() throws Exception {
+		CountingWeatherRequest request = new CountingWeatherRequest();
+		request.setCache(null);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<WeatherResponse>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+				results.add(executor.submit(() -> request.getWeatherFromID("020010")));
+			WeatherResponse first = results.get(0).get();
+			for (Future<WeatherResponse> result : results)
+				Assert.assertSame("all callers should share the response", first, result.get());
+			Assert.assertEquals("only one request should be sent", 1, request.requests.get());
+		} finally {
+			executor.shutdown();
+			request.closeHttpClient();
+		}
+	}
+	
+	@Test
+	public void testAsyncThreadsBounded() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountingWeatherRequest request = new CountingWeatherRequest() {
+			@Override
+			protected WeatherResponse sendRequest(String cityID, int secondsToWait, boolean doWait) throws IOException, InterruptedException {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					return super.sendRequest(cityID, secondsToWait, doWait);
+				} finally {
+					running.decrementAndGet();
+				}
+			}
+		};
+		request.setCache(null);
+		request.setRateLimiter(null);
+		request.setCircuitBreaker(null);
+		try {
+			List<CompletableFuture<WeatherResponse>> results = new ArrayList<>();
+			for (int i = 0; i < 2 * WeatherRequest.ASYNC_THREADS; i++)
+				results.add(request.getWeatherFromIDAsync(String.format("%06d", i)));
+			for (CompletableFuture<WeatherResponse> result : results)
+				Assert.assertEquals(HttpStatus.SC_OK, result.get(10, TimeUnit.SECONDS).getHttpResponse().getStatusLine().getStatusCode());
+			Assert.assertTrue("at most " + WeatherRequest.ASYNC_THREADS + " threads expected, but " + maxRunning.get() + " were used",
+					maxRunning.get() <= WeatherRequest.ASYNC_THREADS);
+		} finally {
+			request.closeHttpClient();
+		}
+	}
+	
+	@Test
+	public void testAsyncRetry() throws Exception {
+		CountingWeatherRequest request = new CountingWeatherRequest(HttpStatus.SC_SERVICE_UNAVAILABLE, HttpStatus.SC_BAD_GATEWAY);
+		TestWeatherRequest.outStream = new PrintStream(new ByteArrayOutputStream(), true, "utf-8");
+		request.setSecondsBeforeRetry(0);
+		try {
+			WeatherResponse response = request.getWeatherFromIDAsync("020010").get(10, TimeUnit.SECONDS);
+			Assert.assertEquals("should succeed after two retries", HttpStatus.SC_OK, response.getHttpResponse().getStatusLine().getStatusCode());
+			Assert.assertEquals("three requests expected", 3, request.requests.get());
+		} finally {
+			request.closeHttpClient();
+		}
+	}
+	
+	@Test
+	public void testAsyncRetryExhausted() throws Exception {
+		CountingWeatherRequest request = new CountingWeatherRequest(HttpStatus.SC_SERVICE_UNAVAILABLE, HttpStatus.SC_SERVICE_UNAVAILABLE);
+		TestWeatherRequest.outStream = new PrintStream(new ByteArrayOutputStream(), true, "utf-8");
+		request.setSecondsBeforeRetry(0);
+		request.setRetryCount(1);
+		try {
+			request.getWeatherFromIDAsync("020010").get(10, TimeUnit.SECONDS);
+			Assert.fail("request should fail");
+		} catch (ExecutionException e) {
+			Assert.assertTrue("incorrect exception: "+e.getCause(), e.getCause() instanceof WeatherServiceException && e.getCause().getMessage().equals("Service Unavailable"));
+			Assert.assertEquals("two requests expected", 2, request.requests.get());
+		} finally {
+			request.closeHttpClient();
+		}
+	}
+	
+	@Test
+	public void testBackoff() throws Exception {
+		CountingWeatherRequest request = new CountingWeatherRequest();
+		request.setSecondsBeforeRetry(1);
+		request.setMaxSecondsBeforeRetry(10);
+		request.setMaxBackoffSeconds(4);
+		Assert.assertEquals("retry-after should be preferred", 3000, request.getBackoffMillis(5, 3));
+		for (int attempt = 0; attempt < 5; attempt++) {
+			long delay = request.getBackoffMillis(attempt, 30);
+			Assert.assertTrue("delay out of range: " + delay, delay >= 0 && delay <= Math.min(4000, 1000 << attempt));
+		}
+		request.closeHttpClient();
+	}
+	
+	@Test
+	public void testMetrics() throws Exception {
+		WeatherMetrics metrics = WeatherMetrics.GLOBAL;
+		StubWeatherServer server = new StubWeatherServer();
+		server.install();
+		WeatherRequest request = new WeatherRequest();
+		// the recorded response was published years ago
+		request.setCache(new WeatherCache(16, TimeUnit.DAYS.toMillis(100_000)));
+		try {
+			long connects = metrics.getHistogram(Phase.CONNECT).getCount();
+			long upstream = metrics.getHistogram(Phase.UPSTREAM).getCount();
+			long parsed = metrics.getHistogram(Phase.PARSE).getCount();
+			long hits = metrics.getCacheHits();
+			request.getWeatherFromID("020010");
+			request.getWeatherFromID("020010");
+			Assert.assertEquals("one connection expected", connects + 1, metrics.getHistogram(Phase.CONNECT).getCount());
+			Assert.assertEquals("one response expected", upstream + 1, metrics.getHistogram(Phase.UPSTREAM).getCount());
+			Assert.assertEquals("one response expected", parsed + 1, metrics.getHistogram(Phase.PARSE).getCount());
+			Assert.assertEquals("second request should be cached", hits + 1, metrics.getCacheHits());
+
+			Long retries = metrics.getRetriesByStatus().getOrDefault("503", 0L);
+			CountingWeatherRequest failing = new CountingWeatherRequest(HttpStatus.SC_SERVICE_UNAVAILABLE);
+			TestWeatherRequest.outStream = new PrintStream(new ByteArrayOutputStream(), true, "utf-8");
+			failing.setSecondsBeforeRetry(0);
+			failing.getWeatherFromID("020010");
+			failing.closeHttpClient();
+			Assert.assertEquals("retry should be counted", retries + 1, (long) metrics.getRetriesByStatus().get("503"));
+		} finally {
+			request.closeHttpClient();
+			server.stop();
+		}
+	}
+	
+	@Test
+	public void testCompressedResponse() throws Exception {
+		StubWeatherServer server = new StubWeatherServer();
+		server.install();
+		TransportConfig uncompressed = new TransportConfig();
+		uncompressed.setContentCompression(false);
+		WeatherRequest request = new WeatherRequest();
+		WeatherRequest plainRequest = new WeatherRequest(uncompressed);
+		try {
+			Assert.assertEquals("青森県 青森 の天気", request.getWeatherFromID("020010").getTitle());
+			Assert.assertEquals("response should be compressed", 1, server.getCompressedResponses());
+			Assert.assertEquals("青森県 青森 の天気", plainRequest.getWeatherFromID("020010").getTitle());
+			Assert.assertEquals("response should not be compressed", 1, server.getCompressedResponses());
+		} finally {
+			request.closeHttpClient();
+			plainRequest.closeHttpClient();
+			server.stop();
+		}
+	}
+	
+	@Test
+	public void testConnectionReuse() throws Exception {
+		WeatherMetrics metrics = WeatherMetrics.GLOBAL;
+		StubWeatherServer server = new StubWeatherServer();
+		server.install();
+		WeatherRequest request = new WeatherRequest();
+		request.setCache(null);
+		request.setRateLimiter(null);
+		try {
+			long connects = metrics.getHistogram(Phase.CONNECT).getCount();
+			for (int i = 0; i < 3; i++)
+				request.getWeatherFromID("020010");
+			Assert.assertEquals("three requests expected", 3, server.getRequests());
+			Assert.assertEquals("connection should be reused", connects + 1, metrics.getHistogram(Phase.CONNECT).getCount());
+			Assert.assertEquals("connection should be kept in the pool", 1, request.getTransport().getAvailableConnections());
+		} finally {
+			request.closeHttpClient();
+			server.stop();
+		}
+		Assert.assertEquals("closing should shut down the pool", 0, request.getTransport().getAvailableConnections());
+	}
+	
+	@Test
+	public void testAsyncTransport() throws Exception {
+		StubWeatherServer server = new StubWeatherServer();
+		server.install();
+		TransportConfig config = new TransportConfig();
+		config.setIoThreads(1);
+		config.setMaxPerRoute(20);
+		WeatherRequest request = new WeatherRequest(config);
+		request.setCache(null);
+		request.setRateLimiter(null);
+		try {
+			WeatherResponse response = request.getWeatherFromIDAsync("020010").get(10, TimeUnit.SECONDS);
+			Assert.assertEquals("async response should be decoded like a blocking one", request.getWeatherFromID("020010").toString(true, true), response.toString(true, true));
+			Assert.assertEquals("both responses should be compressed", 2, server.getCompressedResponses());
+
+			List<CompletableFuture<WeatherResponse>> responses = new ArrayList<>();
+			for (int i = 0; i < 200; i++)
+				responses.add(request.getWeatherFromIDAsync(String.format("%06d", i)));
+			for (CompletableFuture<WeatherResponse> city : responses)
+				Assert.assertEquals("青森県 青森 の天気", city.get(10, TimeUnit.SECONDS).getTitle());
+			Assert.assertEquals("each city should be requested", 202, server.getRequests());
+		} finally {
+			request.closeHttpClient();
+			server.stop();
+		}
+	}
+	
+	@Test
+	public void testParseRetryAfter() {
+		long now = DateUtils.parseDate("Sun, 10 Mar 2018 11:00:00 GMT").getTime();
+		Assert.assertEquals(120, WeatherRequest.parseRetryAfter("120", now));
+		Assert.assertEquals(30, WeatherRequest.parseRetryAfter("Sun, 10 Mar 2018 11:00:30 GMT", now));
+		Assert.assertEquals(0, WeatherRequest.parseRetryAfter("Sun, 10 Mar 2018 10:00:00 GMT", now));
+		Assert.assertEquals(-1, WeatherRequest.parseRetryAfter("soon", now));
+	}
+	
 }
 
 class TestWeatherRequest extends WeatherRequest{
@@ -114,13 +329,13 @@ class TestWeatherRequest extends WeatherRequest{
 	private String retryAfter;
 	private int error;
 	
-	protected TestWeatherRequest(int error, String retryAfter) throws IOException, WeatherServiceException, SAXException, ParserConfigurationException{
+	protected TestWeatherRequest(int error, String retryAfter){
 		super();
 		this.retryAfter = retryAfter;
 		this.error = error;
 	}
 	
-	protected TestWeatherRequest(int error) throws IOException, WeatherServiceException, SAXException, ParserConfigurationException{
+	protected TestWeatherRequest(int error){
 		this(error,"-1");
 	}
 	
@@ -0,0 +1,91 @@
+package smkra.weather.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import smkra.weather.model.Forecast;
+import smkra.weather.model.WeatherResponse;
+
+public class ResponseDecoderTest {
+
+	private static byte[] json;
+
+	@BeforeClass
+	public static void loadJson() throws Exception {
+		json = Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"));
+	}
+
+	@Test
+	public void testDecodeFull() throws Exception {
+		WeatherResponse response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+		Assert.assertEquals("青森県 青森 の天気", response.getTitle());
+		Assert.assertEquals("2018-03-10T11:00:00+0900", response.getPublicTime());
+		Assert.assertEquals("青森県", response.getLocation().getPref());
+		Assert.assertEquals(19, response.getPinpointLocations().length);
+		Assert.assertEquals("青森市", response.getPinpointLocations()[0].getName());
+		Assert.assertEquals("(C) LINE Corporation", response.getCopyright().getTitle());
+		Assert.assertTrue(response.getDescription().getText().contains("冬型の気圧配置"));
+		Forecast tomorrow = response.getForecasts()[1];
+		Assert.assertEquals("明日", tomorrow.getDateLabel());
+		Assert.assertEquals("-2", tomorrow.getTemperature().getMin().getCelsius());
+		Assert.assertEquals(31, tomorrow.getImage().getHeight());
+		Assert.assertNull(response.getForecasts()[0].getTemperature().getMin());
+
+		WeatherResponse reflective = new Gson().fromJson(new InputStreamReader(new ByteArrayInputStream(json), "utf-8"), WeatherResponse.class);
+		Assert.assertEquals("should render like the reflective decoding", reflective.toString(true, true), response.toString(true, true));
+	}
+
+	@Test
+	public void testSkipParts() throws Exception {
+		WeatherResponse response = new WeatherResponseDecoder(false, false, false).decode(new ByteArrayInputStream(json));
+		Assert.assertNull(response.getDescription());
+		Assert.assertNull(response.getPinpointLocations());
+		Assert.assertNull(response.getCopyright());
+		Assert.assertEquals(3, response.getForecasts().length);
+		Assert.assertFalse(response.toString(false, false).isEmpty());
+	}
+
+	@Test
+	public void testEncode() throws Exception {
+		WeatherResponseDecoder decoder = WeatherResponseDecoder.FULL;
+		WeatherResponse response = decoder.decode(new ByteArrayInputStream(json));
+		String encoded = decoder.getGson().toJson(response);
+		WeatherResponse decoded = decoder.decode(new ByteArrayInputStream(encoded.getBytes("utf-8")));
+		Assert.assertEquals(response.toString(true, true), decoded.toString(true, true));
+	}
+
+	@Test
+	public void testDecodeLikeReflective() throws Exception {
+		WeatherResponse reflective = new Gson().fromJson(new InputStreamReader(new ByteArrayInputStream(json), "utf-8"), WeatherResponse.class);
+		WeatherResponse lean = new WeatherResponseDecoder(false, false, false).decode(new ByteArrayInputStream(json));
+		for (boolean html : new boolean[] { false, true })
+			Assert.assertEquals("skipped parts should not be rendered without detail", reflective.toString(html, false), lean.toString(html, false));
+	}
+
+	@Test
+	public void testInvalidNumber() throws Exception {
+		byte[] invalid = new String(json, "utf-8").replace("\"width\":50", "\"width\":\"wide\"").getBytes("utf-8");
+		try {
+			new Gson().fromJson(new InputStreamReader(new ByteArrayInputStream(invalid), "utf-8"), WeatherResponse.class);
+			Assert.fail("reflective decoding should reject the number");
+		} catch (JsonParseException e) {
+			// expected
+		}
+		try {
+			WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(invalid));
+			Assert.fail("invalid number should be rejected");
+		} catch (IOException e) {
+			Assert.assertEquals("Invalid weather information", e.getMessage());
+		}
+	}
+}
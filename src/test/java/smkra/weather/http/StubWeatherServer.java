@@ -0,0 +1,127 @@
+package smkra.weather.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server answering every request to <code>/forecast</code> with a recorded response of the
+ * weather API, so requests can be tested and measured without the real service. Responses are gzip compressed if
+ * the client accepts it.
+ */
+public class StubWeatherServer {
+
+	private final HttpServer server;
+	private volatile byte[] json;
+	private String originalUri;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger compressedResponses = new AtomicInteger();
+	private volatile int status = 200;
+
+	/**
+	 * Creates and starts a server answering with the recorded response in
+	 * <code>src/test/resources/forecast_020010.json</code>.
+	 * @throws IOException if the response could not be read or the server could not be started
+	 */
+	public StubWeatherServer() throws IOException {
+		// without TCP_NODELAY every response waits for the delayed ACK of the client
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		json = Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"));
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool(new DaemonThreadFactory("stub-server")));
+		server.createContext("/forecast", this::handle);
+		server.start();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			int status = this.status;
+			byte[] body = status == 200 ? json : new byte[0];
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if (body.length > 0 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+					gzip.write(body);
+				}
+				body = compressed.toByteArray();
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				compressedResponses.incrementAndGet();
+			}
+			exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+			if (body.length > 0) {
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return the URI to append the city ID to, as used by {@link WeatherRequest}
+	 */
+	public String getUri() {
+		return "http://localhost:" + server.getAddress().getPort() + "/forecast?city=";
+	}
+
+	/**
+	 * Sets the status code of the following responses, only 200 responses have content.
+	 * @param status the status code
+	 */
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public int getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of responses sent gzip compressed, because the client accepted it
+	 */
+	public int getCompressedResponses() {
+		return compressedResponses.get();
+	}
+
+	public byte[] getJson() {
+		return json;
+	}
+
+	/**
+	 * Sets the content of the following 200 responses.
+	 * @param json the content
+	 */
+	public void setJson(byte[] json) {
+		this.json = json;
+	}
+
+	/**
+	 * Lets all {@link WeatherRequest}s send their requests to this server, until {@link #stop()} is called.
+	 */
+	public void install() {
+		if (originalUri == null)
+			originalUri = WeatherRequest.URI;
+		WeatherRequest.URI = getUri();
+	}
+
+	/**
+	 * Stops the server and restores the URI of the weather API, if it was changed by {@link #install()}.
+	 */
+	public void stop() {
+		if (originalUri != null)
+			WeatherRequest.URI = originalUri;
+		server.stop(0);
+	}
+}
@@ -0,0 +1,66 @@
+package smkra.weather.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import smkra.weather.model.WeatherResponse;
+
+public class WeatherCacheTest {
+
+	private static final String PUBLIC_TIME = "2018-03-10T11:00:00+0900";
+	private static final long PUBLISHED = WeatherCache.getPublicTimeMillis(PUBLIC_TIME, -1);
+	private static final long HOUR = 3600000L;
+
+	@Test
+	public void testExpiryFromPublicTime() {
+		AtomicLong now = new AtomicLong(PUBLISHED + HOUR);
+		WeatherCache cache = new WeatherCache(10, 2 * HOUR, now::get);
+		WeatherResponse response = createResponse(PUBLIC_TIME);
+		cache.put("020010", response);
+		WeatherResponse cached = cache.get("020010");
+		Assert.assertEquals("response should be cached", PUBLIC_TIME, cached.getPublicTime());
+		Assert.assertEquals(response.getTitle(), cached.getTitle());
+		Assert.assertNotSame("cache should give a copy", response, cached);
+		now.set(PUBLISHED + 2 * HOUR);
+		Assert.assertNull("response should be expired", cache.get("020010"));
+		Assert.assertEquals("hits", 1, cache.getHitCount());
+		Assert.assertEquals("misses", 1, cache.getMissCount());
+		Assert.assertEquals("expired response should be removed", 0, cache.size());
+	}
+
+	@Test
+	public void testExpiredResponseNotAdded() {
+		WeatherCache cache = new WeatherCache(10, HOUR, () -> PUBLISHED + 2 * HOUR);
+		cache.put("020010", createResponse(PUBLIC_TIME));
+		Assert.assertEquals("expired response should not be added", 0, cache.size());
+	}
+
+	@Test
+	public void testMissingPublicTime() {
+		WeatherCache cache = new WeatherCache(10, HOUR, () -> PUBLISHED);
+		cache.put("020010", createResponse("invalid"));
+		Assert.assertNotNull("response should be cached from now on", cache.get("020010"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		WeatherCache cache = new WeatherCache(2, HOUR, () -> PUBLISHED);
+		cache.put("1", createResponse(PUBLIC_TIME));
+		cache.put("2", createResponse(PUBLIC_TIME));
+		cache.get("1");
+		cache.put("3", createResponse(PUBLIC_TIME));
+		Assert.assertNotNull("recently used response should be kept", cache.get("1"));
+		Assert.assertNull("least recently used response should be evicted", cache.get("2"));
+		Assert.assertNotNull("new response should be cached", cache.get("3"));
+		Assert.assertEquals("evictions", 1, cache.getEvictionCount());
+	}
+
+	private static WeatherResponse createResponse(String publicTime) {
+		WeatherResponse response = new WeatherResponse();
+		response.setPublicTime(publicTime);
+		response.setTitle("青森県 青森 の天気");
+		return response;
+	}
+}
@@ -0,0 +1,110 @@
+package smkra.weather.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import smkra.weather.http.StubWeatherServer;
+import smkra.weather.http.WeatherRequest;
+
+public class ForecastExporterTest {
+
+	private static final int CITIES = 142;
+
+	private StubWeatherServer server;
+	private WeatherRequest request;
+	private ByteArrayOutputStream messages;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubWeatherServer();
+		server.install();
+		request = new WeatherRequest();
+		request.setCache(null);
+		request.setRateLimiter(null);
+		messages = new ByteArrayOutputStream();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		request.closeHttpClient();
+		server.stop();
+	}
+
+	@Test
+	public void testNdjson() throws Exception {
+		CountingWriter out = new CountingWriter();
+		ForecastExporter exporter = export(ForecastExporter.Format.NDJSON, out);
+		Assert.assertEquals(CITIES, exporter.getExported());
+		Assert.assertEquals(0, exporter.getFailed());
+		String[] lines = out.toString().split("\n");
+		Assert.assertEquals(CITIES * 3, lines.length);
+		Assert.assertEquals(CITIES * 3, exporter.getRows());
+		Assert.assertTrue("output should be flushed per city", out.flushes >= CITIES);
+		Set<String> cities = new HashSet<>();
+		for (String line : lines) {
+			JsonObject row = new JsonParser().parse(line).getAsJsonObject();
+			cities.add(row.get("cityId").getAsString());
+			if (row.get("cityId").getAsString().equals("020010") && row.get("dateLabel").getAsString().equals("明日")) {
+				Assert.assertEquals("青森", row.get("city").getAsString());
+				Assert.assertEquals("2018-03-10T11:00:00+0900", row.get("publicTime").getAsString());
+				Assert.assertEquals("temperature should be a number", -2, row.get("min").getAsInt());
+			}
+			if (row.get("dateLabel").getAsString().equals("今日"))
+				Assert.assertTrue("missing temperature should be null", row.get("min").isJsonNull());
+		}
+		Assert.assertEquals("every city should be exported once", CITIES, cities.size());
+		Assert.assertTrue(messages.toString("UTF-8").startsWith(CITIES + " cities exported with " + CITIES * 3 + " rows, 0 failed"));
+	}
+
+	@Test
+	public void testCsv() throws Exception {
+		CountingWriter out = new CountingWriter();
+		export(ForecastExporter.Format.CSV, out);
+		String[] lines = out.toString().split("\n");
+		Assert.assertEquals(CITIES * 3 + 1, lines.length);
+		Assert.assertEquals("cityId,city,pref,publicTime,date,dateLabel,telop,min,max", lines[0]);
+		boolean found = false;
+		for (int i = 1; i < lines.length; i++) {
+			if (lines[i].startsWith("020010,青森,青森県,2018-03-10T11:00:00+0900,") && lines[i].contains(",今日,")) {
+				Assert.assertTrue("missing temperature should be empty", lines[i].matches(".*,今日,[^,]*,,[0-9-]*"));
+				found = true;
+			}
+		}
+		Assert.assertTrue(found);
+	}
+
+	@Test
+	public void testCsvQuoting() {
+		StringBuilder row = new StringBuilder();
+		ForecastExporter.appendCsv(row, new String[] {"a,b", "say \"hi\"", null, "1"});
+		Assert.assertEquals("\"a,b\",\"say \"\"hi\"\"\",,1\n", row.toString());
+	}
+
+	private ForecastExporter export(ForecastExporter.Format format, StringWriter out) throws Exception {
+		ForecastExporter exporter = new ForecastExporter(request, 8, format, new PrintStream(messages, true, "UTF-8"));
+		exporter.export(out);
+		return exporter;
+	}
+
+	private static class CountingWriter extends StringWriter {
+		int flushes;
+
+		@Override
+		public void flush() {
+			flushes++;
+			super.flush();
+		}
+	}
+}
@@ -159,6 +159,26 @@ public class ParameterTest {
     	}
 	}
     
+	@Test
+	public void testBulkWrongCity() {
+		File listFile = new File("data/test_list.txt");
+		try {
+			Files.write(listFile.toPath(), "# city file\nウィーン data/test_wien\n\nbroken line with three\n".getBytes("utf-8"));
+    		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    		PrintStream ps = new PrintStream(baos, true, "utf-8");
+    		WeatherService.outStream = ps;
+	    	WeatherService.main(new String[]{"-b",listFile.getPath(),"-t","2"});
+	    	String output = baos.toString("utf-8");
+	    	Assert.assertTrue("should report failed city", output.contains("NG ウィーン: Could not get weather information for specified city."));
+	    	Assert.assertTrue("should report invalid line", output.contains("NG line 4"));
+	    	Assert.assertTrue("should print summary", output.contains("0 succeeded, 2 failed in "));
+    	} catch (Exception e) {
+    		Assert.fail("no exception should be thrown"+e.getMessage());
+    	} finally {
+    		listFile.delete();
+    	}
+	}
+    
     private boolean testFileContent(String includedString) throws IOException {
     	String content = new String ( Files.readAllBytes( Paths.get(testFileName)));
     	return content.contains(includedString);
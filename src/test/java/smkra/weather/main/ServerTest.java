@@ -0,0 +1,116 @@
+package smkra.weather.main;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import smkra.weather.http.WeatherRequest;
+
+public class ServerTest {
+
+	private static WeatherRequest request;
+	private static WeatherServer server;
+
+	@BeforeClass
+	public static void startServer() throws Exception {
+		request = new WeatherRequest();
+		server = new WeatherServer(request, 0, 2);
+		server.start();
+	}
+
+	@AfterClass
+	public static void stopServer() throws IOException {
+		server.stop();
+		request.closeHttpClient();
+	}
+
+	@Test
+	public void testMissingCity() throws IOException {
+		Assert.assertEquals("missing city should be rejected", 400, getStatus("/weather?format=html"));
+	}
+
+	@Test
+	public void testMalformedQuery() throws IOException {
+		Assert.assertEquals("malformed escape should be rejected", 400, getStatus("/weather?city=%zz"));
+		Assert.assertEquals("incomplete escape should be rejected", 400, getStatus("/suggest?q=%E9%9"));
+	}
+
+	@Test
+	public void testUnknownCity() throws IOException {
+		Assert.assertEquals("unknown city should not be found", 404,
+				getStatus("/weather?city=%E3%82%A6%E3%82%A3%E3%83%BC%E3%83%B3"));
+	}
+
+	@Test
+	public void testWrongMethod() throws IOException {
+		HttpURLConnection connection = open("/weather?city=test");
+		connection.setRequestMethod("DELETE");
+		Assert.assertEquals("only GET should be supported", 405, connection.getResponseCode());
+	}
+
+	@Test
+	public void testSuggest() throws IOException {
+		HttpURLConnection connection = open("/suggest?q=tokio&limit=3");
+		Assert.assertEquals(200, connection.getResponseCode());
+		try (Scanner scanner = new Scanner(connection.getInputStream(), "UTF-8")) {
+			Assert.assertEquals("130010\t東京\t東京都", scanner.nextLine());
+		}
+		Assert.assertEquals("missing name should be rejected", 400, getStatus("/suggest"));
+	}
+
+	@Test
+	public void testCompressedResponse() throws IOException {
+		HttpURLConnection connection = open("/suggest?q=s&limit=50");
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		Assert.assertEquals(200, connection.getResponseCode());
+		Assert.assertEquals("gzip", connection.getContentEncoding());
+		try (Scanner scanner = new Scanner(new GZIPInputStream(connection.getInputStream()), "UTF-8")) {
+			Assert.assertTrue(scanner.nextLine().matches("\\d{6}\t.+\t.+"));
+		}
+	}
+
+	@Test
+	public void testAcceptsGzip() {
+		Assert.assertTrue(WeatherServer.acceptsGzip("gzip, deflate"));
+		Assert.assertTrue(WeatherServer.acceptsGzip("deflate;q=1.0, GZIP;q=0.5"));
+		Assert.assertTrue(WeatherServer.acceptsGzip("*"));
+		Assert.assertFalse("q=0 should refuse gzip", WeatherServer.acceptsGzip("gzip;q=0, deflate"));
+		Assert.assertFalse(WeatherServer.acceptsGzip("gzip; q=0.000"));
+		Assert.assertFalse("gzip listed on its own should win over the wildcard", WeatherServer.acceptsGzip("*, gzip;q=0"));
+		Assert.assertFalse(WeatherServer.acceptsGzip("identity"));
+		Assert.assertFalse(WeatherServer.acceptsGzip(null));
+	}
+
+	@Test
+	public void testMetrics() throws IOException {
+		HttpURLConnection connection = open("/metrics");
+		Assert.assertEquals(200, connection.getResponseCode());
+		Assert.assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+		try (Scanner scanner = new Scanner(connection.getInputStream(), "UTF-8")) {
+			String text = scanner.useDelimiter("\\A").next();
+			Assert.assertTrue(text, text.contains("weather_phase_seconds_count{phase=\"area_load\"}"));
+		}
+	}
+
+	@Test
+	public void testParseQuery() throws Exception {
+		Assert.assertEquals("青森", WeatherServer.parseQuery("city=%E9%9D%92%E6%A3%AE&detail=true").get("city"));
+		Assert.assertEquals("true", WeatherServer.parseQuery("city=x&detail=true").get("detail"));
+		Assert.assertTrue(WeatherServer.parseQuery(null).isEmpty());
+	}
+
+	private static int getStatus(String path) throws IOException {
+		return open(path).getResponseCode();
+	}
+
+	private static HttpURLConnection open(String path) throws IOException {
+		return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+	}
+}
@@ -0,0 +1,133 @@
+package smkra.weather.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import smkra.weather.http.StubWeatherServer;
+import smkra.weather.http.WeatherRequest;
+
+public class SiteGeneratorTest {
+
+	private static final int CITIES = 142;
+
+	private StubWeatherServer server;
+	private WeatherRequest request;
+	private Path directory;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubWeatherServer();
+		server.install();
+		request = new WeatherRequest();
+		request.setCache(null);
+		request.setRateLimiter(null);
+		directory = Files.createTempDirectory("site");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		request.closeHttpClient();
+		server.stop();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testIncrementalGeneration() throws Exception {
+		SiteGenerator first = generate();
+		Assert.assertEquals("all pages should be written", CITIES, first.getWritten());
+		Assert.assertEquals(0, first.getFailed());
+		Path aomori = directory.resolve("020010.html");
+		Assert.assertTrue(new String(Files.readAllBytes(aomori), StandardCharsets.UTF_8).contains("青森"));
+		String index = new String(Files.readAllBytes(directory.resolve(SiteGenerator.INDEX_PAGE)), StandardCharsets.UTF_8);
+		Assert.assertTrue("index should group by prefecture", index.contains("<h2>青森県</h2>\n<ul>\n<li><a href=\"020010.html\">青森</a></li>"));
+
+		long modified = Files.getLastModifiedTime(aomori).toMillis();
+		SiteGenerator second = generate();
+		Assert.assertEquals("no page should be written", 0, second.getWritten());
+		Assert.assertEquals(CITIES, second.getUnchanged());
+		Assert.assertEquals("page should not be touched", modified, Files.getLastModifiedTime(aomori).toMillis());
+
+		Files.delete(aomori);
+		Assert.assertEquals("deleted page should be written", 1, generate().getWritten());
+
+		server.setJson(new String(server.getJson(), StandardCharsets.UTF_8).replace("雪のち曇", "晴").getBytes(StandardCharsets.UTF_8));
+		Assert.assertEquals("changed pages should be written", CITIES, generate().getWritten());
+		try (Stream<Path> files = Files.list(directory)) {
+			Assert.assertEquals("no temporary files should be left", 0, files.filter(file -> file.toString().endsWith(".tmp")).count());
+		}
+	}
+
+	@Test
+	public void testCompressedCopies() throws Exception {
+		generate();
+		Path compressed = directory.resolve("020010.html.gz");
+		Assert.assertFalse("no compressed copy expected", Files.exists(compressed));
+		SiteGenerator generator = generate(true);
+		Assert.assertEquals("pages did not change", 0, generator.getWritten());
+		Assert.assertTrue("missing compressed copies should be written", Files.exists(compressed));
+		Assert.assertTrue(Files.exists(directory.resolve(SiteGenerator.INDEX_PAGE + ".gz")));
+		Assert.assertArrayEquals("compressed copy should equal the page", Files.readAllBytes(directory.resolve("020010.html")),
+				gunzip(compressed));
+	}
+
+	@Test
+	public void testOutdatedCompressedCopy() throws Exception {
+		generate(true);
+		Path page = directory.resolve("020010.html");
+		Path compressed = directory.resolve("020010.html.gz");
+		server.setJson(new String(server.getJson(), StandardCharsets.UTF_8).replace("雪のち曇", "晴").getBytes(StandardCharsets.UTF_8));
+		generate(false);
+		Assert.assertFalse("outdated compressed copy should be removed", Files.exists(compressed));
+		generate(true);
+		Assert.assertArrayEquals("compressed copy should equal the changed page", Files.readAllBytes(page), gunzip(compressed));
+
+		// copy written by an older version, which did not record the hash of the compressed copies
+		try (OutputStream out = WeatherService.gzip(Files.newOutputStream(compressed))) {
+			out.write("old".getBytes(StandardCharsets.UTF_8));
+		}
+		Path hashes = directory.resolve(SiteGenerator.HASH_FILE);
+		Files.write(hashes, Files.readAllLines(hashes).stream().filter(line -> !line.startsWith("020010.html.gz "))
+				.collect(Collectors.toList()));
+		Assert.assertEquals("page did not change", 0, generate(true).getWritten());
+		Assert.assertArrayEquals("copy without recorded hash should be written again", Files.readAllBytes(page), gunzip(compressed));
+	}
+
+	private static byte[] gunzip(Path file) throws IOException {
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		}
+	}
+
+	private SiteGenerator generate() throws Exception {
+		return generate(false);
+	}
+
+	private SiteGenerator generate(boolean gzip) throws Exception {
+		SiteGenerator generator = new SiteGenerator(request, 4, false, new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+		generator.setGzip(gzip);
+		generator.generate(directory);
+		return generator;
+	}
+}
@@ -0,0 +1,94 @@
+package smkra.weather.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void testBuckets() {
+		for (long value : new long[] { 0, 1, 7, 8, 15, 16, 1000, 123_456_789L, Long.MAX_VALUE }) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			Assert.assertTrue("value " + value + " above its bucket", value <= LatencyHistogram.upperBoundOf(bucket));
+			if (bucket > 0)
+				Assert.assertTrue("value " + value + " below its bucket", value > LatencyHistogram.upperBoundOf(bucket - 1));
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i * 1_000_000L);
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(1000_000_000L, histogram.getMax());
+		assertNear(500_000_000L, histogram.getPercentile(0.5));
+		assertNear(950_000_000L, histogram.getPercentile(0.95));
+		assertNear(990_000_000L, histogram.getPercentile(0.99));
+		Assert.assertEquals(0, new LatencyHistogram().getPercentile(0.5));
+	}
+
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int t = 0; t < 8; t++) {
+			executor.execute(() -> {
+				for (int i = 0; i < 10_000; i++)
+					histogram.record(i);
+			});
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals(80_000, histogram.getCount());
+		Assert.assertEquals(8L * (9_999L * 10_000L / 2), histogram.getSum());
+		Assert.assertEquals(9_999, histogram.getMax());
+	}
+
+	@Test
+	public void testPrometheusText() {
+		WeatherMetrics metrics = new WeatherMetrics();
+		metrics.record(Phase.PARSE, System.nanoTime() - 2_000_000L);
+		metrics.recordRetry(503);
+		metrics.recordRetry(503);
+		metrics.recordRetry(0);
+		metrics.recordRetryAfter(3);
+		metrics.recordCacheLookup(true);
+		String text = metrics.getPrometheusText();
+		Assert.assertTrue(text, text.contains("# TYPE weather_phase_seconds summary\n"));
+		Assert.assertTrue(text, text.contains("weather_phase_seconds_count{phase=\"parse\"} 1\n"));
+		Assert.assertTrue(text, text.contains("weather_phase_seconds_count{phase=\"render\"} 0\n"));
+		Assert.assertTrue(text, text.contains("weather_retries_total{status=\"503\"} 2\n"));
+		Assert.assertTrue(text, text.contains("weather_retries_total{status=\"none\"} 1\n"));
+		Assert.assertTrue(text, text.contains("weather_retry_after_seconds_total 3\n"));
+		Assert.assertTrue(text, text.contains("weather_cache_hits_total 1\n"));
+		Assert.assertTrue(text, text.contains("weather_cache_misses_total 0\n"));
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		WeatherMetrics.GLOBAL.register();
+		WeatherMetrics.GLOBAL.register();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(WeatherMetrics.OBJECT_NAME);
+		Assert.assertTrue(server.isRegistered(name));
+		Assert.assertEquals(WeatherMetrics.GLOBAL.getCacheHits(), server.getAttribute(name, "CacheHits"));
+		Assert.assertNotNull(server.getAttribute(name, "Latencies"));
+	}
+
+	/**
+	 * Checks a percentile against the exact value, allowing the error of the bucket width.
+	 */
+	private static void assertNear(long expected, long actual) {
+		Assert.assertTrue("expected about " + expected + " but was " + actual,
+				actual >= expected && actual <= expected + expected / 8);
+	}
+}
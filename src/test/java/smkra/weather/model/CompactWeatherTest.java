@@ -0,0 +1,109 @@
+package smkra.weather.model;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import smkra.weather.http.WeatherResponseDecoder;
+
+public class CompactWeatherTest {
+
+	private static byte[] json;
+
+	@BeforeClass
+	public static void loadJson() throws Exception {
+		json = Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		WeatherResponse response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+		CompactWeather compact = CompactWeather.of(response);
+		WeatherResponse restored = compact.toWeatherResponse();
+		Assert.assertNull(restored.getHttpResponse());
+		Assert.assertEquals(response.toString(true, true), restored.toString(true, true));
+		Assert.assertEquals(response.toString(false, true), restored.toString(false, true));
+		Assert.assertEquals(response.getPublicTime(), restored.getPublicTime());
+		Assert.assertEquals(response.getDescription().getPublicTime(), restored.getDescription().getPublicTime());
+		Assert.assertEquals(19, restored.getPinpointLocations().length);
+		Assert.assertEquals(response.getCopyright().getProvider()[0].getName(), restored.getCopyright().getProvider()[0].getName());
+
+		Assert.assertEquals(3, compact.getForecastCount());
+		Assert.assertEquals("明日", compact.getDateLabel(1));
+		Assert.assertEquals(response.getForecasts()[1].getTelop(), compact.getTelop(1));
+		Assert.assertEquals(-20, compact.getMinTenths(1));
+		Assert.assertEquals(CompactWeather.NO_TEMPERATURE, compact.getMinTenths(0));
+		Assert.assertEquals("should share the telop code", CompactWeather.of(response).getTelopCode(1), compact.getTelopCode(1));
+	}
+
+	@Test
+	public void testSkippedParts() throws Exception {
+		WeatherResponse response = new WeatherResponseDecoder(false, false, false).decode(new ByteArrayInputStream(json));
+		WeatherResponse restored = CompactWeather.of(response).toWeatherResponse();
+		Assert.assertNull(restored.getDescription());
+		Assert.assertNull(restored.getPinpointLocations());
+		Assert.assertNull(restored.getCopyright());
+		Assert.assertEquals(response.toString(true, false), restored.toString(true, false));
+	}
+
+	@Test
+	public void testTemperatures() {
+		Degree degree = new Degree();
+		degree.setCelsius("-2.5");
+		Assert.assertEquals(-25, CompactWeather.toTenths(degree));
+		Assert.assertEquals("-2.5", CompactWeather.toDegree((short) -25).getCelsius());
+		Assert.assertEquals("27.5", CompactWeather.toDegree((short) -25).getFahrenheit());
+		Assert.assertEquals("0", CompactWeather.toDegree((short) 0).getCelsius());
+		Assert.assertEquals("39.2", CompactWeather.toDegree((short) 40).getFahrenheit());
+		degree.setCelsius("n/a");
+		Assert.assertEquals(CompactWeather.NO_TEMPERATURE, CompactWeather.toTenths(degree));
+		Assert.assertNull(CompactWeather.toDegree(CompactWeather.NO_TEMPERATURE));
+	}
+
+	@Test
+	public void testDictionary() {
+		CodeDictionary dictionary = new CodeDictionary();
+		Assert.assertEquals(0, dictionary.codeOf(null));
+		Assert.assertNull(dictionary.valueOf((short) 0));
+		short sunny = dictionary.codeOf("晴れ");
+		Assert.assertEquals(sunny, dictionary.codeOf(new String("晴れ")));
+		for (int i = 0; i < 100; i++)
+			Assert.assertEquals("value" + i, dictionary.valueOf(dictionary.codeOf("value" + i)));
+		Assert.assertEquals("晴れ", dictionary.valueOf(sunny));
+		Assert.assertEquals(101, dictionary.size());
+		try {
+			dictionary.valueOf((short) 1000);
+			Assert.fail("unknown code should be rejected");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("Unknown code 1000", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testDictionaryWithStoredCodes() {
+		CodeDictionary dictionary = new CodeDictionary();
+		dictionary.put((short) 7, "曇り");
+		dictionary.put((short) 3, "晴れ");
+		Assert.assertEquals(3, dictionary.codeOf("晴れ"));
+		Assert.assertEquals("new string should follow the highest code", 8, dictionary.codeOf("雨"));
+		Assert.assertEquals(3, dictionary.size());
+		try {
+			dictionary.put((short) 9, "晴れ");
+			Assert.fail("string should not get a second code");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("Duplicate string 晴れ", e.getMessage());
+		}
+		try {
+			dictionary.put((short) 7, "雪");
+			Assert.fail("code should not get a second string");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("Duplicate code 7", e.getMessage());
+		}
+		dictionary.put((short) 1000, "雪");
+		Assert.assertEquals("雪", dictionary.valueOf((short) 1000));
+	}
+}
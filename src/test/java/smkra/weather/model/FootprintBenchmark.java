@@ -0,0 +1,122 @@
+package smkra.weather.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import smkra.weather.http.StubWeatherServer;
+import smkra.weather.http.WeatherRequest;
+
+/**
+ * Measures the heap retained per cached city by the weather responses as received from a {@link StubWeatherServer},
+ * including their HTTP responses, and by their {@link CompactWeather} form, including the dictionary. The bytes per
+ * city are reported as the secondary results <code>responseBytesPerCity</code> and <code>compactBytesPerCity</code>,
+ * the primary results are the times of the conversions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms512m", "-Xmx512m"})
+public class FootprintBenchmark {
+
+	/**
+	 * Number of cities retained, roughly the number of cities of the weather API
+	 */
+	private static final int CITIES = 2000;
+
+	private static long responseBytesPerCity;
+	private static long compactBytesPerCity;
+
+	private WeatherResponse[] responses;
+	private CompactWeather[] compacts;
+	private int next;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		public long responseBytesPerCity;
+		public long compactBytesPerCity;
+
+		@TearDown(Level.Iteration)
+		public void report() {
+			responseBytesPerCity = FootprintBenchmark.responseBytesPerCity;
+			compactBytesPerCity = FootprintBenchmark.compactBytesPerCity;
+		}
+	}
+
+	/**
+	 * Measures the heap retained by the responses and, after releasing them, by their compact form.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		responses = new WeatherResponse[CITIES];
+		compacts = new CompactWeather[CITIES];
+		long empty = usedHeap();
+		fetch(responses);
+		responseBytesPerCity = (usedHeap() - empty) / CITIES;
+
+		for (int i = 0; i < CITIES; i++) {
+			compacts[i] = CompactWeather.of(responses[i]);
+			responses[i] = null;
+		}
+		compactBytesPerCity = (usedHeap() - empty) / CITIES;
+		for (int i = 0; i < CITIES; i++)
+			responses[i] = compacts[i].toWeatherResponse();
+	}
+
+	/**
+	 * Fetches the responses in a method of its own, so the request, remembering the responses it received, is
+	 * released before the heap is measured.
+	 */
+	private static void fetch(WeatherResponse[] responses) throws Exception {
+		StubWeatherServer server = new StubWeatherServer();
+		server.install();
+		WeatherRequest request = new WeatherRequest();
+		request.setCache(null);
+		request.setRateLimiter(null);
+		try {
+			for (int i = 0; i < responses.length; i++)
+				responses[i] = request.getWeatherFromID(String.format("%06d", i));
+		} finally {
+			request.closeHttpClient();
+			server.stop();
+		}
+	}
+
+	private static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		// repeated, since a single collection may leave garbage behind
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+
+	@Benchmark
+	public CompactWeather toCompact(Footprint footprint) {
+		return CompactWeather.of(responses[next++ % CITIES]);
+	}
+
+	@Benchmark
+	public WeatherResponse toWeatherResponse(Footprint footprint) {
+		return compacts[next++ % CITIES].toWeatherResponse();
+	}
+}
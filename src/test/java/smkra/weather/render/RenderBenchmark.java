@@ -0,0 +1,70 @@
+package smkra.weather.render;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import smkra.weather.http.WeatherResponseDecoder;
+import smkra.weather.model.WeatherResponse;
+
+/**
+ * Measures rendering the recorded forecast as text and html, with and without the description, both to a String
+ * and UTF-8 encoded to a stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+	@Param({ "false", "true" })
+	private boolean html;
+	@Param({ "false", "true" })
+	private boolean detail;
+
+	private WeatherResponse response;
+	private WeatherRenderer renderer;
+	private final OutputStream nullStream = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	@Setup
+	public void setUp() throws IOException {
+		byte[] json = Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"));
+		response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+		renderer = new WeatherRenderer(html, detail);
+	}
+
+	@Benchmark
+	public String renderToString() {
+		return response.toString(html, detail);
+	}
+
+	@Benchmark
+	public void renderToStream() throws IOException {
+		renderer.render(response, nullStream);
+	}
+}
@@ -0,0 +1,73 @@
+package smkra.weather.render;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import smkra.weather.http.WeatherResponseDecoder;
+import smkra.weather.model.WeatherResponse;
+
+public class RendererTest {
+
+	private static WeatherResponse response;
+
+	@BeforeClass
+	public static void loadResponse() throws Exception {
+		byte[] json = Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"));
+		response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(json));
+	}
+
+	@Test
+	public void testText() throws Exception {
+		assertRendering(false, false, "forecast_020010_text.txt");
+	}
+
+	@Test
+	public void testTextDetail() throws Exception {
+		assertRendering(false, true, "forecast_020010_text_detail.txt");
+	}
+
+	@Test
+	public void testHtml() throws Exception {
+		assertRendering(true, false, "forecast_020010_html.txt");
+	}
+
+	@Test
+	public void testHtmlDetail() throws Exception {
+		assertRendering(true, true, "forecast_020010_html_detail.txt");
+	}
+
+	@Test
+	public void testUtf8Sink() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 3000; i++)
+			text.append("aé天🌸");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		RenderSink sink = RenderSink.utf8(bytes);
+		sink.write(text);
+		sink.write(new Fragment("最高気温"));
+		sink.flush();
+		Assert.assertEquals(text + "最高気温", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private static void assertRendering(boolean html, boolean detail, String expectedFile) throws Exception {
+		String expected = new String(Files.readAllBytes(Paths.get("src/test/resources", expectedFile)), StandardCharsets.UTF_8);
+		WeatherRenderer renderer = new WeatherRenderer(html, detail);
+		Assert.assertEquals("String rendering", expected, response.toString(html, detail));
+
+		StringWriter writer = new StringWriter();
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		renderer.render(response, RenderSink.of(writer), RenderSink.utf8(first), RenderSink.utf8(second));
+		Assert.assertEquals("Appendable rendering", expected, writer.toString());
+		Assert.assertEquals("UTF-8 rendering", expected, new String(first.toByteArray(), StandardCharsets.UTF_8));
+		Assert.assertArrayEquals("tee rendering", first.toByteArray(), second.toByteArray());
+	}
+}
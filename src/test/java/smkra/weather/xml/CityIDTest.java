@@ -0,0 +1,130 @@
+package smkra.weather.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import smkra.weather.http.WeatherServiceException;
+
+public class CityIDTest {
+
+	private static CityID cityID;
+
+	@BeforeClass
+	public static void loadCityID() throws Exception {
+		cityID = new CityID();
+	}
+
+	@Test
+	public void testAllCities() throws Exception {
+		List<City> cities = cityID.getCities();
+		Assert.assertEquals("number of cities", 142, cities.size());
+		for (City city : cities) {
+			Assert.assertEquals("wrong ID for " + city.getTitle(), city.getId(), cityID.getCityID(city.getTitle()));
+			Assert.assertSame("wrong city for " + city.getId(), city, cityID.getCity(city.getId()));
+		}
+		City aomori = cityID.getCity("020010");
+		Assert.assertEquals("city name", "青森", aomori.getTitle());
+		Assert.assertEquals("prefecture name", "青森県", aomori.getPref());
+	}
+
+	@Test
+	public void testUnwritableSnapshot() throws Exception {
+		Path file = Files.createTempFile("area", ".bin");
+		String snapshot = CityID.SNAPSHOT_FILE;
+		ByteArrayOutputStream messages = new ByteArrayOutputStream();
+		try {
+			// a regular file cannot be the directory of the snapshot
+			CityID.SNAPSHOT_FILE = file.resolve("primary_area.bin").toString();
+			CityID.outStream = new PrintStream(messages, true, "utf-8");
+			CityID unwritable = new CityID();
+			Assert.assertEquals("020010", unwritable.getCityID("青森"));
+			Assert.assertTrue(messages.toString("utf-8").startsWith("Could not write snapshot " + CityID.SNAPSHOT_FILE + ": "));
+		} finally {
+			CityID.SNAPSHOT_FILE = snapshot;
+			CityID.outStream = System.out;
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		AreaIndex parsed;
+		try (FileInputStream fis = new FileInputStream("data/primary_area.xml")) {
+			parsed = AreaXmlParser.parse(fis, "Fri, 09 Feb 2018 00:00:00 GMT");
+		}
+		Assert.assertEquals("lastBuildDate", "Fri, 09 Feb 2018 05:00:00 +0900", parsed.getLastBuildDate());
+		Assert.assertEquals("warn feed", "http://weather.livedoor.com/forecast/rss/warn/02.xml",
+				parsed.getCityByID("020010").getWarn());
+
+		Path file = Files.createTempFile("area", ".bin");
+		try {
+			AreaSnapshot.write(file, parsed);
+			AreaIndex read = AreaSnapshot.read(file);
+			Assert.assertEquals("lastBuildDate", parsed.getLastBuildDate(), read.getLastBuildDate());
+			Assert.assertEquals("lastModified", parsed.getLastModified(), read.getLastModified());
+			Assert.assertEquals("number of cities", parsed.getCities().size(), read.getCities().size());
+			for (int i = 0; i < parsed.getCities().size(); i++) {
+				City expected = parsed.getCities().get(i);
+				City actual = read.getCities().get(i);
+				Assert.assertEquals(expected.getId(), actual.getId());
+				Assert.assertEquals(expected.getTitle(), actual.getTitle());
+				Assert.assertEquals(expected.getPref(), actual.getPref());
+				Assert.assertEquals(expected.getSource(), actual.getSource());
+				Assert.assertEquals(expected.getWarn(), actual.getWarn());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testUnknownCity() {
+		for (String city : new String[] { "ウィーン", "\"]", "", null }) {
+			try {
+				cityID.getCityID(city);
+				Assert.fail("no ID expected for " + city);
+			} catch (WeatherServiceException e) {
+				Assert.assertEquals("Could not get weather information for specified city.", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testReadings() throws WeatherServiceException {
+		Assert.assertEquals("020010", cityID.getCityID("あおもり"));
+		Assert.assertEquals("020010", cityID.getCityID("Aomori"));
+		Assert.assertEquals("020010", cityID.suggest("aomri", 1).get(0).getId());
+	}
+
+	@Test
+	public void testLookupLikeXPath() throws Exception {
+		Document document;
+		try (FileInputStream fis = new FileInputStream("data/primary_area.xml")) {
+			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(fis);
+		}
+		XPath xpath = XPathFactory.newInstance().newXPath();
+		NodeList nodes = (NodeList) xpath.evaluate("//city", document, XPathConstants.NODESET);
+		Assert.assertEquals("number of cities", nodes.getLength(), cityID.getCities().size());
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Element city = (Element) nodes.item(i);
+			Assert.assertEquals("wrong ID for " + city.getAttribute("title"), city.getAttribute("id"),
+					cityID.getCityID(city.getAttribute("title")));
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package smkra.weather.xml;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import smkra.weather.http.WeatherServiceException;
+
+/**
+ * Measures {@link CityID#getCityID(String)} over all cities of <code>data/primary_area.xml</code>, reported per
+ * lookup, as well as looking up a reading and suggesting cities for a misspelled name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CityLookupBenchmark {
+
+	private static final int CITIES = 142;
+
+	private CityID cityID;
+	private String[] titles;
+
+	@Setup
+	public void setUp() throws Exception {
+		cityID = new CityID();
+		List<City> cities = cityID.getCities();
+		titles = new String[cities.size()];
+		for (int i = 0; i < titles.length; i++)
+			titles[i] = cities.get(i).getTitle();
+		if (titles.length != CITIES)
+			throw new IllegalStateException("Expected " + CITIES + " cities, found " + titles.length);
+	}
+
+	@Benchmark
+	public List<City> suggestMisspelled() {
+		return cityID.suggest("sappro", 5);
+	}
+
+	@Benchmark
+	public String getCityIDByReading() throws WeatherServiceException {
+		return cityID.getCityID("トウキョウ");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CITIES)
+	public void getCityID(Blackhole blackhole) throws WeatherServiceException {
+		for (String title : titles)
+			blackhole.consume(cityID.getCityID(title));
+	}
+}
@@ -0,0 +1,77 @@
+package smkra.weather.xml;
+
+import java.io.FileInputStream;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CitySearchTest {
+
+	private static AreaIndex index;
+	private static CitySearch search;
+
+	@BeforeClass
+	public static void buildSearch() throws Exception {
+		try (FileInputStream fis = new FileInputStream("data/primary_area.xml")) {
+			index = AreaXmlParser.parse(fis, "");
+		}
+		search = new CitySearch(index, CitySearch.readAliases(Paths.get("data/city_readings.txt")));
+	}
+
+	@Test
+	public void testNormalize() {
+		Assert.assertEquals("とうきょう", CityNames.normalize("トウキョウ"));
+		Assert.assertEquals("とうきょう", CityNames.normalize("ﾄｳｷｮｳ"));
+		Assert.assertEquals("がっこう", CityNames.normalize("ｶﾞｯｺｳ"));
+		Assert.assertEquals("tokyo", CityNames.normalize("Ｔｏｋｙｏ"));
+		Assert.assertEquals("tokyo", CityNames.normalize("Tōkyō"));
+		Assert.assertEquals("東京", CityNames.normalize(" 東京 "));
+	}
+
+	@Test
+	public void testRomanize() {
+		Assert.assertEquals("toukyou", CityNames.romanize("とうきょう"));
+		Assert.assertEquals("tokyo", CityNames.shortenVowels(CityNames.romanize("とうきょう")));
+		Assert.assertEquals("sapporo", CityNames.romanize("さっぽろ"));
+		Assert.assertEquals("kutchan", CityNames.romanize("くっちゃん"));
+		Assert.assertEquals("shinjou", CityNames.romanize("しんじょう"));
+		Assert.assertNull(CityNames.romanize("東京"));
+	}
+
+	@Test
+	public void testFind() {
+		for (City city : index.getCities())
+			Assert.assertSame("title of " + city.getId(), index.getCityByTitle(city.getTitle()), search.find(city.getTitle()));
+		String tokyo = "130010";
+		for (String query : new String[] { "東京", "とうきょう", "トウキョウ", "ﾄｳｷｮｳ", "Tokyo", "TOKYO", "toukyou", "Ｔｏｋｙｏ" })
+			Assert.assertEquals("query " + query, tokyo, search.find(query).getId());
+		Assert.assertEquals("270000", search.find("Osaka").getId());
+		Assert.assertEquals("016030", search.find("Kutchan").getId());
+		Assert.assertNull(search.find("ウィーン"));
+		Assert.assertNull(search.find(""));
+	}
+
+	@Test
+	public void testSuggestPrefix() {
+		List<City> suggestions = search.suggest("なが", 10);
+		Assert.assertTrue(suggestions.contains(index.getCityByTitle("長野")));
+		Assert.assertTrue(suggestions.contains(index.getCityByTitle("長崎")));
+		Assert.assertTrue(suggestions.contains(index.getCityByTitle("長岡")));
+		Assert.assertEquals("shortest name first", index.getCityByTitle("長野"), search.suggest("なが", 1).get(0));
+		Assert.assertEquals("exact match first", index.getCityByTitle("宮古"), search.suggest("みやこ", 5).get(0));
+		Assert.assertTrue(search.suggest("miyako", 5).contains(index.getCityByTitle("宮古島")));
+		Assert.assertEquals(3, search.suggest("f", 3).size());
+	}
+
+	@Test
+	public void testSuggestTypo() {
+		Assert.assertEquals(index.getCityByTitle("札幌"), search.suggest("sappro", 3).get(0));
+		Assert.assertEquals(index.getCityByTitle("東京"), search.suggest("tokio", 3).get(0));
+		Assert.assertEquals(index.getCityByTitle("鹿児島"), search.suggest("かごしあ", 3).get(0));
+		Assert.assertTrue(search.suggest("ウィーン", 5).isEmpty());
+		Assert.assertTrue(search.suggest("", 5).isEmpty());
+	}
+}
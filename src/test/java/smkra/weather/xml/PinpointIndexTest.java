@@ -0,0 +1,136 @@
+package smkra.weather.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import smkra.weather.http.StubWeatherServer;
+import smkra.weather.http.WeatherRequest;
+import smkra.weather.http.WeatherResponseDecoder;
+import smkra.weather.http.WeatherServiceException;
+import smkra.weather.model.Link;
+import smkra.weather.model.WeatherResponse;
+
+public class PinpointIndexTest {
+
+	private Path directory;
+	private Link[] pinpoints;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("pinpoints");
+		WeatherResponse response = WeatherResponseDecoder.FULL.decode(new ByteArrayInputStream(
+				Files.readAllBytes(Paths.get("src/test/resources/forecast_020010.json"))));
+		pinpoints = response.getPinpointLocations();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testLookupAndReopen() throws IOException {
+		Path file = directory.resolve("data").resolve("pinpoints.txt");
+		PinpointIndex index = new PinpointIndex(file);
+		Assert.assertNull(index.getCityID("黒石市"));
+		Assert.assertEquals(pinpoints.length, index.add("020010", pinpoints));
+		Assert.assertEquals("known names should not be added again", 0, index.add("020010", pinpoints));
+		Assert.assertEquals("020010", index.getCityID("黒石市"));
+		Assert.assertEquals("name without suffix should be found", "020010", index.getCityID("黒石"));
+		Assert.assertEquals("name should be normalized", "020010", index.getCityID("ツガル市"));
+		Assert.assertNull(index.getCityID("府中市"));
+		Assert.assertEquals(pinpoints.length, Files.readAllLines(file).size());
+
+		PinpointIndex reopened = new PinpointIndex(file);
+		Assert.assertEquals("020010", reopened.getCityID("五所川原市"));
+		Assert.assertEquals(index.size(), reopened.size());
+	}
+
+	@Test
+	public void testAmbiguousName() throws IOException {
+		Path file = directory.resolve("pinpoints.txt");
+		PinpointIndex index = new PinpointIndex(file);
+		index.add("130010", new Link[] {link("府中市"), link("調布市")});
+		Assert.assertEquals("130010", index.getCityID("府中市"));
+		index.add("340010", new Link[] {link("府中市")});
+		Assert.assertNull("name of several cities should not be resolved", index.getCityID("府中市"));
+		Assert.assertEquals("130010", index.getCityID("調布市"));
+		Assert.assertNull("ambiguity should be kept after reopening", new PinpointIndex(file).getCityID("府中"));
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		PinpointIndex index = new PinpointIndex(directory.resolve("pinpoints.txt"));
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> added = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				String cityID = String.format("%06d", i % 16);
+				Link[] links = new Link[50];
+				for (int j = 0; j < links.length; j++)
+					links[j] = link("町" + cityID + "-" + j + "市");
+				added.add(executor.submit(() -> {
+					index.getCityID("町000001-1市");
+					return index.add(cityID, links);
+				}));
+			}
+			int total = 0;
+			for (Future<Integer> count : added)
+				total += count.get();
+			Assert.assertEquals("every name should be written once", 16 * 50, total);
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(16 * 50, Files.readAllLines(index.getFile()).size());
+		Assert.assertEquals("000007", new PinpointIndex(index.getFile()).getCityID("町000007-49"));
+	}
+
+	@Test
+	public void testWeatherRequestFallback() throws Exception {
+		StubWeatherServer server = new StubWeatherServer();
+		server.install();
+		WeatherRequest request = new WeatherRequest();
+		try {
+			request.setCache(null);
+			request.setRateLimiter(null);
+			request.setPinpoints(new PinpointIndex(directory.resolve("pinpoints.txt")));
+			try {
+				request.getCityIDFromName("黒石市");
+				Assert.fail("pinpoint location should be unknown before a response was received");
+			} catch (WeatherServiceException e) {
+				// expected
+			}
+			request.getWeatherFromID("020010");
+			int requests = server.getRequests();
+			Assert.assertEquals("020010", request.getCityIDFromName("黒石市"));
+			Assert.assertEquals("lookup should not send requests", requests, server.getRequests());
+			Assert.assertEquals("青森", request.getWeatherDataFromName("黒石").getLocation().getCity());
+		} finally {
+			request.closeHttpClient();
+			server.stop();
+		}
+	}
+
+	private static Link link(String name) {
+		Link link = new Link();
+		link.setName(name);
+		return link;
+	}
+}